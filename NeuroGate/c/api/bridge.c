@@ -16,6 +16,30 @@ static int g_synapse_count = 0;
 static int g_synapse_capacity = 0;
 static float g_simulation_time = 0.0f;
 
+// Spike events recorded since the last drain, as (neuron id, step) pairs
+static jint *g_spikes = NULL;
+static int g_spike_count = 0;
+static int g_spike_capacity = 0;
+static jint g_step = 0;
+
+// Record a firing event; events are dropped if the buffer cannot grow
+static void record_spike(uint32_t neuron_id) {
+    if (g_spike_count == g_spike_capacity) {
+        int new_capacity = g_spike_capacity == 0 ? 1024 : g_spike_capacity * 2;
+        jint *grown = (jint *)mm_realloc(g_spikes, (size_t)new_capacity * 2 * sizeof(jint));
+        if (!grown) {
+            log_warn("Spike buffer full, dropping event for neuron %u", neuron_id);
+            return;
+        }
+        g_spikes = grown;
+        g_spike_capacity = new_capacity;
+    }
+
+    g_spikes[g_spike_count * 2] = (jint)neuron_id;
+    g_spikes[g_spike_count * 2 + 1] = g_step;
+    g_spike_count++;
+}
+
 // Initialize the NeuroCore system
 JNIEXPORT jint JNICALL Java_interop_NeuroBridge_initCore(JNIEnv *env, jobject obj) {
     if (g_initialized) {
@@ -47,6 +71,8 @@ JNIEXPORT jint JNICALL Java_interop_NeuroBridge_initCore(JNIEnv *env, jobject ob
     g_neuron_count = 0;
     g_synapse_count = 0;
     g_simulation_time = 0.0f;
+    g_spike_count = 0;
+    g_step = 0;
     g_initialized = 1;
     
     log_info("NeuroCore initialized");
@@ -76,6 +102,12 @@ JNIEXPORT void JNICALL Java_interop_NeuroBridge_cleanupCore(JNIEnv *env, jobject
     // Free arrays
     mm_free(g_neurons);
     mm_free(g_synapses);
+    if (g_spikes) {
+        mm_free(g_spikes);
+        g_spikes = NULL;
+    }
+    g_spike_count = 0;
+    g_spike_capacity = 0;
     
     g_neurons = NULL;
     g_synapses = NULL;
@@ -229,6 +261,7 @@ JNIEXPORT jfloatArray JNICALL Java_interop_NeuroBridge_runSimulationStep(
     
     // Update simulation time
     g_simulation_time += timeStep;
+    g_step++;
     
     // Process all neurons
     float *outputs = (float *)mm_alloc(g_neuron_count * sizeof(float));
@@ -245,8 +278,10 @@ JNIEXPORT jfloatArray JNICALL Java_interop_NeuroBridge_runSimulationStep(
             // Check for firing
             int fired = neuron_fire(g_neurons[i], g_simulation_time);
             
-            // If neuron fired, propagate signal to connected neurons
+            // If neuron fired, record the spike and propagate signal to connected neurons
             if (fired) {
+                record_spike(g_neurons[i]->id);
+                
                 for (uint32_t j = 0; j < g_neurons[i]->num_connections; j++) {
                     uint32_t target_id = g_neurons[i]->connected_neurons[j];
                     
@@ -301,4 +336,25 @@ JNIEXPORT jlong JNICALL Java_interop_NeuroBridge_getMemoryUsage(
     }
     
     return (jlong)mm_get_used_memory();
+}
+
+// Drain recorded spike events
+JNIEXPORT jintArray JNICALL Java_interop_NeuroBridge_drainSpikes(
+    JNIEnv *env, jobject obj) {
+    
+    if (!g_initialized) {
+        return (*env)->NewIntArray(env, 0);
+    }
+    
+    jintArray result = (*env)->NewIntArray(env, g_spike_count * 2);
+    if (result == NULL) {
+        return NULL;
+    }
+    
+    if (g_spike_count > 0) {
+        (*env)->SetIntArrayRegion(env, result, 0, g_spike_count * 2, g_spikes);
+    }
+    g_spike_count = 0;
+    
+    return result;
 }
\ No newline at end of file
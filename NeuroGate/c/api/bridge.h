@@ -40,6 +40,10 @@ JNIEXPORT jfloatArray JNICALL Java_interop_NeuroBridge_runSimulationStep(
 JNIEXPORT jlong JNICALL Java_interop_NeuroBridge_getMemoryUsage(
     JNIEnv *env, jobject obj);
 
+// Drain spike events recorded since the last call, as (neuron id, step) pairs
+JNIEXPORT jintArray JNICALL Java_interop_NeuroBridge_drainSpikes(
+    JNIEnv *env, jobject obj);
+
 #ifdef __cplusplus
 }
 #endif
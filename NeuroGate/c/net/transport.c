@@ -6,6 +6,7 @@
 #include <unistd.h>
 #include <fcntl.h>
 #include <errno.h>
+#include <arpa/inet.h>
 
 // Protocol constants
 #define TRANSPORT_MAGIC 0x4E474154  // "NGAT" in ASCII
@@ -22,6 +23,7 @@
 #define FLAG_LAST_FRAGMENT 0x0008
 #define FLAG_URGENT 0x0010
 #define FLAG_RELIABLE 0x0020
+#define FLAG_PUSH 0x0040  // Unsolicited frame on a subscription
 
 // Initialize transport layer
 int transport_init(void) {
@@ -229,4 +231,45 @@ uint32_t transport_calculate_checksum(const void *data, size_t length) {
     }
     
     return checksum;
+}
+
+// Encode a header in network byte order, matching the Java TransportHeader
+void transport_encode_header(const transport_header_t *header, uint8_t *buffer) {
+    uint32_t u32;
+    uint16_t u16;
+    
+    u32 = htonl(header->magic);       memcpy(buffer, &u32, 4);
+    buffer[4] = header->version;
+    buffer[5] = header->type;
+    u16 = htons(header->flags);       memcpy(buffer + 6, &u16, 2);
+    u32 = htonl(header->seq_num);     memcpy(buffer + 8, &u32, 4);
+    u32 = htonl(header->ack_num);     memcpy(buffer + 12, &u32, 4);
+    u32 = htonl(header->data_length); memcpy(buffer + 16, &u32, 4);
+    u32 = htonl(header->checksum);    memcpy(buffer + 20, &u32, 4);
+}
+
+// Decode a header in network byte order and validate magic and version
+int transport_decode_header(const uint8_t *buffer, transport_header_t *header) {
+    uint32_t u32;
+    uint16_t u16;
+    
+    memcpy(&u32, buffer, 4);      header->magic = ntohl(u32);
+    header->version = buffer[4];
+    header->type = buffer[5];
+    memcpy(&u16, buffer + 6, 2);  header->flags = ntohs(u16);
+    memcpy(&u32, buffer + 8, 4);  header->seq_num = ntohl(u32);
+    memcpy(&u32, buffer + 12, 4); header->ack_num = ntohl(u32);
+    memcpy(&u32, buffer + 16, 4); header->data_length = ntohl(u32);
+    memcpy(&u32, buffer + 20, 4); header->checksum = ntohl(u32);
+    
+    if (header->magic != TRANSPORT_MAGIC) {
+        log_error("Invalid transport magic 0x%08x", header->magic);
+        return -1;
+    }
+    if (header->version != TRANSPORT_VERSION) {
+        log_error("Unsupported transport version %u", header->version);
+        return -1;
+    }
+    
+    return 0;
 }
\ No newline at end of file
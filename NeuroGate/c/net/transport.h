@@ -27,6 +27,9 @@ typedef struct {
     uint32_t checksum;       // Message checksum
 } transport_header_t;
 
+// Size of the header on the wire (network byte order, no padding)
+#define TRANSPORT_HEADER_WIRE_SIZE 24
+
 // Transport connection structure
 typedef struct {
     int socket;              // Socket descriptor
@@ -72,4 +75,10 @@ int transport_get_status(transport_connection_t *conn);
 // Calculate checksum for message
 uint32_t transport_calculate_checksum(const void *data, size_t length);
 
+// Encode a header into TRANSPORT_HEADER_WIRE_SIZE bytes in network byte order
+void transport_encode_header(const transport_header_t *header, uint8_t *buffer);
+
+// Decode a header from TRANSPORT_HEADER_WIRE_SIZE bytes, returns 0 on success
+int transport_decode_header(const uint8_t *buffer, transport_header_t *header);
+
 #endif // TRANSPORT_H
\ No newline at end of file
@@ -6,11 +6,20 @@ import db.PersistenceLayer;
 import interop.NeuroBridge;
 import simulation.ResultProcessor;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
 
 /**
  * NeuroCLI provides a command-line interface for controlling simulations.
@@ -18,8 +27,12 @@ import java.util.logging.Logger;
 public class NeuroCLI {
     private static final Logger logger = Logger.getLogger(NeuroCLI.class.getName());
     
+    // Stored results printed before asking to continue
+    private static final int RESULT_PAGE_SIZE = 20;
+    
     private final NodeController nodeController;
     private final PersistenceLayer persistenceLayer;
+    private final ResultProcessor resultProcessor;
     private final BufferedReader reader;
     private boolean running;
     
@@ -30,8 +43,21 @@ public class NeuroCLI {
      * @param persistenceLayer The persistence layer
      */
     public NeuroCLI(NodeController nodeController, PersistenceLayer persistenceLayer) {
+        this(nodeController, persistenceLayer, null);
+    }
+    
+    /**
+     * Create a new CLI instance with access to live session results.
+     * 
+     * @param nodeController The node controller
+     * @param persistenceLayer The persistence layer
+     * @param resultProcessor The result processor holding running session statistics
+     */
+    public NeuroCLI(NodeController nodeController, PersistenceLayer persistenceLayer,
+                    ResultProcessor resultProcessor) {
         this.nodeController = nodeController;
         this.persistenceLayer = persistenceLayer;
+        this.resultProcessor = resultProcessor;
         this.reader = new BufferedReader(new InputStreamReader(System.in));
         this.running = false;
     }
@@ -94,6 +120,10 @@ public class NeuroCLI {
                 printHelp();
                 break;
                 
+            case "status":
+                printStatus();
+                break;
+                
             case "exit":
             case "quit":
                 System.out.println("Exiting NeuroGate CLI...");
@@ -133,6 +163,7 @@ public class NeuroCLI {
     private void printHelp() {
         System.out.println("Available commands:");
         System.out.println("  help                       - Show this help information");
+        System.out.println("  status                     - Show scheduler, connection, result pipeline and memory metrics");
         System.out.println("  exit, quit                 - Exit the CLI");
         System.out.println();
         System.out.println("Node commands:");
@@ -149,7 +180,10 @@ public class NeuroCLI {
         System.out.println("  session status <id>        - Get session status");
         System.out.println();
         System.out.println("Result commands:");
-        System.out.println("  result get <sessionId>     - Get results for a session");
+        System.out.println("  result get <sessionId> [nodeId|all] [minutes] - Get results for a session, a page at a time");
+        System.out.println("  result window <sessionId>  - Get 1s/10s/60s rolling statistics for a live session");
+        System.out.println("  result history <sessionId> <minutes> [resolutionSeconds] - Get results over the last minutes");
+        System.out.println("  result export <sessionId> <file> - Export stored results as JSON");
         System.out.println();
         System.out.println("Log commands:");
         System.out.println("  log get <sessionId>        - Get logs for a session");
@@ -159,6 +193,20 @@ public class NeuroCLI {
         System.out.println("  local test                 - Run a simple local test");
     }
     
+    /**
+     * Print the controller's runtime metrics.
+     */
+    private void printStatus() {
+        System.out.println("Scheduler:");
+        printMap(nodeController.getSchedulerMetrics(), "  ");
+        System.out.println("Connections:");
+        printMap(new HashMap<String, Object>(nodeController.getConnectionStats()), "  ");
+        System.out.println("Result pipeline:");
+        printMap(resultProcessor.getPipelineMetrics(), "  ");
+        System.out.println("Memory:");
+        printMap(resultProcessor.getMemoryMetrics(), "  ");
+    }
+    
     /**
      * Process a node command.
      * 
@@ -391,11 +439,22 @@ public class NeuroCLI {
             case "get":
                 // Get results for a session
                 if (parts.length < 2) {
-                    System.out.println("Usage: result get <sessionId>");
+                    System.out.println("Usage: result get <sessionId> [nodeId|all] [minutes]");
                     break;
                 }
                 
                 String sessionId = parts[1];
+                
+                // Live sessions report their running statistics
+                if (resultProcessor != null && nodeController.getSessions().containsKey(sessionId)) {
+                    Map<String, Object> live = resultProcessor.getSessionResults(sessionId);
+                    if (live != null) {
+                        System.out.println("Live results for session " + sessionId + ":");
+                        printMap(live, "  ");
+                        break;
+                    }
+                }
+                
                 Map<String, Object> results = persistenceLayer.getFinalResults(sessionId);
                 if (results != null) {
                     System.out.println("Final results for session " + sessionId + ":");
@@ -403,18 +462,92 @@ public class NeuroCLI {
                 } else {
                     System.out.println("No final results found for session " + sessionId);
                     
-                    // Try to get individual results
-                    List<Map<String, Object>> resultsList = persistenceLayer.getResults(sessionId);
-                    if (!resultsList.isEmpty()) {
-                        System.out.println("Individual results for session " + sessionId + ":");
-                        for (Map<String, Object> result : resultsList) {
-                            System.out.println("  Node: " + result.get("nodeId") + ", Time: " + result.get("timestamp"));
-                            printMap((Map<String, Object>) result.get("results"), "    ");
-                            System.out.println();
+                    // Page through individual results, optionally for one node or recent minutes
+                    String nodeId = parts.length > 2 && !parts[2].equalsIgnoreCase("all") ? parts[2] : null;
+                    long fromMs = 0;
+                    if (parts.length > 3) {
+                        try {
+                            fromMs = System.currentTimeMillis() - Long.parseLong(parts[3]) * 60000;
+                        } catch (NumberFormatException e) {
+                            System.out.println("Error: Minutes must be a number");
+                            break;
                         }
+                    }
+                    
+                    try (Stream<Map<String, Object>> stored = persistenceLayer.streamResults(
+                            sessionId, nodeId, fromMs, Long.MAX_VALUE, PersistenceLayer.DEFAULT_FETCH_SIZE)) {
+                        int shown = printResultPages(stored.iterator(), "Individual results for session " + sessionId + ":");
+                        if (shown == 0) {
+                            System.out.println("No results found for session " + sessionId);
+                        }
+                    } catch (UncheckedIOException e) {
+                        System.out.println("Error: Cannot read results: " + e.getMessage());
+                    }
+                }
+                break;
+                
+            case "window":
+                // Get rolling statistics for a live session
+                if (parts.length < 2) {
+                    System.out.println("Usage: result window <sessionId>");
+                    break;
+                }
+                
+                Map<String, Object> windows = resultProcessor != null
+                    ? resultProcessor.getWindowedStats(parts[1])
+                    : null;
+                if (windows != null) {
+                    System.out.println("Rolling statistics for session " + parts[1] + ":");
+                    printMap(windows, "  ");
+                } else {
+                    System.out.println("No live results for session " + parts[1]);
+                }
+                break;
+                
+            case "history":
+                // Get stored results over a time range at a given resolution
+                if (parts.length < 3) {
+                    System.out.println("Usage: result history <sessionId> <minutes> [resolutionSeconds]");
+                    break;
+                }
+                
+                try {
+                    long now = System.currentTimeMillis();
+                    long fromMs = now - Long.parseLong(parts[2]) * 60000;
+                    long resolutionMs = parts.length > 3 ? Long.parseLong(parts[3]) * 1000 : 0;
+                    List<Map<String, Object>> history = persistenceLayer.getResults(parts[1], fromMs, now, resolutionMs);
+                    if (history.isEmpty()) {
+                        System.out.println("No results found for session " + parts[1]);
+                        break;
+                    }
+                    
+                    System.out.println("Results for session " + parts[1] + " (" + history.size() + " entries, tier " +
+                                       history.get(0).get("tier") + "):");
+                    for (Map<String, Object> result : history) {
+                        System.out.println("  Node: " + result.get("nodeId") + ", Time: " + result.get("timestamp"));
+                        printMap(asResultMap(result.get("results")), "    ");
+                    }
+                } catch (NumberFormatException e) {
+                    System.out.println("Error: Minutes and resolution must be numbers");
+                }
+                break;
+                
+            case "export":
+                // Export stored results to a JSON file
+                if (parts.length < 3) {
+                    System.out.println("Usage: result export <sessionId> <file>");
+                    break;
+                }
+                
+                try (Writer out = new BufferedWriter(new FileWriter(parts[2], StandardCharsets.UTF_8))) {
+                    int exported = persistenceLayer.exportResults(parts[1], out);
+                    if (exported >= 0) {
+                        System.out.println("Exported " + exported + " results for session " + parts[1] + " to " + parts[2]);
                     } else {
-                        System.out.println("No results found for session " + sessionId);
+                        System.out.println("Error: Export failed");
                     }
+                } catch (IOException e) {
+                    System.out.println("Error: Cannot write " + parts[2] + ": " + e.getMessage());
                 }
                 break;
                 
@@ -425,6 +558,57 @@ public class NeuroCLI {
         }
     }
     
+    /**
+     * Copy a stored result's decoded results into a map that can be printed.
+     * 
+     * @param value The decoded results
+     * @return The results keyed by name, or null if they are not a map
+     */
+    private static Map<String, Object> asResultMap(Object value) {
+        if (!(value instanceof Map)) {
+            return null;
+        }
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+            map.put(String.valueOf(entry.getKey()), entry.getValue());
+        }
+        return map;
+    }
+    
+    /**
+     * Print stored results a page at a time, reading the next page only
+     * once the user asks for it.
+     * 
+     * @param results The results to print
+     * @param heading The line printed before the first result
+     * @return The number of results printed
+     */
+    private int printResultPages(Iterator<Map<String, Object>> results, String heading) {
+        int shown = 0;
+        while (results.hasNext()) {
+            if (shown == 0) {
+                System.out.println(heading);
+            } else if (shown % RESULT_PAGE_SIZE == 0) {
+                System.out.print("-- more (Enter to continue, q to quit) --");
+                try {
+                    String answer = reader.readLine();
+                    if (answer == null || answer.trim().equalsIgnoreCase("q")) {
+                        break;
+                    }
+                } catch (IOException e) {
+                    break;
+                }
+            }
+            
+            Map<String, Object> result = results.next();
+            System.out.println("  Node: " + result.get("nodeId") + ", Time: " + result.get("timestamp"));
+            printMap(asResultMap(result.get("results")), "    ");
+            System.out.println();
+            shown++;
+        }
+        return shown;
+    }
+    
     /**
      * Process a log command.
      * 
@@ -518,6 +702,8 @@ public class NeuroCLI {
                         }
                     }
                     
+                    System.out.println("Spikes recorded: " + bridge.getSpikes().size());
+                    
                     // Clean up
                     bridge.shutdown();
                     System.out.println("Test completed successfully.");
@@ -0,0 +1,164 @@
+package config;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * AppConfig provides typed access to the settings in app.properties.
+ * Missing or malformed values fall back to the default supplied by the caller,
+ * so components keep working when the file is absent.
+ */
+public class AppConfig {
+    private static final Logger logger = Logger.getLogger(AppConfig.class.getName());
+
+    // Default location of the configuration file, relative to the project root
+    private static final String DEFAULT_PATH = "./java/src/config/app.properties";
+    private static final String RESOURCE_NAME = "/config/app.properties";
+
+    private final Properties properties;
+
+    /**
+     * Create an empty configuration in which every lookup returns its default.
+     */
+    public AppConfig() {
+        this(new Properties());
+    }
+
+    /**
+     * Create a configuration backed by the given properties.
+     *
+     * @param properties The configuration properties
+     */
+    public AppConfig(Properties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * Load the configuration from the default location. The path can be
+     * overridden with the neurogate.config system property; if no file is
+     * found the copy bundled on the classpath is used.
+     *
+     * @return The loaded configuration
+     */
+    public static AppConfig load() {
+        return load(System.getProperty("neurogate.config", DEFAULT_PATH));
+    }
+
+    /**
+     * Load the configuration from a file.
+     *
+     * @param path The path to the properties file
+     * @return The loaded configuration, empty if it could not be read
+     */
+    public static AppConfig load(String path) {
+        Properties properties = new Properties();
+
+        try (InputStream in = new FileInputStream(path)) {
+            properties.load(in);
+            logger.info("Loaded configuration from " + path);
+            return new AppConfig(properties);
+        } catch (IOException e) {
+            logger.fine("Could not read configuration file " + path + ": " + e.getMessage());
+        }
+
+        try (InputStream in = AppConfig.class.getResourceAsStream(RESOURCE_NAME)) {
+            if (in != null) {
+                properties.load(in);
+                logger.info("Loaded configuration from classpath");
+                return new AppConfig(properties);
+            }
+        } catch (IOException e) {
+            logger.warning("Error reading bundled configuration: " + e.getMessage());
+        }
+
+        logger.warning("No configuration found, using defaults");
+        return new AppConfig(properties);
+    }
+
+    /**
+     * Get a string setting.
+     *
+     * @param key The setting name
+     * @param defaultValue The value to use if the setting is missing
+     * @return The setting value
+     */
+    public String getString(String key, String defaultValue) {
+        String value = properties.getProperty(key);
+        return value != null ? value.trim() : defaultValue;
+    }
+
+    /**
+     * Get an integer setting.
+     *
+     * @param key The setting name
+     * @param defaultValue The value to use if the setting is missing or invalid
+     * @return The setting value
+     */
+    public int getInt(String key, int defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warning("Invalid integer for " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Get a long setting.
+     *
+     * @param key The setting name
+     * @param defaultValue The value to use if the setting is missing or invalid
+     * @return The setting value
+     */
+    public long getLong(String key, long defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warning("Invalid integer for " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Get a floating point setting.
+     *
+     * @param key The setting name
+     * @param defaultValue The value to use if the setting is missing or invalid
+     * @return The setting value
+     */
+    public double getDouble(String key, double defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warning("Invalid number for " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Get a boolean setting.
+     *
+     * @param key The setting name
+     * @param defaultValue The value to use if the setting is missing
+     * @return The setting value
+     */
+    public boolean getBoolean(String key, boolean defaultValue) {
+        String value = properties.getProperty(key);
+        return value != null ? Boolean.parseBoolean(value.trim()) : defaultValue;
+    }
+}
@@ -0,0 +1,151 @@
+package core;
+
+import config.AppConfig;
+
+/**
+ * AdaptiveIntervalPolicy decides how often results are collected for a session.
+ *
+ * After every collection the interval is halved when nodes report a large
+ * backlog of buffered steps, and doubled when nothing changed since the last
+ * collection or when the collection itself took a large share of the
+ * interval. While the result pipeline signals backpressure, intervals are
+ * doubled without collecting. Every interval is the minimum interval times a
+ * power of two: the maximum is rounded down to such a multiple and clamped
+ * intervals are rounded to the nearest one. Sessions therefore settle on a
+ * small set of shared intervals and can still be collected in batches,
+ * whatever bounds are configured.
+ */
+public class AdaptiveIntervalPolicy {
+
+    // Default bounds and thresholds
+    private static final long DEFAULT_MIN_INTERVAL = 250;
+    private static final long DEFAULT_MAX_INTERVAL = 8000;
+    private static final int DEFAULT_BACKLOG_HIGH = 50;
+    private static final double DEFAULT_LAG_RATIO = 0.5;
+
+    private final boolean enabled;
+    private final long minIntervalMs;
+    private final long maxIntervalMs;
+    private final int backlogHigh;
+    private final double lagRatio;
+
+    /**
+     * Create a new AdaptiveIntervalPolicy with default settings.
+     */
+    public AdaptiveIntervalPolicy() {
+        this(true, DEFAULT_MIN_INTERVAL, DEFAULT_MAX_INTERVAL, DEFAULT_BACKLOG_HIGH, DEFAULT_LAG_RATIO);
+    }
+
+    /**
+     * Create a new AdaptiveIntervalPolicy with custom settings.
+     *
+     * @param enabled Whether intervals adapt at all
+     * @param minIntervalMs The shortest collection interval
+     * @param maxIntervalMs The longest collection interval, rounded down to the
+     *                      minimum interval times a power of two
+     * @param backlogHigh Buffered steps at or above which the interval is shortened
+     * @param lagRatio Share of the interval a collection may take before it is lengthened
+     */
+    public AdaptiveIntervalPolicy(boolean enabled, long minIntervalMs, long maxIntervalMs,
+                                  int backlogHigh, double lagRatio) {
+        if (minIntervalMs <= 0 || maxIntervalMs < minIntervalMs) {
+            throw new IllegalArgumentException("Invalid interval bounds: " + minIntervalMs + "-" + maxIntervalMs);
+        }
+        this.enabled = enabled;
+        this.minIntervalMs = minIntervalMs;
+        long max = minIntervalMs;
+        while (max <= maxIntervalMs / 2) {
+            max *= 2;
+        }
+        this.maxIntervalMs = max;
+        this.backlogHigh = backlogHigh;
+        this.lagRatio = lagRatio;
+    }
+
+    /**
+     * Create a policy from the scheduler.* settings in app.properties.
+     *
+     * @param config The application configuration
+     * @return The configured policy
+     */
+    public static AdaptiveIntervalPolicy fromConfig(AppConfig config) {
+        return new AdaptiveIntervalPolicy(
+            config.getBoolean("scheduler.result_interval.adaptive", true),
+            config.getLong("scheduler.result_interval.min", DEFAULT_MIN_INTERVAL),
+            config.getLong("scheduler.result_interval.max", DEFAULT_MAX_INTERVAL),
+            config.getInt("scheduler.backlog.high", DEFAULT_BACKLOG_HIGH),
+            config.getDouble("scheduler.persistence.lag_ratio", DEFAULT_LAG_RATIO)
+        );
+    }
+
+    /**
+     * Choose the interval for the next collection of a session.
+     *
+     * @param currentMs The interval used for the last collection
+     * @param bufferedSteps Largest number of steps any node had buffered
+     * @param changed Whether any node produced new results
+     * @param elapsedMs Time the last collection took
+     * @return The next interval in milliseconds
+     */
+    public long nextInterval(long currentMs, int bufferedSteps, boolean changed, long elapsedMs) {
+        if (!enabled) {
+            return currentMs;
+        }
+
+        long next = currentMs;
+        if (elapsedMs > currentMs * lagRatio) {
+            // Collection is falling behind; back off before queuing more requests
+            next = currentMs * 2;
+        } else if (bufferedSteps >= backlogHigh) {
+            next = currentMs / 2;
+        } else if (!changed) {
+            next = currentMs * 2;
+        }
+
+        return clamp(next);
+    }
+
+    /**
+     * Choose the interval after a collection skipped because result
+     * processing is backpressured.
+     *
+     * @param currentMs The current interval
+     * @return The next interval in milliseconds
+     */
+    public long backoff(long currentMs) {
+        return enabled ? clamp(currentMs * 2) : currentMs;
+    }
+
+    /**
+     * Clamp an interval to the configured bounds and round it to the nearest
+     * minimum interval times a power of two.
+     *
+     * @param intervalMs The requested interval
+     * @return The interval within bounds
+     */
+    public long clamp(long intervalMs) {
+        if (intervalMs <= minIntervalMs) {
+            return minIntervalMs;
+        }
+        if (intervalMs >= maxIntervalMs) {
+            return maxIntervalMs;
+        }
+        long step = minIntervalMs;
+        while (step * 2 <= intervalMs) {
+            step *= 2;
+        }
+        return intervalMs - step < step * 2 - intervalMs ? step : step * 2;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getMinIntervalMs() {
+        return minIntervalMs;
+    }
+
+    public long getMaxIntervalMs() {
+        return maxIntervalMs;
+    }
+}
@@ -1,28 +1,59 @@
 package core;
 
+import core.ScatterGather.NodeReply;
 import interop.NeuroBridge;
+import net.ConnectionPool;
 import net.NodeComm;
+import net.ResultStream;
+import net.TransportEngine;
 import simulation.ResultProcessor;
+import java.io.IOException;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 import java.util.logging.Logger;
 
 /**
  * NodeController coordinates simulation sessions across nodes.
  * It manages the lifecycle of nodes and distributes simulation tasks.
+ * 
+ * Running sessions receive their results as a push stream from each node.
+ * Sessions on nodes that do not support streaming fall back to polling
+ * through the {@link TaskScheduler}.
  */
 public class NodeController {
     private static final Logger logger = Logger.getLogger(NodeController.class.getName());
     
+    // Deadline for each node call in a scatter-gather round (in milliseconds)
+    private static final long NODE_CALL_DEADLINE = 10000;
+    
+    // Result frames a node may push ahead of processing
+    private static final int RESULT_STREAM_WINDOW = 16;
+    
+    // How long a stream consumer waits for room in the result pipeline (in milliseconds)
+    private static final long RESULT_SUBMIT_TIMEOUT_MS = 5000;
+    
     private final Map<String, NodeInfo> nodes;
     private final Map<String, SimulationSession> sessions;
-    private final TaskScheduler scheduler;
+    private volatile TaskScheduler scheduler;
     private final ResultProcessor resultProcessor;
     private final NeuroBridge localBridge;
+    private final TransportEngine transport;
+    private final ConnectionPool connectionPool;
+    private final Map<String, List<ResultStream>> resultStreams;
+    private final ExecutorService streamExecutor;
     
     public NodeController(TaskScheduler scheduler, ResultProcessor resultProcessor) {
         this.nodes = new ConcurrentHashMap<>();
@@ -30,6 +61,20 @@ public class NodeController {
         this.scheduler = scheduler;
         this.resultProcessor = resultProcessor;
         this.localBridge = new NeuroBridge();
+        this.resultStreams = new ConcurrentHashMap<>();
+        this.streamExecutor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "result-stream-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        
+        try {
+            this.transport = new TransportEngine();
+            this.connectionPool = new ConnectionPool(transport);
+        } catch (IOException e) {
+            logger.severe("Failed to start node transport: " + e.getMessage());
+            throw new RuntimeException("Failed to initialize NodeController", e);
+        }
         
         try {
             this.localBridge.initialize();
@@ -40,6 +85,16 @@ public class NodeController {
         }
     }
     
+    /**
+     * Set the scheduler that runs monitoring and result collection. The
+     * scheduler needs the controller to exist, so it is injected afterwards.
+     * 
+     * @param scheduler The task scheduler
+     */
+    public void setScheduler(TaskScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+    
     /**
      * Register a new node in the network.
      * 
@@ -89,6 +144,7 @@ public class NodeController {
         }
         
         nodes.remove(nodeId);
+        connectionPool.removeNode(nodeId);
         logger.info("Unregistered node " + nodeId);
         return true;
     }
@@ -112,18 +168,17 @@ public class NodeController {
         SimulationSession session = new SimulationSession(sessionId, config, selectedNodes);
         sessions.put(sessionId, session);
         
-        // Initialize nodes for this session
-        for (String nodeId : selectedNodes) {
-            NodeInfo node = nodes.get(nodeId);
-            try {
-                NodeComm comm = new NodeComm(node.getAddress(), node.getPort());
-                boolean initialized = comm.initializeSession(sessionId, config);
-                if (!initialized) {
-                    logger.warning("Failed to initialize node " + nodeId + " for session " + sessionId);
-                    session.removeNode(nodeId);
-                }
-            } catch (Exception e) {
-                logger.severe("Error initializing node " + nodeId + ": " + e.getMessage());
+        // Initialize all nodes for this session concurrently
+        Map<String, NodeReply<Boolean>> replies =
+            callNodes(selectedNodes, comm -> comm.initializeSessionAsync(sessionId, config));
+        for (Map.Entry<String, NodeReply<Boolean>> entry : replies.entrySet()) {
+            String nodeId = entry.getKey();
+            NodeReply<Boolean> reply = entry.getValue();
+            if (!reply.isSuccess()) {
+                logger.severe("Error initializing node " + nodeId + ": " + reply.getError());
+                session.removeNode(nodeId);
+            } else if (!reply.getValue()) {
+                logger.warning("Failed to initialize node " + nodeId + " for session " + sessionId);
                 session.removeNode(nodeId);
             }
         }
@@ -160,22 +215,10 @@ public class NodeController {
             return false;
         }
         
-        // Start the simulation on all nodes
-        boolean allStarted = true;
-        for (String nodeId : session.getNodes()) {
-            NodeInfo node = nodes.get(nodeId);
-            try {
-                NodeComm comm = new NodeComm(node.getAddress(), node.getPort());
-                boolean started = comm.startSimulation(sessionId);
-                if (!started) {
-                    logger.warning("Failed to start simulation on node " + nodeId);
-                    allStarted = false;
-                }
-            } catch (Exception e) {
-                logger.severe("Error starting simulation on node " + nodeId + ": " + e.getMessage());
-                allStarted = false;
-            }
-        }
+        // Start the simulation on all nodes concurrently
+        Map<String, NodeReply<Boolean>> replies =
+            callNodes(session.getNodes(), comm -> comm.startSimulationAsync(sessionId));
+        boolean allStarted = checkReplies(replies, "start simulation");
         
         if (!allStarted) {
             logger.warning("Some nodes failed to start for session " + sessionId);
@@ -184,8 +227,10 @@ public class NodeController {
         
         session.setRunning(true);
         
-        // Schedule regular result collection
-        scheduler.scheduleResultCollection(sessionId);
+        // Stream results from the nodes, or poll for them if streaming is unavailable
+        if (!openResultStreams(session)) {
+            scheduler.scheduleResultCollection(sessionId);
+        }
         
         logger.info("Started simulation session " + sessionId);
         return true;
@@ -209,22 +254,10 @@ public class NodeController {
             return false;
         }
         
-        // Pause the simulation on all nodes
-        boolean allPaused = true;
-        for (String nodeId : session.getNodes()) {
-            NodeInfo node = nodes.get(nodeId);
-            try {
-                NodeComm comm = new NodeComm(node.getAddress(), node.getPort());
-                boolean paused = comm.pauseSimulation(sessionId);
-                if (!paused) {
-                    logger.warning("Failed to pause simulation on node " + nodeId);
-                    allPaused = false;
-                }
-            } catch (Exception e) {
-                logger.severe("Error pausing simulation on node " + nodeId + ": " + e.getMessage());
-                allPaused = false;
-            }
-        }
+        // Pause the simulation on all nodes concurrently
+        Map<String, NodeReply<Boolean>> replies =
+            callNodes(session.getNodes(), comm -> comm.pauseSimulationAsync(sessionId));
+        boolean allPaused = checkReplies(replies, "pause simulation");
         
         if (!allPaused) {
             logger.warning("Some nodes failed to pause for session " + sessionId);
@@ -232,6 +265,10 @@ public class NodeController {
         }
         
         session.setRunning(false);
+        
+        // Paused nodes push nothing, so only a polling fallback needs stopping
+        scheduler.cancelTask(sessionId, TaskScheduler.TaskType.RESULT_COLLECTION);
+        
         logger.info("Paused simulation session " + sessionId);
         return true;
     }
@@ -249,22 +286,14 @@ public class NodeController {
             return false;
         }
         
-        // Stop scheduled tasks for this session
+        // Stop scheduled tasks and result streams for this session
         scheduler.cancelSessionTasks(sessionId);
+        closeResultStreams(sessionId);
         
-        // Terminate the simulation on all nodes
-        for (String nodeId : session.getNodes()) {
-            NodeInfo node = nodes.get(nodeId);
-            try {
-                NodeComm comm = new NodeComm(node.getAddress(), node.getPort());
-                boolean terminated = comm.terminateSimulation(sessionId);
-                if (!terminated) {
-                    logger.warning("Failed to terminate simulation on node " + nodeId);
-                }
-            } catch (Exception e) {
-                logger.severe("Error terminating simulation on node " + nodeId + ": " + e.getMessage());
-            }
-        }
+        // Terminate the simulation on all nodes concurrently
+        Map<String, NodeReply<Boolean>> replies =
+            callNodes(session.getNodes(), comm -> comm.terminateSimulationAsync(sessionId));
+        checkReplies(replies, "terminate simulation");
         
         // Process final results
         resultProcessor.processFinalResults(sessionId);
@@ -294,18 +323,25 @@ public class NodeController {
         status.put("nodes", session.getNodes());
         status.put("startTime", session.getStartTime());
         status.put("stepCount", session.getStepCount());
+        status.put("resultStreaming", resultStreams.containsKey(sessionId));
+        
+        Map<String, Object> windows = resultProcessor.getWindowedStats(sessionId);
+        if (windows != null) {
+            status.put("windows", windows);
+        }
         
-        // Collect node-specific status
+        // Collect node-specific status from all nodes concurrently
+        Map<String, NodeReply<Map<String, Object>>> replies =
+            callNodes(session.getNodes(), comm -> comm.getStatusAsync(sessionId));
         Map<String, Map<String, Object>> nodeStatus = new HashMap<>();
-        for (String nodeId : session.getNodes()) {
-            NodeInfo node = nodes.get(nodeId);
-            try {
-                NodeComm comm = new NodeComm(node.getAddress(), node.getPort());
-                Map<String, Object> ns = comm.getStatus(sessionId);
-                nodeStatus.put(nodeId, ns);
-            } catch (Exception e) {
-                logger.warning("Error getting status from node " + nodeId + ": " + e.getMessage());
-                nodeStatus.put(nodeId, Map.of("error", e.getMessage()));
+        for (Map.Entry<String, NodeReply<Map<String, Object>>> entry : replies.entrySet()) {
+            String nodeId = entry.getKey();
+            NodeReply<Map<String, Object>> reply = entry.getValue();
+            if (reply.isSuccess()) {
+                nodeStatus.put(nodeId, reply.getValue());
+            } else {
+                logger.warning("Error getting status from node " + nodeId + ": " + reply.getError());
+                nodeStatus.put(nodeId, Map.of("error", reply.getError()));
             }
         }
         status.put("nodeStatus", nodeStatus);
@@ -320,28 +356,80 @@ public class NodeController {
      * @return true if results were collected successfully
      */
     public boolean collectResults(String sessionId) {
-        SimulationSession session = sessions.get(sessionId);
-        if (session == null) {
-            logger.warning("Session " + sessionId + " not found");
-            return false;
+        return collectResults(List.of(sessionId)).containsKey(sessionId);
+    }
+    
+    /**
+     * Collect results for several sessions at once. Sessions are grouped by
+     * the nodes hosting them and each node is asked for all of its sessions in
+     * a single batched request, so a node hosting many sessions costs one round
+     * trip per collection instead of one per session. Each request names the
+     * state version already held for the session, so nodes can reply with
+     * only the states that changed.
+     * 
+     * @param sessionIds The IDs of the sessions
+     * @return Report per session for which results of at least one node were
+     *         collected and accepted by the result processor
+     */
+    public Map<String, CollectionReport> collectResults(Collection<String> sessionIds) {
+        Map<String, CollectionReport> collected = new HashMap<>();
+        Map<String, Map<String, Long>> sessionsByNode = new HashMap<>();
+        
+        for (String sessionId : sessionIds) {
+            SimulationSession session = sessions.get(sessionId);
+            if (session == null) {
+                logger.warning("Session " + sessionId + " not found");
+                continue;
+            }
+            for (String nodeId : session.getNodes()) {
+                sessionsByNode.computeIfAbsent(nodeId, id -> new HashMap<>())
+                    .put(sessionId, resultProcessor.getSnapshotVersion(sessionId, nodeId));
+            }
         }
         
-        // Collect results from all nodes
-        for (String nodeId : session.getNodes()) {
-            NodeInfo node = nodes.get(nodeId);
-            try {
-                NodeComm comm = new NodeComm(node.getAddress(), node.getPort());
-                Map<String, Object> results = comm.getResults(sessionId);
-                if (results != null) {
-                    resultProcessor.processResults(sessionId, nodeId, results);
+        // One batched request per node, all nodes concurrently
+        Map<String, NodeReply<Map<String, Map<String, Object>>>> replies =
+            callNodes(new ArrayList<>(sessionsByNode.keySet()),
+                      (nodeId, comm) -> comm.getResultsBatchAsync(sessionsByNode.get(nodeId)));
+        
+        for (Map.Entry<String, NodeReply<Map<String, Map<String, Object>>>> entry : replies.entrySet()) {
+            String nodeId = entry.getKey();
+            NodeReply<Map<String, Map<String, Object>>> reply = entry.getValue();
+            if (!reply.isSuccess()) {
+                logger.warning("Error collecting results from node " + nodeId + ": " + reply.getError());
+                continue;
+            }
+            
+            for (Map.Entry<String, Map<String, Object>> results : reply.getValue().entrySet()) {
+                String sessionId = results.getKey();
+                SimulationSession session = sessions.get(sessionId);
+                if (session == null || !sessionsByNode.get(nodeId).containsKey(sessionId)) {
+                    continue;
+                }
+                if (resultProcessor.processResults(sessionId, nodeId, results.getValue())) {
+                    collected.computeIfAbsent(sessionId, id -> new CollectionReport())
+                        .record(session, nodeId, results.getValue());
                 }
-            } catch (Exception e) {
-                logger.warning("Error collecting results from node " + nodeId + ": " + e.getMessage());
             }
         }
         
-        session.incrementStepCount();
-        return true;
+        // A round counts as a step for every session that got results
+        for (String sessionId : collected.keySet()) {
+            SimulationSession session = sessions.get(sessionId);
+            if (session != null) {
+                session.incrementStepCount();
+            }
+        }
+        return collected;
+    }
+    
+    /**
+     * Check whether result processing is falling behind collection.
+     * 
+     * @return true if the result pipeline is signalling backpressure
+     */
+    public boolean isResultBackpressured() {
+        return resultProcessor.isBackpressured();
     }
     
     /**
@@ -362,6 +450,26 @@ public class NodeController {
         return new HashMap<>(sessions);
     }
     
+    /**
+     * Get metrics of the task scheduler: execution mode, collection groups
+     * and scheduling lag.
+     * 
+     * @return Map of metric name to value, empty if no scheduler is set
+     */
+    public Map<String, Object> getSchedulerMetrics() {
+        TaskScheduler current = scheduler;
+        return current != null ? current.getMetrics() : new HashMap<>();
+    }
+    
+    /**
+     * Get statistics of the pooled node connections.
+     * 
+     * @return Map of node ID to statistics
+     */
+    public Map<String, Map<String, Object>> getConnectionStats() {
+        return connectionPool.getStats();
+    }
+    
     /**
      * Shut down the controller and clean up resources.
      */
@@ -371,12 +479,213 @@ public class NodeController {
             terminateSession(sessionId);
         }
         
+        // Close pooled node connections and stop the I/O threads
+        streamExecutor.shutdownNow();
+        connectionPool.shutdown();
+        transport.shutdown();
+        
         // Clean up local NeuroCore bridge
         localBridge.shutdown();
         
         logger.info("NodeController shut down");
     }
     
+    /**
+     * Subscribe to result streams from every node of a session. Streams stay
+     * open while the session is paused, since paused nodes push nothing.
+     * If any node cannot stream, all streams are closed so the session can
+     * be polled instead. A stream the node accepts only after the gather
+     * deadline is closed as soon as it opens, and its results are ignored.
+     * 
+     * @param session The session to stream results for
+     * @return true if results are being streamed from every node
+     */
+    private boolean openResultStreams(SimulationSession session) {
+        String sessionId = session.getId();
+        if (resultStreams.containsKey(sessionId)) {
+            return true;
+        }
+        
+        session.resetPushedResults();
+        
+        // Streams opened by this attempt, and those kept once the replies are gathered
+        List<ResultStream> opened = new ArrayList<>();
+        Set<ResultStream> accepted = ConcurrentHashMap.newKeySet();
+        AtomicBoolean settled = new AtomicBoolean(false);
+        
+        ResultStream.Listener listener = new ResultStream.Listener() {
+            @Override
+            public void onResults(ResultStream stream, Map<String, Object> results) {
+                if (settled.get() && !accepted.contains(stream)) {
+                    return;
+                }
+                
+                // Waiting for room in the result pipeline withholds credit from the node
+                if (!resultProcessor.processResults(sessionId, stream.getNodeId(), results, RESULT_SUBMIT_TIMEOUT_MS)) {
+                    // The node bases its next push on the dropped frame, so later pushes would be refused too
+                    fallBackToPolling(session, stream, "results from node " + stream.getNodeId() + " were dropped");
+                    return;
+                }
+                session.recordPushedResults(stream.getNodeId());
+            }
+            
+            @Override
+            public void onClose(ResultStream stream, Throwable cause) {
+                fallBackToPolling(session, stream, "result stream from node " + stream.getNodeId() + " ended");
+            }
+        };
+        
+        Map<String, NodeReply<ResultStream>> replies = callNodes(session.getNodes(),
+            comm -> comm.openResultStream(sessionId, RESULT_STREAM_WINDOW, streamExecutor, listener)
+                .thenApply(stream -> {
+                    synchronized (opened) {
+                        if (settled.get()) {
+                            // Accepted after the deadline; nobody will hold this stream
+                            stream.close();
+                        } else {
+                            opened.add(stream);
+                        }
+                    }
+                    return stream;
+                }));
+        
+        List<ResultStream> streams = new CopyOnWriteArrayList<>();
+        boolean allOpened = true;
+        for (Map.Entry<String, NodeReply<ResultStream>> entry : replies.entrySet()) {
+            NodeReply<ResultStream> reply = entry.getValue();
+            if (reply.isSuccess()) {
+                streams.add(reply.getValue());
+            } else {
+                logger.info("Node " + entry.getKey() + " cannot stream results for session " + sessionId +
+                            ": " + reply.getError());
+                allOpened = false;
+            }
+        }
+        
+        if (allOpened) {
+            accepted.addAll(streams);
+        }
+        synchronized (opened) {
+            settled.set(true);
+            // Close streams that failed, and those that opened just as their reply timed out
+            for (ResultStream stream : opened) {
+                if (!accepted.contains(stream)) {
+                    stream.close();
+                }
+            }
+        }
+        
+        if (!allOpened) {
+            return false;
+        }
+        
+        resultStreams.put(sessionId, streams);
+        logger.info("Streaming results for session " + sessionId + " from " + streams.size() + " nodes");
+        return true;
+    }
+    
+    /**
+     * Close all result streams of a session.
+     * 
+     * @param sessionId The ID of the session
+     */
+    private void closeResultStreams(String sessionId) {
+        List<ResultStream> streams = resultStreams.remove(sessionId);
+        if (streams != null) {
+            for (ResultStream stream : streams) {
+                stream.close();
+            }
+        }
+    }
+    
+    /**
+     * Stop streaming a session's results and poll for them instead, after a
+     * stream ended or a pushed frame could not be processed. Polling resumes
+     * from the states the result processor holds.
+     * 
+     * @param session The session the stream belongs to
+     * @param stream The stream that failed
+     * @param reason Why streaming stops, for the log
+     */
+    private void fallBackToPolling(SimulationSession session, ResultStream stream, String reason) {
+        List<ResultStream> streams = resultStreams.get(session.getId());
+        if (streams == null || !streams.contains(stream)) {
+            return;
+        }
+        
+        closeResultStreams(session.getId());
+        session.resetPushedResults();
+        if (session.isRunning() && sessions.containsKey(session.getId())) {
+            logger.warning("Polling results for session " + session.getId() + ": " + reason);
+            scheduler.scheduleResultCollection(session.getId());
+        }
+    }
+    
+    /**
+     * Call a set of nodes concurrently and gather their replies.
+     * Unregistered nodes produce an error reply.
+     * 
+     * @param nodeIds The IDs of the nodes to call
+     * @param call Starts the call on a node's communicator
+     * @return Map of node ID to reply
+     */
+    private <T> Map<String, NodeReply<T>> callNodes(List<String> nodeIds,
+                                                    Function<NodeComm, CompletableFuture<T>> call) {
+        return callNodes(nodeIds, (nodeId, comm) -> call.apply(comm));
+    }
+    
+    /**
+     * Call a set of nodes concurrently with a per-node request and gather their replies.
+     * Unregistered nodes produce an error reply.
+     * 
+     * @param nodeIds The IDs of the nodes to call
+     * @param call Starts the call given the node ID and its communicator
+     * @return Map of node ID to reply
+     */
+    private <T> Map<String, NodeReply<T>> callNodes(List<String> nodeIds,
+                                                    BiFunction<String, NodeComm, CompletableFuture<T>> call) {
+        return ScatterGather.gather(nodeIds, nodeId -> {
+            NodeInfo node = nodes.get(nodeId);
+            if (node == null) {
+                return CompletableFuture.failedFuture(
+                    new IllegalStateException("Node " + nodeId + " is not registered"));
+            }
+            return call.apply(nodeId, createNodeComm(node));
+        }, NODE_CALL_DEADLINE);
+    }
+    
+    /**
+     * Log failed or negative replies to a session command.
+     * 
+     * @param replies The replies per node
+     * @param action Description of the command for log messages
+     * @return true if every node acknowledged the command
+     */
+    private boolean checkReplies(Map<String, NodeReply<Boolean>> replies, String action) {
+        boolean allSucceeded = true;
+        for (Map.Entry<String, NodeReply<Boolean>> entry : replies.entrySet()) {
+            NodeReply<Boolean> reply = entry.getValue();
+            if (!reply.isSuccess()) {
+                logger.severe("Error trying to " + action + " on node " + entry.getKey() + ": " + reply.getError());
+                allSucceeded = false;
+            } else if (!reply.getValue()) {
+                logger.warning("Failed to " + action + " on node " + entry.getKey());
+                allSucceeded = false;
+            }
+        }
+        return allSucceeded;
+    }
+    
+    /**
+     * Create a communicator for a node backed by the shared connection pool.
+     * 
+     * @param node The node to communicate with
+     * @return A NodeComm using pooled connections to the node
+     */
+    private NodeComm createNodeComm(NodeInfo node) {
+        return new NodeComm(node.getId(), node.getAddress(), node.getPort(), connectionPool);
+    }
+    
     /**
      * Select appropriate nodes for a simulation session based on requirements.
      * 
@@ -485,6 +794,43 @@ public class NodeController {
         }
     }
     
+    /**
+     * What a result collection found for one session across its nodes.
+     */
+    public static class CollectionReport {
+        private int bufferedSteps;
+        private boolean changed;
+        
+        void record(SimulationSession session, String nodeId, Map<String, Object> results) {
+            Object steps = results.get("bufferedSteps");
+            if (steps instanceof Number) {
+                bufferedSteps = Math.max(bufferedSteps, ((Number) steps).intValue());
+            }
+            Object timestamp = results.get("timestamp");
+            if (timestamp instanceof Number && session.updateResultTimestamp(nodeId, ((Number) timestamp).longValue())) {
+                changed = true;
+            }
+        }
+        
+        /**
+         * Get the largest number of steps any node had buffered since its last collection.
+         * 
+         * @return The buffered step count
+         */
+        public int getBufferedSteps() {
+            return bufferedSteps;
+        }
+        
+        /**
+         * Check whether any node produced results newer than the last collection.
+         * 
+         * @return true if results changed
+         */
+        public boolean isChanged() {
+            return changed;
+        }
+    }
+    
     /**
      * Information about a simulation session.
      */
@@ -495,6 +841,8 @@ public class NodeController {
         private final long startTime;
         private boolean running;
         private long stepCount;
+        private final Map<String, Long> resultTimestamps;
+        private final Map<String, Integer> pendingPushes;
         
         public SimulationSession(String id, SimulationConfig config, List<String> nodes) {
             this.id = id;
@@ -503,6 +851,8 @@ public class NodeController {
             this.startTime = System.currentTimeMillis();
             this.running = false;
             this.stepCount = 0;
+            this.resultTimestamps = new ConcurrentHashMap<>();
+            this.pendingPushes = new HashMap<>();
         }
         
         public String getId() {
@@ -533,12 +883,52 @@ public class NodeController {
             this.running = running;
         }
         
-        public long getStepCount() {
+        public synchronized long getStepCount() {
             return stepCount;
         }
         
-        public void incrementStepCount() {
+        public synchronized void incrementStepCount() {
             this.stepCount++;
         }
+        
+        /**
+         * Record results pushed by a node. A step is counted once every node
+         * has pushed results for it, just as a polling round counts one step
+         * for all nodes.
+         * 
+         * @param nodeId The ID of the node
+         */
+        public synchronized void recordPushedResults(String nodeId) {
+            pendingPushes.merge(nodeId, 1, Integer::sum);
+            for (String node : nodes) {
+                if (pendingPushes.getOrDefault(node, 0) == 0) {
+                    return;
+                }
+            }
+            for (String node : nodes) {
+                pendingPushes.merge(node, -1, Integer::sum);
+            }
+            stepCount++;
+        }
+        
+        /**
+         * Forget pushed results not yet counted as a step, when streaming
+         * starts or stops.
+         */
+        public synchronized void resetPushedResults() {
+            pendingPushes.clear();
+        }
+        
+        /**
+         * Record the timestamp of the latest results from a node.
+         * 
+         * @param nodeId The ID of the node
+         * @param timestamp The results timestamp
+         * @return true if the timestamp is newer than the last one seen from the node
+         */
+        public boolean updateResultTimestamp(String nodeId, long timestamp) {
+            Long previous = resultTimestamps.put(nodeId, timestamp);
+            return previous == null || timestamp > previous;
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,103 @@
+package core;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+/**
+ * ScatterGather issues one asynchronous call per node concurrently and waits
+ * for all of them under a shared deadline. Failed or late nodes produce an
+ * error entry instead of failing the whole operation, so total latency is
+ * bounded by the slowest node rather than the sum of all nodes.
+ */
+public class ScatterGather {
+
+    private ScatterGather() {
+    }
+
+    /**
+     * Call every node concurrently and collect the outcome per node.
+     *
+     * @param nodeIds The nodes to call
+     * @param call Starts the call for a node ID; may throw to signal an immediate failure
+     * @param deadlineMs Time allowed for each call in milliseconds, including any
+     *                   connection it has to open
+     * @param <T> The result type
+     * @return Map of node ID to its reply, in no particular order
+     */
+    public static <T> Map<String, NodeReply<T>> gather(Iterable<String> nodeIds,
+                                                       Function<String, CompletableFuture<T>> call,
+                                                       long deadlineMs) {
+        Map<String, CompletableFuture<NodeReply<T>>> pending = new HashMap<>();
+
+        for (String nodeId : nodeIds) {
+            CompletableFuture<T> future;
+            try {
+                future = call.apply(nodeId);
+            } catch (RuntimeException e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+
+            pending.put(nodeId, future
+                .orTimeout(deadlineMs, TimeUnit.MILLISECONDS)
+                .handle((value, error) -> error == null
+                    ? NodeReply.success(value)
+                    : NodeReply.<T>failure(describe(error, deadlineMs))));
+        }
+
+        CompletableFuture.allOf(pending.values().toArray(new CompletableFuture<?>[0])).join();
+
+        Map<String, NodeReply<T>> replies = new HashMap<>();
+        for (Map.Entry<String, CompletableFuture<NodeReply<T>>> entry : pending.entrySet()) {
+            replies.put(entry.getKey(), entry.getValue().join());
+        }
+        return replies;
+    }
+
+    private static String describe(Throwable error, long deadlineMs) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null
+            ? error.getCause()
+            : error;
+        if (cause instanceof TimeoutException) {
+            return "No response within " + deadlineMs + "ms";
+        }
+        return cause.getMessage() != null ? cause.getMessage() : cause.toString();
+    }
+
+    /**
+     * The outcome of a call to a single node.
+     */
+    public static class NodeReply<T> {
+        private final T value;
+        private final String error;
+
+        private NodeReply(T value, String error) {
+            this.value = value;
+            this.error = error;
+        }
+
+        public static <T> NodeReply<T> success(T value) {
+            return new NodeReply<>(value, null);
+        }
+
+        public static <T> NodeReply<T> failure(String error) {
+            return new NodeReply<>(null, error);
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        public T getValue() {
+            return value;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+}
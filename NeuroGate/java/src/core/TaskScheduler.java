@@ -1,37 +1,118 @@
 package core;
 
+import config.AppConfig;
+import core.NodeController.CollectionReport;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 /**
  * TaskScheduler manages scheduled tasks for simulation monitoring and result collection.
+ * Periodic tasks are kept in a {@link TimingWheel}, so scheduling and cancelling
+ * session tasks is O(1) regardless of how many sessions are active.
+ * 
+ * Result collection is coalesced: all sessions collected at the same interval
+ * share one periodic task, which asks each node for all of its sessions in a
+ * single batched request. With an {@link AdaptiveIntervalPolicy} each session
+ * then moves between interval groups according to its backlog, its rate of
+ * change and how long collection is taking. While result processing signals
+ * backpressure, collection rounds are skipped and their sessions moved to
+ * longer intervals, so node I/O never queues behind the database.
+ * 
+ * In {@link ExecutionMode#POOLED} mode tasks run on a fixed thread pool. In
+ * {@link ExecutionMode#DISPATCH} mode the wheel thread only fires ticks and hands
+ * the work to a worker executor (virtual threads where the runtime supports
+ * them), so tasks blocked on node I/O never delay other ticks.
  */
 public class TaskScheduler {
     private static final Logger logger = Logger.getLogger(TaskScheduler.class.getName());
     
-    private final ScheduledExecutorService executor;
-    private final Map<String, Map<TaskType, ScheduledFuture<?>>> scheduledTasks;
+    private final TimingWheel timingWheel;
+    private final ExecutorService workers;
+    private final ExecutionMode mode;
+    private final Map<String, Map<TaskType, TimingWheel.Timeout>> scheduledTasks;
+    private final Map<Long, CollectionGroup> collectionGroups;
+    private final Map<String, Long> collectionIntervals;
     private final NodeController nodeController;
+    private final AdaptiveIntervalPolicy intervalPolicy;
+    
+    // Scheduling lag metrics
+    private final AtomicLong tickCount;
+    private final AtomicLong skippedTicks;
+    private final AtomicLong backpressureSkips;
+    private final AtomicLong totalLagMs;
+    private final AtomicLong maxLagMs;
     
     // Default intervals (in milliseconds)
     private static final long DEFAULT_MONITORING_INTERVAL = 5000;
     private static final long DEFAULT_RESULT_INTERVAL = 1000;
     
+    // Timing wheel resolution
+    private static final long WHEEL_TICK_MS = 50;
+    private static final int WHEEL_SIZE = 512;
+    private static final int POOLED_THREADS = 4;
+    
     // Task types
     public enum TaskType {
         MONITORING,
         RESULT_COLLECTION
     }
     
+    // Where task bodies run
+    public enum ExecutionMode {
+        POOLED,
+        DISPATCH;
+        
+        /**
+         * Read the mode from the scheduler.mode setting: pooled (the default)
+         * or dispatch.
+         * 
+         * @param config The configuration
+         * @return The execution mode
+         */
+        public static ExecutionMode fromConfig(AppConfig config) {
+            String mode = config.getString("scheduler.mode", "pooled");
+            return "dispatch".equalsIgnoreCase(mode) ? DISPATCH : POOLED;
+        }
+    }
+    
     public TaskScheduler(NodeController nodeController) {
-        this.executor = Executors.newScheduledThreadPool(4);
+        this(nodeController, ExecutionMode.POOLED);
+    }
+    
+    public TaskScheduler(NodeController nodeController, ExecutionMode mode) {
+        this(nodeController, mode, new AdaptiveIntervalPolicy());
+    }
+    
+    public TaskScheduler(NodeController nodeController, ExecutionMode mode, AdaptiveIntervalPolicy intervalPolicy) {
+        this.mode = mode;
+        this.intervalPolicy = intervalPolicy;
+        this.workers = mode == ExecutionMode.DISPATCH
+            ? createWorkerExecutor()
+            : Executors.newFixedThreadPool(POOLED_THREADS);
+        // In dispatch mode ticks run inline on the wheel thread and only submit work
+        this.timingWheel = new TimingWheel(WHEEL_TICK_MS, WHEEL_SIZE,
+            mode == ExecutionMode.DISPATCH ? Runnable::run : workers);
         this.scheduledTasks = new ConcurrentHashMap<>();
+        this.collectionGroups = new HashMap<>();
+        this.collectionIntervals = new ConcurrentHashMap<>();
         this.nodeController = nodeController;
+        this.tickCount = new AtomicLong();
+        this.skippedTicks = new AtomicLong();
+        this.backpressureSkips = new AtomicLong();
+        this.totalLagMs = new AtomicLong();
+        this.maxLagMs = new AtomicLong();
+        timingWheel.start();
     }
     
     /**
@@ -63,12 +144,7 @@ public class TaskScheduler {
         cancelTask(sessionId, TaskType.MONITORING);
         
         // Schedule new monitoring task
-        ScheduledFuture<?> future = executor.scheduleAtFixedRate(
-            () -> monitorSession(sessionId),
-            intervalMs,
-            intervalMs,
-            TimeUnit.MILLISECONDS
-        );
+        TimingWheel.Timeout future = scheduleTicks(() -> monitorSession(sessionId), intervalMs);
         
         scheduledTasks.get(sessionId).put(TaskType.MONITORING, future);
         logger.info("Scheduled monitoring for session " + sessionId + " every " + intervalMs + "ms");
@@ -76,17 +152,23 @@ public class TaskScheduler {
     }
     
     /**
-     * Schedule regular result collection for a simulation session.
+     * Schedule regular result collection for a simulation session at the
+     * default interval, moved onto the policy's intervals if it is adaptive.
      * 
      * @param sessionId The ID of the session
      * @return true if scheduling was successful
      */
     public boolean scheduleResultCollection(String sessionId) {
-        return scheduleResultCollection(sessionId, DEFAULT_RESULT_INTERVAL);
+        long intervalMs = intervalPolicy.isEnabled()
+            ? intervalPolicy.clamp(DEFAULT_RESULT_INTERVAL)
+            : DEFAULT_RESULT_INTERVAL;
+        return scheduleResultCollection(sessionId, intervalMs);
     }
     
     /**
      * Schedule regular result collection for a simulation session with a custom interval.
+     * The session joins the collection group for that interval, creating it if needed.
+     * If the interval policy is adaptive this is only the starting interval.
      * 
      * @param sessionId The ID of the session
      * @param intervalMs The collection interval in milliseconds
@@ -97,21 +179,10 @@ public class TaskScheduler {
             return false;
         }
         
-        // Create task map for this session if it doesn't exist
-        scheduledTasks.computeIfAbsent(sessionId, k -> new ConcurrentHashMap<>());
-        
-        // Cancel existing result collection task if it exists
-        cancelTask(sessionId, TaskType.RESULT_COLLECTION);
-        
-        // Schedule new result collection task
-        ScheduledFuture<?> future = executor.scheduleAtFixedRate(
-            () -> collectResults(sessionId),
-            intervalMs,
-            intervalMs,
-            TimeUnit.MILLISECONDS
-        );
+        synchronized (collectionGroups) {
+            joinCollectionGroup(sessionId, intervalMs);
+        }
         
-        scheduledTasks.get(sessionId).put(TaskType.RESULT_COLLECTION, future);
         logger.info("Scheduled result collection for session " + sessionId + " every " + intervalMs + "ms");
         return true;
     }
@@ -123,11 +194,22 @@ public class TaskScheduler {
      * @param taskType The type of task to cancel
      */
     public void cancelTask(String sessionId, TaskType taskType) {
-        Map<TaskType, ScheduledFuture<?>> tasks = scheduledTasks.get(sessionId);
+        if (taskType == TaskType.RESULT_COLLECTION) {
+            boolean left;
+            synchronized (collectionGroups) {
+                left = leaveCollectionGroup(sessionId);
+            }
+            if (left) {
+                logger.info("Cancelled " + taskType + " task for session " + sessionId);
+            }
+            return;
+        }
+        
+        Map<TaskType, TimingWheel.Timeout> tasks = scheduledTasks.get(sessionId);
         if (tasks != null) {
-            ScheduledFuture<?> future = tasks.get(taskType);
+            TimingWheel.Timeout future = tasks.get(taskType);
             if (future != null) {
-                future.cancel(false);
+                future.cancel();
                 tasks.remove(taskType);
                 logger.info("Cancelled " + taskType + " task for session " + sessionId);
             }
@@ -140,10 +222,14 @@ public class TaskScheduler {
      * @param sessionId The ID of the session
      */
     public void cancelSessionTasks(String sessionId) {
-        Map<TaskType, ScheduledFuture<?>> tasks = scheduledTasks.get(sessionId);
+        synchronized (collectionGroups) {
+            leaveCollectionGroup(sessionId);
+        }
+        
+        Map<TaskType, TimingWheel.Timeout> tasks = scheduledTasks.get(sessionId);
         if (tasks != null) {
-            for (ScheduledFuture<?> future : tasks.values()) {
-                future.cancel(false);
+            for (TimingWheel.Timeout future : tasks.values()) {
+                future.cancel();
             }
             tasks.clear();
             scheduledTasks.remove(sessionId);
@@ -151,6 +237,34 @@ public class TaskScheduler {
         }
     }
     
+    /**
+     * Get scheduling metrics. Lag is the delay between the time a tick was
+     * due and the time its work actually started.
+     * 
+     * @return A map of metric name to value
+     */
+    public Map<String, Object> getMetrics() {
+        long ticks = tickCount.get();
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("mode", mode.name());
+        metrics.put("sessions", scheduledTasks.size());
+        metrics.put("collectedSessions", collectionIntervals.size());
+        synchronized (collectionGroups) {
+            metrics.put("collectionGroups", collectionGroups.size());
+            Map<Long, Integer> intervals = new HashMap<>();
+            for (CollectionGroup group : collectionGroups.values()) {
+                intervals.put(group.intervalMs, group.sessions.size());
+            }
+            metrics.put("collectionIntervals", intervals);
+        }
+        metrics.put("ticks", ticks);
+        metrics.put("skippedTicks", skippedTicks.get());
+        metrics.put("backpressureSkips", backpressureSkips.get());
+        metrics.put("averageLagMs", ticks == 0 ? 0.0 : (double) totalLagMs.get() / ticks);
+        metrics.put("maxLagMs", maxLagMs.get());
+        return metrics;
+    }
+    
     /**
      * Shut down the scheduler and cancel all tasks.
      */
@@ -159,21 +273,96 @@ public class TaskScheduler {
         for (String sessionId : scheduledTasks.keySet()) {
             cancelSessionTasks(sessionId);
         }
+        synchronized (collectionGroups) {
+            for (CollectionGroup group : collectionGroups.values()) {
+                group.timeout.cancel();
+            }
+            collectionGroups.clear();
+            collectionIntervals.clear();
+        }
         
-        // Shut down the executor
-        executor.shutdown();
+        // Stop the wheel, then let running tasks finish
+        timingWheel.shutdown();
+        workers.shutdown();
         try {
-            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
-                executor.shutdownNow();
+            if (!workers.awaitTermination(5, TimeUnit.SECONDS)) {
+                workers.shutdownNow();
             }
         } catch (InterruptedException e) {
-            executor.shutdownNow();
+            workers.shutdownNow();
             Thread.currentThread().interrupt();
         }
         
         logger.info("TaskScheduler shut down");
     }
     
+    /**
+     * Schedule a periodic task, recording scheduling lag for every tick.
+     * In dispatch mode the tick only submits the work to the worker executor;
+     * a tick is skipped if the previous run of the same task is still going.
+     * 
+     * @param work The task body
+     * @param intervalMs The period in milliseconds
+     * @return The timeout controlling the periodic tick
+     */
+    private TimingWheel.Timeout scheduleTicks(Runnable work, long intervalMs) {
+        AtomicLong nextDue = new AtomicLong(System.currentTimeMillis() + intervalMs);
+        AtomicBoolean inProgress = new AtomicBoolean(false);
+        
+        Runnable tick = () -> {
+            long due = nextDue.getAndAdd(intervalMs);
+            if (!inProgress.compareAndSet(false, true)) {
+                skippedTicks.incrementAndGet();
+                return;
+            }
+            
+            Runnable timed = () -> {
+                try {
+                    recordLag(System.currentTimeMillis() - due);
+                    work.run();
+                } finally {
+                    inProgress.set(false);
+                }
+            };
+            
+            if (mode == ExecutionMode.DISPATCH) {
+                workers.execute(timed);
+            } else {
+                timed.run();
+            }
+        };
+        
+        return timingWheel.scheduleAtFixedRate(tick, intervalMs, intervalMs);
+    }
+    
+    private void recordLag(long lagMs) {
+        long lag = Math.max(0, lagMs);
+        tickCount.incrementAndGet();
+        totalLagMs.addAndGet(lag);
+        maxLagMs.accumulateAndGet(lag, Math::max);
+    }
+    
+    /**
+     * Create the executor for dispatched task bodies. Uses a virtual thread per
+     * task when the runtime provides them and a cached thread pool otherwise.
+     * 
+     * @return The worker executor
+     */
+    private static ExecutorService createWorkerExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            logger.info("TaskScheduler dispatching session tasks to virtual threads");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            logger.info("Virtual threads not available, dispatching session tasks to a cached thread pool");
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "session-task-worker");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+    
     /**
      * Monitor a simulation session.
      * 
@@ -211,18 +400,135 @@ public class TaskScheduler {
     }
     
     /**
-     * Collect results from a simulation session.
+     * Collect results for every session in a collection group.
      * 
-     * @param sessionId The ID of the session
+     * @param group The collection group
      */
-    private void collectResults(String sessionId) {
+    private void collectResults(CollectionGroup group) {
+        List<String> sessionIds = new ArrayList<>(group.sessions);
+        if (sessionIds.isEmpty()) {
+            return;
+        }
+        
+        if (nodeController.isResultBackpressured()) {
+            // Leave results buffered on the nodes until processing catches up
+            backpressureSkips.incrementAndGet();
+            long next = intervalPolicy.backoff(group.intervalMs);
+            if (next != group.intervalMs) {
+                for (String sessionId : sessionIds) {
+                    moveSession(sessionId, group.intervalMs, next);
+                }
+            }
+            return;
+        }
+        
         try {
-            boolean collected = nodeController.collectResults(sessionId);
-            if (!collected) {
-                logger.warning("Failed to collect results for session " + sessionId);
+            long start = System.currentTimeMillis();
+            Map<String, CollectionReport> collected = nodeController.collectResults(sessionIds);
+            long elapsedMs = System.currentTimeMillis() - start;
+            
+            if (collected.size() < sessionIds.size()) {
+                logger.warning("Failed to collect results for " + (sessionIds.size() - collected.size()) +
+                               " of " + sessionIds.size() + " sessions");
+            }
+            
+            for (Map.Entry<String, CollectionReport> entry : collected.entrySet()) {
+                CollectionReport report = entry.getValue();
+                long next = intervalPolicy.nextInterval(group.intervalMs, report.getBufferedSteps(),
+                                                        report.isChanged(), elapsedMs);
+                if (next != group.intervalMs) {
+                    moveSession(entry.getKey(), group.intervalMs, next);
+                }
             }
         } catch (Exception e) {
-            logger.severe("Error collecting results for session " + sessionId + ": " + e.getMessage());
+            logger.severe("Error collecting results for " + sessionIds.size() + " sessions: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Move a session to another collection interval, unless it has been
+     * cancelled or rescheduled since it was collected.
+     * 
+     * @param sessionId The ID of the session
+     * @param fromMs The interval the session was collected at
+     * @param toMs The new interval
+     */
+    private void moveSession(String sessionId, long fromMs, long toMs) {
+        synchronized (collectionGroups) {
+            Long current = collectionIntervals.get(sessionId);
+            if (current == null || current != fromMs) {
+                return;
+            }
+            joinCollectionGroup(sessionId, toMs);
+        }
+        logger.fine("Result collection for session " + sessionId + " moved from " + fromMs + "ms to " + toMs + "ms");
+    }
+    
+    /**
+     * Add a session to the collection group for an interval, leaving its
+     * current group first. Callers must hold the collectionGroups lock.
+     * 
+     * @param sessionId The ID of the session
+     * @param intervalMs The collection interval in milliseconds
+     */
+    private void joinCollectionGroup(String sessionId, long intervalMs) {
+        leaveCollectionGroup(sessionId);
+        
+        CollectionGroup group = collectionGroups.get(intervalMs);
+        if (group == null) {
+            group = new CollectionGroup(intervalMs);
+            collectionGroups.put(intervalMs, group);
+            group.start();
+        }
+        group.sessions.add(sessionId);
+        collectionIntervals.put(sessionId, intervalMs);
+    }
+    
+    /**
+     * Remove a session from its collection group, cancelling the group's task
+     * when it becomes empty. Callers must hold the collectionGroups lock.
+     * 
+     * @param sessionId The ID of the session
+     * @return true if the session was being collected
+     */
+    private boolean leaveCollectionGroup(String sessionId) {
+        Long intervalMs = collectionIntervals.remove(sessionId);
+        if (intervalMs == null) {
+            return false;
+        }
+        
+        CollectionGroup group = collectionGroups.get(intervalMs);
+        if (group != null) {
+            group.sessions.remove(sessionId);
+            if (group.sessions.isEmpty()) {
+                group.timeout.cancel();
+                collectionGroups.remove(intervalMs);
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Sessions whose results are collected together at the same interval.
+     */
+    private class CollectionGroup {
+        private final long intervalMs;
+        private final Set<String> sessions;
+        
+        // Set by start and cancelled with the collectionGroups lock held
+        private TimingWheel.Timeout timeout;
+        
+        public CollectionGroup(long intervalMs) {
+            this.intervalMs = intervalMs;
+            this.sessions = ConcurrentHashMap.newKeySet();
+        }
+        
+        /**
+         * Start collecting the group's sessions. Ticks are scheduled here
+         * rather than in the constructor, so none sees a partly constructed group.
+         */
+        public void start() {
+            timeout = scheduleTicks(() -> collectResults(this), intervalMs);
         }
     }
 }
\ No newline at end of file
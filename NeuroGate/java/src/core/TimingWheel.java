@@ -0,0 +1,311 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * TimingWheel is a hashed timing wheel for large numbers of periodic session tasks.
+ *
+ * Timeouts live in intrusive doubly linked buckets indexed by their due tick, so
+ * insert and cancel are O(1) and allocate nothing beyond the timeout itself.
+ * Delays longer than one revolution carry a remaining round count instead of
+ * moving to a separate heap. A single wheel thread advances one tick at a time,
+ * fires every timeout in the current bucket as one batch, and catches up on
+ * missed ticks without sleeping if it falls behind. Periodic timeouts are
+ * rescheduled by re-linking the same node.
+ */
+public class TimingWheel {
+    private static final Logger logger = Logger.getLogger(TimingWheel.class.getName());
+
+    // Timeout states
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_CANCELLED = 1;
+    private static final int STATE_EXPIRED = 2;
+
+    private final long tickMs;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Executor dispatcher;
+    private final Queue<Timeout> pendingAdds;
+    private final Queue<Timeout> pendingCancels;
+    private volatile Thread workerThread;
+    private final long startTime;
+    private long tick;
+    private volatile boolean running;
+
+    /**
+     * Create a new timing wheel. Tasks may be scheduled right away; they run
+     * once the wheel is started.
+     *
+     * @param tickMs The duration of one tick in milliseconds
+     * @param wheelSize The number of buckets, rounded up to a power of two
+     * @param dispatcher The executor expired tasks are handed to
+     */
+    public TimingWheel(long tickMs, int wheelSize, Executor dispatcher) {
+        if (tickMs <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException("Tick duration and wheel size must be positive");
+        }
+
+        int size = Integer.highestOneBit(wheelSize - 1) << 1;
+        size = Math.max(1, size);
+
+        this.tickMs = tickMs;
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.dispatcher = dispatcher;
+        this.pendingAdds = new ConcurrentLinkedQueue<>();
+        this.pendingCancels = new ConcurrentLinkedQueue<>();
+        this.startTime = currentTimeMs();
+        this.tick = 0;
+        this.running = true;
+    }
+
+    /**
+     * Start the wheel thread. The thread is created here rather than in the
+     * constructor, so it never sees a partly constructed wheel.
+     */
+    public synchronized void start() {
+        if (workerThread != null) {
+            throw new IllegalStateException("TimingWheel already started");
+        }
+        Thread thread = new Thread(this::run, "timing-wheel");
+        thread.setDaemon(true);
+        workerThread = thread;
+        thread.start();
+    }
+
+    /**
+     * Schedule a one-shot task.
+     *
+     * @param task The task to run
+     * @param delayMs Delay before the task runs
+     * @return A handle that can cancel the task
+     */
+    public Timeout schedule(Runnable task, long delayMs) {
+        return add(new Timeout(task, currentTimeMs() + Math.max(0, delayMs), 0));
+    }
+
+    /**
+     * Schedule a task to run periodically at a fixed rate.
+     *
+     * @param task The task to run
+     * @param initialDelayMs Delay before the first run
+     * @param periodMs Period between runs
+     * @return A handle that can cancel the task
+     */
+    public Timeout scheduleAtFixedRate(Runnable task, long initialDelayMs, long periodMs) {
+        if (periodMs <= 0) {
+            throw new IllegalArgumentException("Period must be positive");
+        }
+        return add(new Timeout(task, currentTimeMs() + Math.max(0, initialDelayMs), periodMs));
+    }
+
+    /**
+     * Stop the wheel thread. Pending timeouts are dropped.
+     */
+    public void shutdown() {
+        running = false;
+        Thread thread = workerThread;
+        if (thread == null) {
+            return;
+        }
+        thread.interrupt();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Timeout add(Timeout timeout) {
+        if (!running) {
+            throw new RejectedExecutionException("TimingWheel has been shut down");
+        }
+        pendingAdds.add(timeout);
+        return timeout;
+    }
+
+    private void run() {
+        List<Timeout> periodic = new ArrayList<>();
+
+        while (running) {
+            long deadline = startTime + (tick + 1) * tickMs;
+            long sleepMs = deadline - currentTimeMs();
+            if (sleepMs > 0) {
+                try {
+                    Thread.sleep(sleepMs);
+                } catch (InterruptedException e) {
+                    if (!running) {
+                        break;
+                    }
+                    continue;
+                }
+            }
+
+            processCancels();
+            transferAdds();
+            expireBucket(wheel[(int) (tick & mask)], periodic);
+            tick++;
+
+            // Re-link periodic timeouts after the scan so they are not seen twice
+            for (Timeout timeout : periodic) {
+                if (timeout.state == STATE_PENDING) {
+                    timeout.deadline += timeout.periodMs;
+                    insert(timeout);
+                }
+            }
+            periodic.clear();
+        }
+
+        logger.fine("TimingWheel stopped");
+    }
+
+    private void processCancels() {
+        Timeout timeout;
+        while ((timeout = pendingCancels.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    private void transferAdds() {
+        Timeout timeout;
+        while ((timeout = pendingAdds.poll()) != null) {
+            if (timeout.state == STATE_PENDING) {
+                insert(timeout);
+            }
+        }
+    }
+
+    private void insert(Timeout timeout) {
+        long calculated = (timeout.deadline - startTime) / tickMs;
+        // Never schedule into the past; overdue timeouts fire on the current tick
+        long dueTick = Math.max(calculated, tick);
+        timeout.remainingRounds = (dueTick - tick) / wheel.length;
+        wheel[(int) (dueTick & mask)].add(timeout);
+    }
+
+    private void expireBucket(Bucket bucket, List<Timeout> periodic) {
+        Timeout timeout = bucket.head;
+        while (timeout != null) {
+            Timeout next = timeout.next;
+
+            if (timeout.remainingRounds <= 0) {
+                bucket.remove(timeout);
+                if (timeout.state == STATE_PENDING) {
+                    fire(timeout);
+                    if (timeout.periodMs > 0) {
+                        periodic.add(timeout);
+                    } else {
+                        timeout.state = STATE_EXPIRED;
+                    }
+                }
+            } else {
+                timeout.remainingRounds--;
+            }
+
+            timeout = next;
+        }
+    }
+
+    private void fire(Timeout timeout) {
+        try {
+            dispatcher.execute(timeout.task);
+        } catch (RuntimeException e) {
+            logger.warning("Error dispatching timed task: " + e.getMessage());
+        }
+    }
+
+    private static long currentTimeMs() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    /**
+     * Handle for a scheduled task.
+     */
+    public class Timeout {
+        private final Runnable task;
+        private final long periodMs;
+        private long deadline;
+        private long remainingRounds;
+        private volatile int state;
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadline, long periodMs) {
+            this.task = task;
+            this.deadline = deadline;
+            this.periodMs = periodMs;
+            this.state = STATE_PENDING;
+        }
+
+        /**
+         * Cancel the task. A run that has already been dispatched is not interrupted.
+         *
+         * @return true if the task was pending and is now cancelled
+         */
+        public boolean cancel() {
+            if (state != STATE_PENDING) {
+                return false;
+            }
+            state = STATE_CANCELLED;
+            pendingCancels.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state == STATE_CANCELLED;
+        }
+    }
+
+    /**
+     * Intrusive doubly linked list of timeouts due on the same tick.
+     * Only touched by the wheel thread.
+     */
+    private static class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            timeout.prev = tail;
+            timeout.next = null;
+            if (tail == null) {
+                head = timeout;
+            } else {
+                tail.next = timeout;
+            }
+            tail = timeout;
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.bucket != this) {
+                return;
+            }
+            if (timeout.prev == null) {
+                head = timeout.next;
+            } else {
+                timeout.prev.next = timeout.next;
+            }
+            if (timeout.next == null) {
+                tail = timeout.prev;
+            } else {
+                timeout.next.prev = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * BatchWriter applies writes to the database from a single background
+ * thread, many rows per transaction. Writes are queued by any thread and
+ * committed when a batch is full or the oldest queued write has waited for
+ * the flush interval, whichever comes first. Consecutive writes with the same
+ * statement are sent together with {@code addBatch}/{@code executeBatch}.
+ *
+ * The writer owns its connection, so reads on other connections never see a
+ * half-written batch, and closes it when its thread ends.
+ *
+ * If a batch fails, it is rolled back and its writes are retried one per
+ * transaction, so a single bad row does not take the rest of the batch with
+ * it. A flush request fails if any write queued since the previous flush
+ * request could not be committed.
+ */
+class BatchWriter {
+    private static final Logger logger = Logger.getLogger(BatchWriter.class.getName());
+
+    // Default queue size, rows per transaction and maximum commit delay
+    private static final int DEFAULT_CAPACITY = 10000;
+    private static final int DEFAULT_BATCH_SIZE = 500;
+    private static final long DEFAULT_FLUSH_INTERVAL_MS = 100;
+
+    // How long an idle writer waits before checking whether it should stop
+    private static final long IDLE_POLL_MS = 100;
+
+    // Share of the capacity at which backpressure is signalled
+    private static final double HIGH_WATER_RATIO = 0.75;
+
+    private final Connection connection;
+    private final BlockingQueue<Write> queue;
+    private final int capacity;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final Map<String, PreparedStatement> statements;
+    private final Thread thread;
+    private volatile boolean running;
+
+    // Writes failed since the last flush request was completed; writer thread only
+    private int failedSinceFlush;
+
+    // Writer metrics
+    private final AtomicLong written;
+    private final AtomicLong transactions;
+    private final AtomicLong failures;
+
+    /**
+     * Create a new BatchWriter with default settings.
+     *
+     * @param connection The connection to write on, used by this writer only
+     */
+    BatchWriter(Connection connection) {
+        this(connection, DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL_MS);
+    }
+
+    /**
+     * Create a new BatchWriter with custom settings.
+     *
+     * @param connection The connection to write on, used by this writer only
+     * @param capacity The maximum number of queued writes
+     * @param batchSize The maximum number of writes per transaction
+     * @param flushIntervalMs The longest a queued write waits for its batch to fill
+     */
+    BatchWriter(Connection connection, int capacity, int batchSize, long flushIntervalMs) {
+        this.connection = connection;
+        this.queue = new LinkedBlockingQueue<>(capacity);
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.statements = new HashMap<>();
+        this.thread = new Thread(this::run, "persistence-writer");
+        this.thread.setDaemon(true);
+        this.written = new AtomicLong();
+        this.transactions = new AtomicLong();
+        this.failures = new AtomicLong();
+    }
+
+    /**
+     * Start the writer thread.
+     *
+     * @throws SQLException If the connection cannot leave autocommit mode
+     */
+    void start() throws SQLException {
+        connection.setAutoCommit(false);
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * Queue a write, waiting for space if the queue is full.
+     *
+     * @param sql The statement
+     * @param params The statement parameters
+     * @param timeoutMs How long to wait for space
+     * @return true if the write was queued, false on timeout or if the writer stopped
+     */
+    boolean submit(String sql, Object[] params, long timeoutMs) {
+        if (!running) {
+            return false;
+        }
+        try {
+            return queue.offer(new Write(sql, params, null), timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Request that every write queued so far is committed without waiting
+     * for its batch to fill.
+     *
+     * @return A future completed once those writes have been committed, or
+     *         completed exceptionally if any write since the previous flush
+     *         request failed
+     */
+    CompletableFuture<Void> flush() {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        if (!running) {
+            done.complete(null);
+            return done;
+        }
+        try {
+            queue.put(new Write(null, null, done));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            done.completeExceptionally(e);
+        }
+        return done;
+    }
+
+    /**
+     * Check whether the queue is filled beyond its high-water mark.
+     *
+     * @return true if producers should slow down
+     */
+    boolean isBackpressured() {
+        return queue.size() >= capacity * HIGH_WATER_RATIO;
+    }
+
+    int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Get writer metrics.
+     *
+     * @return Map of metric name to value
+     */
+    Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("queued", queue.size());
+        metrics.put("capacity", capacity);
+        metrics.put("written", written.get());
+        metrics.put("transactions", transactions.get());
+        metrics.put("failures", failures.get());
+        metrics.put("backpressured", isBackpressured());
+        return metrics;
+    }
+
+    /**
+     * Commit every queued write and stop the writer thread. The connection
+     * is closed by the writer thread once it has finished, so a writer still
+     * draining when the timeout ends keeps its connection until then.
+     *
+     * @param timeoutMs How long to wait for the queue to drain
+     */
+    void shutdown(long timeoutMs) {
+        running = false;
+        try {
+            thread.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            logger.warning("Persistence writer stopped with " + queue.size() + " writes queued");
+        }
+    }
+
+    private void run() {
+        List<Write> batch = new ArrayList<>(batchSize);
+
+        while (running || !queue.isEmpty()) {
+            try {
+                Write first = queue.poll(IDLE_POLL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                // Fill the batch until it is full, a flush is requested or the interval ends
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+                while (batch.size() < batchSize && batch.get(batch.size() - 1).flushed == null) {
+                    long remaining = running ? deadline - System.nanoTime() : 0;
+                    Write next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                running = false;
+            }
+
+            commit(batch);
+            batch.clear();
+        }
+
+        closeStatements();
+        closeConnection();
+    }
+
+    /**
+     * Write a batch in one transaction and complete its flush requests. If
+     * the transaction fails, its writes are retried one at a time.
+     *
+     * @param batch The writes and flush requests, in order
+     */
+    private void commit(List<Write> batch) {
+        int rows = 0;
+        boolean committed;
+        try {
+            PreparedStatement pending = null;
+            for (Write write : batch) {
+                if (write.flushed != null) {
+                    continue;
+                }
+
+                PreparedStatement stmt = statement(write.sql);
+                if (stmt != pending && pending != null) {
+                    pending.executeBatch();
+                }
+                pending = stmt;
+
+                bind(stmt, write);
+                stmt.addBatch();
+                rows++;
+            }
+            if (pending != null) {
+                pending.executeBatch();
+            }
+
+            if (rows > 0) {
+                connection.commit();
+                written.addAndGet(rows);
+                transactions.incrementAndGet();
+            }
+            committed = true;
+        } catch (SQLException e) {
+            logger.warning("Error writing batch of " + rows + " rows, retrying them one at a time: " + e.getMessage());
+            rollback();
+            committed = false;
+        }
+
+        for (Write write : batch) {
+            if (write.flushed != null) {
+                completeFlush(write.flushed);
+            } else if (!committed && !commitOne(write)) {
+                failedSinceFlush++;
+            }
+        }
+    }
+
+    /**
+     * Write a single row in a transaction of its own.
+     *
+     * @param write The write
+     * @return true if the row was committed
+     */
+    private boolean commitOne(Write write) {
+        try {
+            PreparedStatement stmt = statement(write.sql);
+            bind(stmt, write);
+            stmt.executeUpdate();
+            connection.commit();
+            written.incrementAndGet();
+            transactions.incrementAndGet();
+            return true;
+        } catch (SQLException e) {
+            failures.incrementAndGet();
+            logger.severe("Error writing row (" + write.sql + "): " + e.getMessage());
+            rollback();
+            return false;
+        }
+    }
+
+    private void completeFlush(CompletableFuture<Void> flushed) {
+        if (failedSinceFlush == 0) {
+            flushed.complete(null);
+        } else {
+            flushed.completeExceptionally(new SQLException(failedSinceFlush + " writes failed"));
+            failedSinceFlush = 0;
+        }
+    }
+
+    private static void bind(PreparedStatement stmt, Write write) throws SQLException {
+        for (int i = 0; i < write.params.length; i++) {
+            stmt.setObject(i + 1, write.params[i]);
+        }
+    }
+
+    private PreparedStatement statement(String sql) throws SQLException {
+        PreparedStatement stmt = statements.get(sql);
+        if (stmt == null) {
+            stmt = connection.prepareStatement(sql);
+            statements.put(sql, stmt);
+        }
+        return stmt;
+    }
+
+    private void rollback() {
+        try {
+            for (PreparedStatement stmt : statements.values()) {
+                stmt.clearBatch();
+            }
+            connection.rollback();
+        } catch (SQLException e) {
+            logger.warning("Error rolling back batch: " + e.getMessage());
+        }
+    }
+
+    private void closeStatements() {
+        for (PreparedStatement stmt : statements.values()) {
+            try {
+                stmt.close();
+            } catch (SQLException e) {
+                logger.warning("Error closing statement: " + e.getMessage());
+            }
+        }
+        statements.clear();
+    }
+
+    private void closeConnection() {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            logger.warning("Error closing write connection: " + e.getMessage());
+        }
+    }
+
+    /**
+     * A queued write, or a flush request when flushed is set.
+     */
+    private static class Write {
+        private final String sql;
+        private final Object[] params;
+        private final CompletableFuture<Void> flushed;
+
+        public Write(String sql, Object[] params, CompletableFuture<Void> flushed) {
+            this.sql = sql;
+            this.params = params;
+            this.flushed = flushed;
+        }
+    }
+}
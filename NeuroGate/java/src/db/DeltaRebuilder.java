@@ -0,0 +1,76 @@
+package db;
+
+import java.util.HashMap;
+import java.util.Map;
+import simulation.StateSnapshot;
+
+/**
+ * DeltaRebuilder turns stored results back into full states. A results row
+ * holds either a node's full states (a keyframe) or only the states that
+ * changed since the version named by its "baseVersion". Rows are fed in the
+ * order they were stored; the rebuilder keeps each node's latest full states
+ * and applies every delta to them.
+ */
+public class DeltaRebuilder {
+
+    // Base version of rows holding full states
+    public static final long NO_VERSION = -1;
+
+    private final Map<String, Map<String, Object>> latest;
+
+    public DeltaRebuilder() {
+        this.latest = new HashMap<>();
+    }
+
+    /**
+     * Rebuild the full results of a stored row.
+     *
+     * @param nodeId The ID of the node the row belongs to
+     * @param results The stored results
+     * @return The results with full states, or null if the row is a delta
+     *         against states not seen, such as a pruned or failed write
+     */
+    public Map<String, Object> rebuild(String nodeId, Map<String, Object> results) {
+        long baseVersion = baseVersion(results);
+        if (baseVersion == NO_VERSION) {
+            latest.put(nodeId, results);
+            return results;
+        }
+
+        Map<String, Object> previous = latest.get(nodeId);
+        if (previous == null || toVersion(previous.get("version")) != baseVersion) {
+            latest.remove(nodeId);
+            return null;
+        }
+
+        Map<String, Object> full = new HashMap<>(results);
+        full.remove("baseVersion");
+        full.put("neuronStates", apply(previous, results, "neuronStates"));
+        full.put("synapseStates", apply(previous, results, "synapseStates"));
+        latest.put(nodeId, full);
+        return full;
+    }
+
+    /**
+     * Get the version a row's states are a delta against.
+     *
+     * @param results The results
+     * @return The base version, or NO_VERSION if the row holds full states
+     */
+    public static long baseVersion(Map<String, Object> results) {
+        return toVersion(results.get("baseVersion"));
+    }
+
+    private static StateSnapshot apply(Map<String, Object> base, Map<String, Object> delta, String key) {
+        StateSnapshot states = (StateSnapshot) base.get(key);
+        StateSnapshot changes = (StateSnapshot) delta.get(key);
+        if (states == null) {
+            return changes;
+        }
+        return changes != null ? states.applyDelta(changes) : states;
+    }
+
+    private static long toVersion(Object version) {
+        return version instanceof Number ? ((Number) version).longValue() : NO_VERSION;
+    }
+}
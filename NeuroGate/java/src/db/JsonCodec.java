@@ -0,0 +1,497 @@
+package db;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import simulation.StateSnapshot;
+
+/**
+ * JsonCodec writes and parses JSON for configurations and exports.
+ *
+ * The writer appends straight to a caller's buffer, or to a per-thread
+ * buffer that is reused between calls, escaping strings as it goes. State
+ * snapshots are written as objects of id to value. Non-finite numbers, which
+ * JSON cannot represent, are written as null.
+ *
+ * The parser is a single pass over the text. Objects become maps and arrays
+ * become lists. Numbers are read in place: integers become Long and
+ * everything else Double. Decimals with up to 15 significant digits and a
+ * small exponent are computed exactly from their digits; only longer ones go
+ * through {@link Double#parseDouble}.
+ */
+public final class JsonCodec {
+
+    // Thread buffers larger than this are not kept after use
+    private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // Powers of ten that are exact doubles, for the fast number path
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    // Most significant digits a long mantissa holds exactly as a double
+    private static final int MAX_EXACT_DIGITS = 15;
+
+    private static final ThreadLocal<StringBuilder> BUFFERS =
+        ThreadLocal.withInitial(() -> new StringBuilder(1024));
+
+    private JsonCodec() {
+    }
+
+    /**
+     * Write a value as JSON text, using the calling thread's buffer.
+     *
+     * @param value The value
+     * @return The JSON text
+     */
+    public static String toJson(Object value) {
+        StringBuilder buffer = BUFFERS.get();
+        buffer.setLength(0);
+        write(value, buffer);
+        String json = buffer.toString();
+        if (buffer.capacity() > MAX_RETAINED_CAPACITY) {
+            BUFFERS.remove();
+        }
+        return json;
+    }
+
+    /**
+     * Append a value as JSON text.
+     *
+     * @param value The value: a map, list, snapshot, number, boolean, string or null
+     * @param out The buffer to append to
+     */
+    public static void write(Object value, StringBuilder out) {
+        if (value == null) {
+            out.append("null");
+        } else if (value instanceof String) {
+            writeString((String) value, out);
+        } else if (value instanceof Double || value instanceof Float) {
+            double number = ((Number) value).doubleValue();
+            if (Double.isFinite(number)) {
+                out.append(value);
+            } else {
+                out.append("null");
+            }
+        } else if (value instanceof Number || value instanceof Boolean) {
+            out.append(value);
+        } else if (value instanceof StateSnapshot) {
+            writeSnapshot((StateSnapshot) value, out);
+        } else if (value instanceof Map) {
+            out.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!first) {
+                    out.append(',');
+                }
+                first = false;
+                writeString(String.valueOf(entry.getKey()), out);
+                out.append(':');
+                write(entry.getValue(), out);
+            }
+            out.append('}');
+        } else if (value instanceof List) {
+            out.append('[');
+            boolean first = true;
+            for (Object item : (List<?>) value) {
+                if (!first) {
+                    out.append(',');
+                }
+                first = false;
+                write(item, out);
+            }
+            out.append(']');
+        } else {
+            writeString(value.toString(), out);
+        }
+    }
+
+    /**
+     * Parse JSON text whose top-level value is an object.
+     *
+     * @param json The JSON text
+     * @return The parsed object
+     * @throws IllegalArgumentException If the text is not a valid JSON object
+     */
+    public static Map<String, Object> parseObject(CharSequence json) {
+        Parser parser = new Parser(json);
+        parser.skipWhitespace();
+        if (parser.position >= json.length() || json.charAt(parser.position) != '{') {
+            throw new IllegalArgumentException("JSON text is not an object");
+        }
+        Map<String, Object> object = parser.readObject();
+        parser.expectEnd();
+        return object;
+    }
+
+    /**
+     * Parse JSON text.
+     *
+     * @param json The JSON text
+     * @return The parsed value
+     * @throws IllegalArgumentException If the text is not valid JSON
+     */
+    public static Object parse(CharSequence json) {
+        Parser parser = new Parser(json);
+        Object value = parser.readValue();
+        parser.expectEnd();
+        return value;
+    }
+
+    private static void writeString(String value, StringBuilder out) {
+        out.append('"');
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+
+            // Copy the plain run before the character, then its escape
+            out.append(value, start, i);
+            start = i + 1;
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                case '\b':
+                    out.append("\\b");
+                    break;
+                case '\f':
+                    out.append("\\f");
+                    break;
+                default:
+                    out.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+                    break;
+            }
+        }
+        out.append(value, start, value.length());
+        out.append('"');
+    }
+
+    private static void writeSnapshot(StateSnapshot snapshot, StringBuilder out) {
+        out.append('{');
+        for (int i = 0; i < snapshot.size(); i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append('"').append(snapshot.idAt(i)).append("\":");
+            float value = snapshot.valueAt(i);
+            if (Float.isFinite(value)) {
+                out.append(value);
+            } else {
+                out.append("null");
+            }
+        }
+        out.append('}');
+    }
+
+    /**
+     * Recursive-descent parser over one JSON text.
+     */
+    private static class Parser {
+        private final CharSequence text;
+        private final StringBuilder scratch;
+        private int position;
+
+        public Parser(CharSequence text) {
+            this.text = text;
+            this.scratch = new StringBuilder();
+        }
+
+        public Object readValue() {
+            skipWhitespace();
+            if (position >= text.length()) {
+                throw error("Unexpected end of input");
+            }
+
+            char c = text.charAt(position);
+            switch (c) {
+                case '{':
+                    return readObject();
+                case '[':
+                    return readArray();
+                case '"':
+                    return readString();
+                case 't':
+                    expect("true");
+                    return Boolean.TRUE;
+                case 'f':
+                    expect("false");
+                    return Boolean.FALSE;
+                case 'n':
+                    expect("null");
+                    return null;
+                default:
+                    if (c == '-' || (c >= '0' && c <= '9')) {
+                        return readNumber();
+                    }
+                    throw error("Unexpected character '" + c + "'");
+            }
+        }
+
+        private Map<String, Object> readObject() {
+            Map<String, Object> map = new HashMap<>();
+            position++;
+            skipWhitespace();
+            if (peek() == '}') {
+                position++;
+                return map;
+            }
+
+            while (true) {
+                skipWhitespace();
+                if (peek() != '"') {
+                    throw error("Expected a key");
+                }
+                String key = readString();
+                skipWhitespace();
+                if (peek() != ':') {
+                    throw error("Expected ':'");
+                }
+                position++;
+                map.put(key, readValue());
+
+                skipWhitespace();
+                char c = peek();
+                position++;
+                if (c == '}') {
+                    return map;
+                }
+                if (c != ',') {
+                    throw error("Expected ',' or '}'");
+                }
+            }
+        }
+
+        private List<Object> readArray() {
+            List<Object> list = new ArrayList<>();
+            position++;
+            skipWhitespace();
+            if (peek() == ']') {
+                position++;
+                return list;
+            }
+
+            while (true) {
+                list.add(readValue());
+                skipWhitespace();
+                char c = peek();
+                position++;
+                if (c == ']') {
+                    return list;
+                }
+                if (c != ',') {
+                    throw error("Expected ',' or ']'");
+                }
+            }
+        }
+
+        private String readString() {
+            position++;
+            int start = position;
+
+            // Strings without escapes are copied in one piece
+            while (position < text.length()) {
+                char c = text.charAt(position);
+                if (c == '"') {
+                    String value = text.subSequence(start, position).toString();
+                    position++;
+                    return value;
+                }
+                if (c == '\\') {
+                    break;
+                }
+                position++;
+            }
+
+            scratch.setLength(0);
+            scratch.append(text, start, position);
+            while (position < text.length()) {
+                char c = text.charAt(position++);
+                if (c == '"') {
+                    return scratch.toString();
+                }
+                if (c != '\\') {
+                    scratch.append(c);
+                    continue;
+                }
+                if (position >= text.length()) {
+                    break;
+                }
+
+                char escaped = text.charAt(position++);
+                switch (escaped) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        scratch.append(escaped);
+                        break;
+                    case 'n':
+                        scratch.append('\n');
+                        break;
+                    case 'r':
+                        scratch.append('\r');
+                        break;
+                    case 't':
+                        scratch.append('\t');
+                        break;
+                    case 'b':
+                        scratch.append('\b');
+                        break;
+                    case 'f':
+                        scratch.append('\f');
+                        break;
+                    case 'u':
+                        scratch.append(readHexChar());
+                        break;
+                    default:
+                        throw error("Invalid escape '\\" + escaped + "'");
+                }
+            }
+            throw error("Unterminated string");
+        }
+
+        private char readHexChar() {
+            if (position + 4 > text.length()) {
+                throw error("Truncated unicode escape");
+            }
+            int value = 0;
+            for (int i = 0; i < 4; i++) {
+                int digit = Character.digit(text.charAt(position++), 16);
+                if (digit < 0) {
+                    throw error("Invalid unicode escape");
+                }
+                value = (value << 4) | digit;
+            }
+            return (char) value;
+        }
+
+        private Object readNumber() {
+            int start = position;
+            boolean negative = peek() == '-';
+            if (negative) {
+                position++;
+            }
+
+            // Accumulate the digits directly while they fit in a long
+            long mantissa = 0;
+            boolean overflow = false;
+            int digits = 0;
+            while (position < text.length() && isDigit(text.charAt(position))) {
+                int digit = text.charAt(position++) - '0';
+                if (mantissa > (Long.MAX_VALUE - digit) / 10) {
+                    overflow = true;
+                }
+                mantissa = mantissa * 10 + digit;
+                digits++;
+            }
+            if (digits == 0) {
+                throw error("Invalid number");
+            }
+
+            boolean fraction = false;
+            int exponent = 0;
+            if (position < text.length() && text.charAt(position) == '.') {
+                fraction = true;
+                position++;
+                while (position < text.length() && isDigit(text.charAt(position))) {
+                    if (digits < MAX_EXACT_DIGITS) {
+                        mantissa = mantissa * 10 + (text.charAt(position) - '0');
+                        exponent--;
+                    }
+                    digits++;
+                    position++;
+                }
+            }
+            if (position < text.length() && (text.charAt(position) == 'e' || text.charAt(position) == 'E')) {
+                fraction = true;
+                position++;
+                boolean negativeExponent = false;
+                if (position < text.length() && (text.charAt(position) == '+' || text.charAt(position) == '-')) {
+                    negativeExponent = text.charAt(position) == '-';
+                    position++;
+                }
+                int explicit = 0;
+                while (position < text.length() && isDigit(text.charAt(position))) {
+                    explicit = Math.min(explicit * 10 + (text.charAt(position++) - '0'), 10000);
+                }
+                exponent += negativeExponent ? -explicit : explicit;
+            }
+
+            if (!fraction && !overflow) {
+                return negative ? -mantissa : mantissa;
+            }
+            if (digits <= MAX_EXACT_DIGITS && Math.abs(exponent) < POWERS_OF_TEN.length) {
+                // Both operands are exact, so the result is correctly rounded
+                double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+                return negative ? -value : value;
+            }
+            try {
+                return Double.parseDouble(text.subSequence(start, position).toString());
+            } catch (NumberFormatException e) {
+                throw error("Invalid number");
+            }
+        }
+
+        private static boolean isDigit(char c) {
+            return c >= '0' && c <= '9';
+        }
+
+        private void expect(String literal) {
+            for (int i = 0; i < literal.length(); i++) {
+                if (position >= text.length() || text.charAt(position) != literal.charAt(i)) {
+                    throw error("Expected '" + literal + "'");
+                }
+                position++;
+            }
+        }
+
+        private char peek() {
+            if (position >= text.length()) {
+                throw error("Unexpected end of input");
+            }
+            return text.charAt(position);
+        }
+
+        private void skipWhitespace() {
+            while (position < text.length()) {
+                char c = text.charAt(position);
+                if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                    return;
+                }
+                position++;
+            }
+        }
+
+        /**
+         * Check that nothing but whitespace follows the parsed value.
+         */
+        private void expectEnd() {
+            skipWhitespace();
+            if (position < text.length()) {
+                throw error("Unexpected trailing characters");
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + position);
+        }
+    }
+}
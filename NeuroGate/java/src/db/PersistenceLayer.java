@@ -1,6 +1,10 @@
 package db;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
@@ -9,18 +13,66 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import simulation.Downsampler;
 
 /**
  * PersistenceLayer handles storage of node logs and job configurations.
+ * 
+ * Results are kept at several resolutions: raw results for a recent window,
+ * and rollups of older history in coarser buckets. Range queries are answered
+ * from the coarsest tier that satisfies the requested resolution.
+ * 
+ * Writes are queued to a {@link BatchWriter} with its own connection and
+ * committed in batches, so storing a result does not cost a transaction of
+ * its own. A store method returning true means the write is queued; call
+ * {@link #flush(long)} to wait until queued writes are committed. Queries
+ * run on a separate read-only connection; with the write-ahead log of the
+ * performance {@link SqliteTuning} they do not block the writer.
+ * 
+ * Raw results of nodes sending deltas are stored as deltas tagged with
+ * their base version, with a keyframe of full states in between, and are
+ * rebuilt into full states by a {@link DeltaRebuilder} as they are read.
+ * Range queries start reading at each node's last keyframe before the
+ * range, and pruning keeps the keyframe later rows depend on.
+ * 
+ * Result maps are stored as binary BLOBs by a {@link ResultCodec};
+ * configurations are JSON text written and parsed by {@link JsonCodec},
+ * which also writes result exports.
  */
 public class PersistenceLayer {
     private static final Logger logger = Logger.getLogger(PersistenceLayer.class.getName());
     
+    // How long a write waits for space in a full queue, and shutdown waits for it to drain
+    private static final long WRITE_TIMEOUT_MS = 30000;
+    private static final long SHUTDOWN_TIMEOUT_MS = 30000;
+    
+    // Rows fetched at a time by result cursors
+    public static final int DEFAULT_FETCH_SIZE = 256;
+    
+    // SQLite open flag for read-only connections
+    private static final int SQLITE_OPEN_READONLY = 0x01;
+    
     private final String dbPath;
+    private final SqliteTuning tuning;
     private Connection connection;
+    private Connection writeConnection;
+    private BatchWriter writer;
+    private List<Downsampler.Tier> tiers;
+    private ResultCodec codec;
     
     /**
      * Create a new PersistenceLayer with the default database path.
@@ -35,7 +87,48 @@ public class PersistenceLayer {
      * @param dbPath The path to the SQLite database file
      */
     public PersistenceLayer(String dbPath) {
+        this(dbPath, SqliteTuning.DEFAULT);
+    }
+    
+    /**
+     * Create a new PersistenceLayer with a custom database path and SQLite settings.
+     * 
+     * @param dbPath The path to the SQLite database file
+     * @param tuning The SQLite settings applied to every connection
+     */
+    public PersistenceLayer(String dbPath, SqliteTuning tuning) {
         this.dbPath = dbPath;
+        this.tuning = tuning;
+        this.tiers = Downsampler.DEFAULT_TIERS;
+        this.codec = new ResultCodec();
+    }
+    
+    /**
+     * Get the tiers results are kept at.
+     * 
+     * @return The tiers, from finest to coarsest
+     */
+    public List<Downsampler.Tier> getTiers() {
+        return tiers;
+    }
+    
+    /**
+     * Set the tiers results are kept at.
+     * 
+     * @param tiers The tiers, from finest to coarsest, starting with the raw tier
+     */
+    public void setTiers(List<Downsampler.Tier> tiers) {
+        this.tiers = tiers;
+    }
+    
+    /**
+     * Set the codec results are encoded with, such as one with compression
+     * disabled. Results written by any codec can be read back.
+     * 
+     * @param codec The codec
+     */
+    public void setResultCodec(ResultCodec codec) {
+        this.codec = codec;
     }
     
     /**
@@ -55,13 +148,24 @@ public class PersistenceLayer {
             // Load SQLite JDBC driver
             Class.forName("org.sqlite.JDBC");
             
-            // Connect to database
-            connection = DriverManager.getConnection("jdbc:sqlite:" + dbPath);
+            // Connect for writing; the journal mode is set before anything else
+            writeConnection = DriverManager.getConnection("jdbc:sqlite:" + dbPath);
+            tuning.applyToWriter(writeConnection);
             
             // Create tables if they don't exist
             createTables();
             
-            logger.info("PersistenceLayer initialized with database: " + dbPath);
+            // Queries use a read-only connection of their own
+            Properties readOnly = new Properties();
+            readOnly.setProperty("open_mode", String.valueOf(SQLITE_OPEN_READONLY));
+            connection = DriverManager.getConnection("jdbc:sqlite:" + dbPath, readOnly);
+            tuning.applyToReader(connection);
+            
+            // Writes go through a batching writer on the write connection
+            writer = new BatchWriter(writeConnection);
+            writer.start();
+            
+            logger.info("PersistenceLayer initialized with database: " + dbPath + " (" + tuning + ")");
             return true;
         } catch (ClassNotFoundException e) {
             logger.severe("SQLite JDBC driver not found: " + e.getMessage());
@@ -76,7 +180,15 @@ public class PersistenceLayer {
      * Close the database connection and clean up resources.
      */
     public void shutdown() {
+        if (writer != null) {
+            writer.shutdown(SHUTDOWN_TIMEOUT_MS);
+        }
+        
         try {
+            // A started writer closes its connection itself once it has stopped
+            if (writer == null && writeConnection != null && !writeConnection.isClosed()) {
+                writeConnection.close();
+            }
             if (connection != null && !connection.isClosed()) {
                 connection.close();
                 logger.info("PersistenceLayer shut down");
@@ -99,24 +211,17 @@ public class PersistenceLayer {
             return false;
         }
         
-        try {
-            // Convert config to JSON
-            String configJson = serializeToJson(config);
-            
-            // Insert or update config
-            String sql = "INSERT OR REPLACE INTO configs (session_id, config, created_at) VALUES (?, ?, datetime('now'))";
-            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-                stmt.setString(1, sessionId);
-                stmt.setString(2, configJson);
-                stmt.executeUpdate();
-            }
-            
-            logger.info("Stored configuration for session " + sessionId);
-            return true;
-        } catch (SQLException e) {
-            logger.severe("Error storing configuration: " + e.getMessage());
+        // Convert config to JSON
+        String configJson = JsonCodec.toJson(config);
+        
+        // Insert or update config
+        String sql = "INSERT OR REPLACE INTO configs (session_id, config, created_at) VALUES (?, ?, datetime('now'))";
+        if (!write(sql, sessionId, configJson)) {
             return false;
         }
+        
+        logger.info("Stored configuration for session " + sessionId);
+        return true;
     }
     
     /**
@@ -153,11 +258,12 @@ public class PersistenceLayer {
     }
     
     /**
-     * Store simulation results.
+     * Store simulation results. Results carrying a "baseVersion" hold only
+     * the states changed since that version of the node's results.
      * 
      * @param sessionId The ID of the session
      * @param nodeId The ID of the node
-     * @param results The results to store
+     * @param results The results to store, full states or a delta
      * @return true if storage was successful
      */
     public boolean storeResults(String sessionId, String nodeId, Map<String, Object> results) {
@@ -166,25 +272,81 @@ public class PersistenceLayer {
             return false;
         }
         
-        try {
-            // Convert results to JSON
-            String resultsJson = serializeToJson(results);
-            
-            // Insert results
-            String sql = "INSERT INTO results (session_id, node_id, results, timestamp) VALUES (?, ?, ?, datetime('now'))";
-            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-                stmt.setString(1, sessionId);
-                stmt.setString(2, nodeId);
-                stmt.setString(3, resultsJson);
-                stmt.executeUpdate();
+        // Encode results
+        byte[] encoded = encode(results);
+        if (encoded == null) {
+            return false;
+        }
+        
+        // Insert results
+        String sql = "INSERT INTO results (session_id, node_id, results, base_version, timestamp) " +
+                     "VALUES (?, ?, ?, ?, datetime('now'))";
+        if (!write(sql, sessionId, nodeId, encoded, DeltaRebuilder.baseVersion(results))) {
+            return false;
+        }
+        
+        logger.fine("Stored results for session " + sessionId + ", node " + nodeId);
+        return true;
+    }
+    
+    /**
+     * Store a rollup of results.
+     * 
+     * @param sessionId The ID of the session
+     * @param rollup The completed bucket
+     * @return true if storage was successful
+     */
+    public boolean storeRollup(String sessionId, Downsampler.Rollup rollup) {
+        if (connection == null) {
+            logger.warning("Database not initialized");
+            return false;
+        }
+        
+        byte[] encoded = encode(rollup.getResults());
+        if (encoded == null) {
+            return false;
+        }
+        
+        String sql = "INSERT INTO result_rollups (session_id, node_id, tier, bucket_start, results) VALUES (?, ?, ?, ?, ?)";
+        return write(sql, sessionId, rollup.getNodeId(), rollup.getTier().getName(), rollup.getStartMs(), encoded);
+    }
+    
+    /**
+     * Delete results of a session that have outlived their tier's retention.
+     * 
+     * @param sessionId The ID of the session
+     * @param nowMs The current time in milliseconds
+     * @return true if the deletions were queued
+     */
+    public boolean pruneResults(String sessionId, long nowMs) {
+        if (connection == null) {
+            logger.warning("Database not initialized");
+            return false;
+        }
+        
+        for (Downsampler.Tier tier : tiers) {
+            if (tier.getRetentionMs() == 0) {
+                continue;
             }
             
-            logger.fine("Stored results for session " + sessionId + ", node " + nodeId);
-            return true;
-        } catch (SQLException e) {
-            logger.severe("Error storing results: " + e.getMessage());
-            return false;
+            long cutoff = nowMs - tier.getRetentionMs();
+            boolean queued;
+            if (tier.isRaw()) {
+                // Keep each node's last keyframe before the cutoff, and the deltas based on it
+                String sql = "DELETE FROM results WHERE session_id = ? AND timestamp < datetime(?, 'unixepoch') " +
+                             "AND id < (SELECT MAX(k.id) FROM results k WHERE k.session_id = results.session_id " +
+                             "AND k.node_id = results.node_id AND k.base_version = -1 " +
+                             "AND k.timestamp < datetime(?, 'unixepoch'))";
+                queued = write(sql, sessionId, cutoff / 1000, cutoff / 1000);
+            } else {
+                String sql = "DELETE FROM result_rollups WHERE session_id = ? AND tier = ? AND bucket_start < ?";
+                queued = write(sql, sessionId, tier.getName(), cutoff);
+            }
+            if (!queued) {
+                return false;
+            }
         }
+        return true;
     }
     
     /**
@@ -200,24 +362,20 @@ public class PersistenceLayer {
             return false;
         }
         
-        try {
-            // Convert results to JSON
-            String resultsJson = serializeToJson(results);
-            
-            // Insert final results
-            String sql = "INSERT OR REPLACE INTO final_results (session_id, results, timestamp) VALUES (?, ?, datetime('now'))";
-            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-                stmt.setString(1, sessionId);
-                stmt.setString(2, resultsJson);
-                stmt.executeUpdate();
-            }
-            
-            logger.info("Stored final results for session " + sessionId);
-            return true;
-        } catch (SQLException e) {
-            logger.severe("Error storing final results: " + e.getMessage());
+        // Encode results
+        byte[] encoded = encode(results);
+        if (encoded == null) {
             return false;
         }
+        
+        // Insert final results
+        String sql = "INSERT OR REPLACE INTO final_results (session_id, results, timestamp) VALUES (?, ?, datetime('now'))";
+        if (!write(sql, sessionId, encoded)) {
+            return false;
+        }
+        
+        logger.info("Stored final results for session " + sessionId);
+        return true;
     }
     
     /**
@@ -239,8 +397,7 @@ public class PersistenceLayer {
                 
                 try (ResultSet rs = stmt.executeQuery()) {
                     if (rs.next()) {
-                        String resultsJson = rs.getString("results");
-                        return deserializeFromJson(resultsJson);
+                        return readResults(rs);
                     }
                 }
             }
@@ -254,34 +411,147 @@ public class PersistenceLayer {
     }
     
     /**
-     * Retrieve results for a session.
+     * Retrieve results for a session. Every row is held in memory; use
+     * {@link #streamResults} for long sessions.
      * 
      * @param sessionId The ID of the session
      * @return List of result entries
      */
     public List<Map<String, Object>> getResults(String sessionId) {
+        try (Stream<Map<String, Object>> results = streamResults(sessionId)) {
+            return results.collect(Collectors.toList());
+        }
+    }
+    
+    /**
+     * Stream all results for a session.
+     * 
+     * @param sessionId The ID of the session
+     * @return Stream of result entries, which must be closed
+     * @see #streamResults(String, String, long, long, int)
+     */
+    public Stream<Map<String, Object>> streamResults(String sessionId) {
+        return streamResults(sessionId, null, 0, Long.MAX_VALUE, DEFAULT_FETCH_SIZE);
+    }
+    
+    /**
+     * Stream results for a session through a database cursor, reading and
+     * decoding rows only as the stream is consumed, so memory use does not
+     * depend on the number of rows. The stream holds the cursor open and
+     * must be closed, ideally with try-with-resources. Deltas are rebuilt
+     * into full states; for that, each node is read from its last keyframe
+     * before the range, and rows that cannot be rebuilt are skipped.
+     * 
+     * @param sessionId The ID of the session
+     * @param nodeId The ID of the node to read results of, or null for all nodes
+     * @param fromMs The start of the time range in milliseconds, inclusive
+     * @param toMs The end of the time range in milliseconds, exclusive
+     * @param fetchSize The number of rows the driver is asked to fetch at a time
+     * @return Stream of result entries, empty if the results cannot be read
+     */
+    public Stream<Map<String, Object>> streamResults(String sessionId, String nodeId, long fromMs, long toMs,
+                                                     int fetchSize) {
+        if (connection == null) {
+            logger.warning("Database not initialized");
+            return Stream.empty();
+        }
+        
+        // Rows before the range are read only to rebuild the deltas in it
+        StringBuilder sql = new StringBuilder("SELECT node_id, results, timestamp, ");
+        List<Object> params = new ArrayList<>();
+        if (fromMs > 0) {
+            sql.append("timestamp >= datetime(?, 'unixepoch') AS in_range");
+            params.add(fromMs / 1000);
+        } else {
+            sql.append("1 AS in_range");
+        }
+        sql.append(" FROM results WHERE session_id = ?");
+        params.add(sessionId);
+        if (nodeId != null) {
+            sql.append(" AND node_id = ?");
+            params.add(nodeId);
+        }
+        if (fromMs > 0) {
+            sql.append(" AND (timestamp >= datetime(?, 'unixepoch') OR id >= (SELECT MAX(k.id) FROM results k " +
+                       "WHERE k.session_id = results.session_id AND k.node_id = results.node_id " +
+                       "AND k.base_version = -1 AND k.timestamp < datetime(?, 'unixepoch')))");
+            params.add(fromMs / 1000);
+            params.add(fromMs / 1000);
+        }
+        if (toMs < Long.MAX_VALUE) {
+            sql.append(" AND timestamp < datetime(?, 'unixepoch')");
+            params.add((toMs + 999) / 1000);
+        }
+        sql.append(" ORDER BY id");
+        
+        PreparedStatement stmt = null;
+        try {
+            stmt = connection.prepareStatement(sql.toString());
+            for (int i = 0; i < params.size(); i++) {
+                stmt.setObject(i + 1, params.get(i));
+            }
+            stmt.setFetchSize(fetchSize);
+            ResultCursor cursor = new ResultCursor(stmt, stmt.executeQuery());
+            return StreamSupport.stream(cursor, false).onClose(cursor::close);
+        } catch (SQLException e) {
+            logger.severe("Error retrieving results: " + e.getMessage());
+            closeQuietly(stmt);
+            return Stream.empty();
+        }
+    }
+    
+    /**
+     * Retrieve results for a session within a time range, from the coarsest
+     * tier whose resolution is at least as fine as requested and which still
+     * holds the start of the range. Entries carry the tier they came from.
+     * 
+     * @param sessionId The ID of the session
+     * @param fromMs The start of the range in milliseconds
+     * @param toMs The end of the range in milliseconds
+     * @param resolutionMs The coarsest acceptable resolution in milliseconds, or 0 for raw results
+     * @return List of result entries
+     */
+    public List<Map<String, Object>> getResults(String sessionId, long fromMs, long toMs, long resolutionMs) {
         if (connection == null) {
             logger.warning("Database not initialized");
             return new ArrayList<>();
         }
         
+        Downsampler.Tier tier = Downsampler.select(tiers, fromMs, resolutionMs, System.currentTimeMillis());
+        if (tier.isRaw()) {
+            // Raw results may be deltas, which the cursor rebuilds
+            try (Stream<Map<String, Object>> results = streamResults(sessionId, null, fromMs, toMs, DEFAULT_FETCH_SIZE)) {
+                List<Map<String, Object>> resultsList = results.collect(Collectors.toList());
+                for (Map<String, Object> entry : resultsList) {
+                    entry.put("tier", tier.getName());
+                }
+                return resultsList;
+            } catch (UncheckedIOException e) {
+                logger.severe("Error retrieving results: " + e.getMessage());
+                return new ArrayList<>();
+            }
+        }
+        
         try {
-            String sql = "SELECT node_id, results, timestamp FROM results WHERE session_id = ? ORDER BY timestamp";
+            String sql = "SELECT node_id, results, datetime(bucket_start / 1000, 'unixepoch') AS timestamp " +
+                         "FROM result_rollups WHERE session_id = ? AND tier = ? " +
+                         "AND bucket_start > ? AND bucket_start < ? ORDER BY bucket_start";
+            
             try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                // Include the bucket the range starts in
                 stmt.setString(1, sessionId);
+                stmt.setString(2, tier.getName());
+                stmt.setLong(3, fromMs - tier.getBucketMs());
+                stmt.setLong(4, toMs);
                 
                 List<Map<String, Object>> resultsList = new ArrayList<>();
                 try (ResultSet rs = stmt.executeQuery()) {
                     while (rs.next()) {
-                        String nodeId = rs.getString("node_id");
-                        String resultsJson = rs.getString("results");
-                        String timestamp = rs.getString("timestamp");
-                        
                         Map<String, Object> entry = new HashMap<>();
-                        entry.put("nodeId", nodeId);
-                        entry.put("timestamp", timestamp);
-                        entry.put("results", deserializeFromJson(resultsJson));
-                        
+                        entry.put("nodeId", rs.getString("node_id"));
+                        entry.put("timestamp", rs.getString("timestamp"));
+                        entry.put("tier", tier.getName());
+                        entry.put("results", readResults(rs));
                         resultsList.add(entry);
                     }
                 }
@@ -294,6 +564,43 @@ public class PersistenceLayer {
         }
     }
     
+    /**
+     * Export the results of a session as a JSON array, one entry per stored
+     * result. Rows are written one at a time, so the export is never held in
+     * memory as a whole.
+     * 
+     * @param sessionId The ID of the session
+     * @param out The writer to export to
+     * @return The number of results exported, or -1 on error
+     */
+    public int exportResults(String sessionId, Writer out) {
+        if (connection == null) {
+            logger.warning("Database not initialized");
+            return -1;
+        }
+        
+        try (Stream<Map<String, Object>> results = streamResults(sessionId)) {
+            int count = 0;
+            StringBuilder buffer = new StringBuilder(4096);
+            out.write('[');
+            for (Iterator<Map<String, Object>> it = results.iterator(); it.hasNext(); ) {
+                buffer.setLength(0);
+                if (count > 0) {
+                    buffer.append(",\n");
+                }
+                JsonCodec.write(it.next(), buffer);
+                out.append(buffer);
+                count++;
+            }
+            out.write("]\n");
+            out.flush();
+            return count;
+        } catch (IOException | UncheckedIOException e) {
+            logger.severe("Error exporting results: " + e.getMessage());
+            return -1;
+        }
+    }
+    
     /**
      * Store a log entry.
      * 
@@ -309,21 +616,8 @@ public class PersistenceLayer {
             return false;
         }
         
-        try {
-            String sql = "INSERT INTO logs (session_id, node_id, level, message, timestamp) VALUES (?, ?, ?, ?, datetime('now'))";
-            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-                stmt.setString(1, sessionId);
-                stmt.setString(2, nodeId);
-                stmt.setString(3, level);
-                stmt.setString(4, message);
-                stmt.executeUpdate();
-            }
-            
-            return true;
-        } catch (SQLException e) {
-            logger.severe("Error storing log: " + e.getMessage());
-            return false;
-        }
+        String sql = "INSERT INTO logs (session_id, node_id, level, message, timestamp) VALUES (?, ?, ?, ?, datetime('now'))";
+        return write(sql, sessionId, nodeId, level, message);
     }
     
     /**
@@ -363,11 +657,121 @@ public class PersistenceLayer {
         }
     }
     
+    /**
+     * Wait until every write queued so far is committed.
+     * 
+     * @param timeoutMs How long to wait
+     * @return true if the writes were committed in time, false if the wait
+     *         timed out or a write since the previous flush failed
+     */
+    public boolean flush(long timeoutMs) {
+        if (writer == null) {
+            return true;
+        }
+        
+        try {
+            writer.flush().get(timeoutMs, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            logger.warning("Timed out waiting for " + writer.getQueueDepth() + " queued writes");
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            logger.warning("Queued writes failed: " + e.getCause().getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * Get the number of writes waiting to be committed.
+     * 
+     * @return The write queue depth
+     */
+    public int getWriteQueueDepth() {
+        return writer != null ? writer.getQueueDepth() : 0;
+    }
+    
+    /**
+     * Check whether writes are queuing up faster than they are committed.
+     * 
+     * @return true if the write queue is above its high-water mark
+     */
+    public boolean isWriteBackpressured() {
+        return writer != null && writer.isBackpressured();
+    }
+    
+    /**
+     * Get metrics of the background writer.
+     * 
+     * @return Map of metric name to value
+     */
+    public Map<String, Object> getWriterMetrics() {
+        return writer != null ? writer.getMetrics() : new HashMap<>();
+    }
+    
+    /**
+     * Queue a write.
+     * 
+     * @param sql The statement
+     * @param params The statement parameters
+     * @return true if the write was queued
+     */
+    private boolean write(String sql, Object... params) {
+        if (writer == null || !writer.submit(sql, params, WRITE_TIMEOUT_MS)) {
+            logger.severe("Write queue full or closed, write dropped");
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Encode results for storage.
+     * 
+     * @param results The results
+     * @return The encoded bytes, or null if the results hold a value that
+     *         cannot be encoded
+     */
+    private byte[] encode(Map<String, Object> results) {
+        try {
+            return codec.encode(results);
+        } catch (IllegalArgumentException e) {
+            logger.warning("Error encoding results: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Decode the results column of the current row.
+     * 
+     * @param rs The result set, positioned on a row
+     * @return The results, or an empty map if they cannot be decoded
+     */
+    private Map<String, Object> readResults(ResultSet rs) throws SQLException {
+        byte[] stored = rs.getBytes("results");
+        if (stored == null) {
+            return new HashMap<>();
+        }
+        
+        // Rows written before the binary encoding hold JSON text
+        if (!ResultCodec.isEncoded(stored)) {
+            return deserializeFromJson(new String(stored, StandardCharsets.UTF_8));
+        }
+        
+        try {
+            return codec.decode(stored);
+        } catch (IOException e) {
+            logger.warning("Error decoding results: " + e.getMessage());
+            return new HashMap<>();
+        }
+    }
+    
     /**
      * Create database tables if they don't exist.
      */
     private void createTables() throws SQLException {
-        try (Statement stmt = connection.createStatement()) {
+        try (Statement stmt = writeConnection.createStatement()) {
             // Create configs table
             stmt.execute(
                 "CREATE TABLE IF NOT EXISTS configs (" +
@@ -383,16 +787,40 @@ public class PersistenceLayer {
                 "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
                 "session_id TEXT NOT NULL, " +
                 "node_id TEXT NOT NULL, " +
-                "results TEXT NOT NULL, " +
+                "results BLOB NOT NULL, " +
+                "base_version INTEGER NOT NULL DEFAULT -1, " +
                 "timestamp TEXT NOT NULL" +
                 ")"
             );
             
+            // Results stored before deltas were kept all hold full states
+            boolean hasBaseVersion = false;
+            try (ResultSet columns = stmt.executeQuery("PRAGMA table_info(results)")) {
+                while (columns.next()) {
+                    hasBaseVersion |= "base_version".equals(columns.getString("name"));
+                }
+            }
+            if (!hasBaseVersion) {
+                stmt.execute("ALTER TABLE results ADD COLUMN base_version INTEGER NOT NULL DEFAULT -1");
+            }
+            
+            // Create result_rollups table
+            stmt.execute(
+                "CREATE TABLE IF NOT EXISTS result_rollups (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "session_id TEXT NOT NULL, " +
+                "node_id TEXT NOT NULL, " +
+                "tier TEXT NOT NULL, " +
+                "bucket_start INTEGER NOT NULL, " +
+                "results BLOB NOT NULL" +
+                ")"
+            );
+            
             // Create final_results table
             stmt.execute(
                 "CREATE TABLE IF NOT EXISTS final_results (" +
                 "session_id TEXT PRIMARY KEY, " +
-                "results TEXT NOT NULL, " +
+                "results BLOB NOT NULL, " +
                 "timestamp TEXT NOT NULL" +
                 ")"
             );
@@ -411,94 +839,91 @@ public class PersistenceLayer {
             
             // Create indexes
             stmt.execute("CREATE INDEX IF NOT EXISTS idx_results_session ON results (session_id)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_results_keyframes ON results (session_id, node_id, base_version)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_rollups_session ON result_rollups (session_id, tier, bucket_start)");
             stmt.execute("CREATE INDEX IF NOT EXISTS idx_logs_session ON logs (session_id)");
         }
     }
     
+    private static void closeQuietly(AutoCloseable resource) {
+        if (resource == null) {
+            return;
+        }
+        try {
+            resource.close();
+        } catch (Exception e) {
+            logger.warning("Error closing cursor: " + e.getMessage());
+        }
+    }
+    
     /**
-     * Serialize a map to JSON string.
+     * Parse stored JSON text into a map.
      * 
-     * @param map The map to serialize
-     * @return JSON string
+     * @param json The JSON text
+     * @return The parsed map, or an empty map if the text is not a JSON object
      */
-    private String serializeToJson(Map<String, Object> map) {
-        // In a real implementation, this would use a JSON library
-        // For simplicity, we'll create a basic JSON representation
-        StringBuilder json = new StringBuilder("{");
-        
-        boolean first = true;
-        for (Map.Entry<String, Object> entry : map.entrySet()) {
-            if (!first) {
-                json.append(",");
-            }
-            first = false;
-            
-            json.append("\"").append(entry.getKey()).append("\":");
-            
-            Object value = entry.getValue();
-            if (value == null) {
-                json.append("null");
-            } else if (value instanceof Number) {
-                json.append(value);
-            } else if (value instanceof Boolean) {
-                json.append(value);
-            } else if (value instanceof Map) {
-                json.append(serializeToJson((Map<String, Object>) value));
-            } else if (value instanceof List) {
-                json.append(serializeToJsonArray((List<Object>) value));
-            } else {
-                json.append("\"").append(value).append("\"");
-            }
+    private Map<String, Object> deserializeFromJson(String json) {
+        try {
+            return JsonCodec.parseObject(json);
+        } catch (IllegalArgumentException e) {
+            logger.warning("Error parsing stored JSON: " + e.getMessage());
+            return new HashMap<>();
         }
-        
-        json.append("}");
-        return json.toString();
     }
     
     /**
-     * Serialize a list to JSON array string.
-     * 
-     * @param list The list to serialize
-     * @return JSON array string
+     * Spliterator over result rows. A row is read and decoded only when the
+     * stream asks for it; the statement is closed with the stream or when
+     * the rows run out.
      */
-    private String serializeToJsonArray(List<Object> list) {
-        StringBuilder json = new StringBuilder("[");
+    private class ResultCursor extends Spliterators.AbstractSpliterator<Map<String, Object>> {
+        private final PreparedStatement stmt;
+        private final ResultSet rs;
+        private final DeltaRebuilder rebuilder;
+        private boolean closed;
+        
+        public ResultCursor(PreparedStatement stmt, ResultSet rs) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.stmt = stmt;
+            this.rs = rs;
+            this.rebuilder = new DeltaRebuilder();
+        }
         
-        boolean first = true;
-        for (Object value : list) {
-            if (!first) {
-                json.append(",");
+        @Override
+        public boolean tryAdvance(Consumer<? super Map<String, Object>> action) {
+            if (closed) {
+                return false;
             }
-            first = false;
             
-            if (value == null) {
-                json.append("null");
-            } else if (value instanceof Number) {
-                json.append(value);
-            } else if (value instanceof Boolean) {
-                json.append(value);
-            } else if (value instanceof Map) {
-                json.append(serializeToJson((Map<String, Object>) value));
-            } else if (value instanceof List) {
-                json.append(serializeToJsonArray((List<Object>) value));
-            } else {
-                json.append("\"").append(value).append("\"");
+            try {
+                while (rs.next()) {
+                    String nodeId = rs.getString("node_id");
+                    Map<String, Object> results = rebuilder.rebuild(nodeId, readResults(rs));
+                    if (results == null || !rs.getBoolean("in_range")) {
+                        continue;
+                    }
+                    
+                    Map<String, Object> entry = new HashMap<>();
+                    entry.put("nodeId", nodeId);
+                    entry.put("timestamp", rs.getString("timestamp"));
+                    entry.put("results", results);
+                    action.accept(entry);
+                    return true;
+                }
+                close();
+                return false;
+            } catch (SQLException e) {
+                close();
+                throw new UncheckedIOException(new IOException("Error reading results: " + e.getMessage(), e));
             }
         }
         
-        json.append("]");
-        return json.toString();
-    }
-    
-    /**
-     * Deserialize a JSON string to a map.
-     * 
-     * @param json The JSON string
-     * @return Deserialized map
-     */
-    private Map<String, Object> deserializeFromJson(String json) {
-        // In a real implementation, this would use a JSON library
-        // For simplicity, we'll return an empty map
-        return new HashMap<>();
+        public void close() {
+            if (!closed) {
+                closed = true;
+                closeQuietly(rs);
+                closeQuietly(stmt);
+            }
+        }
     }
-}
\ No newline at end of file
+}
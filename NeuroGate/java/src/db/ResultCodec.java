@@ -0,0 +1,429 @@
+package db;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import simulation.StateSnapshot;
+
+/**
+ * ResultCodec encodes result maps as compact binary BLOBs. Every value
+ * carries a one-byte type tag; state snapshots are written as a header
+ * followed by their raw float values (and ids, when sparse), so no value is
+ * ever formatted as text. Encoded results larger than a threshold are
+ * deflated when compression is enabled and that makes them smaller.
+ *
+ * Decoding reads from a stream, inflating as it goes, so a compressed BLOB
+ * is never expanded into memory as a whole before its values are built.
+ * Every length read is checked against the bytes the BLOB can still hold, so
+ * a corrupt BLOB fails instead of forcing a huge allocation.
+ *
+ * Layout: int magic, byte flags, then the root map.
+ */
+public class ResultCodec {
+
+    // "NGR1"
+    private static final int MAGIC = 0x4E475231;
+    private static final byte FLAG_DEFLATED = 0x01;
+
+    // Encoded size above which compression is tried
+    private static final int DEFAULT_COMPRESS_THRESHOLD = 4096;
+
+    // Bytes of values written or read at once
+    private static final int CHUNK_SIZE = 8192;
+
+    // Largest factor by which deflate can expand a stream
+    private static final int MAX_INFLATE_RATIO = 1032;
+
+    // Value type tags
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_FALSE = 1;
+    private static final byte TYPE_TRUE = 2;
+    private static final byte TYPE_INT = 3;
+    private static final byte TYPE_LONG = 4;
+    private static final byte TYPE_FLOAT = 5;
+    private static final byte TYPE_DOUBLE = 6;
+    private static final byte TYPE_STRING = 7;
+    private static final byte TYPE_MAP = 8;
+    private static final byte TYPE_LIST = 9;
+    private static final byte TYPE_DENSE_STATES = 10;
+    private static final byte TYPE_SPARSE_STATES = 11;
+
+    private final boolean compress;
+    private final int compressThreshold;
+
+    /**
+     * Create a new ResultCodec that compresses large results.
+     */
+    public ResultCodec() {
+        this(true, DEFAULT_COMPRESS_THRESHOLD);
+    }
+
+    /**
+     * Create a new ResultCodec with the default compression threshold.
+     *
+     * @param compress Whether large results are deflated
+     */
+    public ResultCodec(boolean compress) {
+        this(compress, DEFAULT_COMPRESS_THRESHOLD);
+    }
+
+    /**
+     * Create a new ResultCodec with custom settings.
+     *
+     * @param compress Whether large results are deflated
+     * @param compressThreshold Encoded size in bytes above which compression is tried
+     */
+    public ResultCodec(boolean compress, int compressThreshold) {
+        this.compress = compress;
+        this.compressThreshold = compressThreshold;
+    }
+
+    /**
+     * Check whether stored bytes were written by this codec.
+     *
+     * @param bytes The stored bytes
+     * @return true if the bytes start with the codec's header
+     */
+    public static boolean isEncoded(byte[] bytes) {
+        return bytes.length >= 5 && ByteBuffer.wrap(bytes).getInt() == MAGIC;
+    }
+
+    /**
+     * Encode a result map.
+     *
+     * @param results The results
+     * @return The encoded bytes
+     * @throws IllegalArgumentException If the results hold a value of a type
+     *         that cannot be encoded
+     */
+    public byte[] encode(Map<String, Object> results) {
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            Encoder encoder = new Encoder(new DataOutputStream(body));
+            encoder.writeMap(results);
+            encoder.out.flush();
+
+            byte flags = 0;
+            byte[] payload = body.toByteArray();
+            if (compress && payload.length > compressThreshold) {
+                byte[] deflated = deflate(payload);
+                if (deflated.length < payload.length) {
+                    payload = deflated;
+                    flags |= FLAG_DEFLATED;
+                }
+            }
+
+            ByteBuffer encoded = ByteBuffer.allocate(5 + payload.length);
+            encoded.putInt(MAGIC);
+            encoded.put(flags);
+            encoded.put(payload);
+            return encoded.array();
+        } catch (IOException e) {
+            // Writing to memory does not fail
+            throw new IllegalStateException("Error encoding results", e);
+        }
+    }
+
+    /**
+     * Decode a result map.
+     *
+     * @param encoded The encoded bytes
+     * @return The results
+     * @throws IOException If the bytes are not an encoded result, are truncated
+     *         or hold a length larger than the rest of the result
+     */
+    public Map<String, Object> decode(byte[] encoded) throws IOException {
+        if (!isEncoded(encoded)) {
+            throw new IOException("Not an encoded result");
+        }
+        byte flags = encoded[4];
+        InputStream in = new ByteArrayInputStream(encoded, 5, encoded.length - 5);
+
+        // A deflated body is bounded by how far deflate can expand it
+        long limit = encoded.length - 5;
+        if ((flags & FLAG_DEFLATED) != 0) {
+            in = new InflaterInputStream(in);
+            limit *= MAX_INFLATE_RATIO;
+        }
+        return new Decoder(in, limit).readRoot();
+    }
+
+    private static byte[] deflate(byte[] payload) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length / 2);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DeflaterOutputStream stream = new DeflaterOutputStream(out, deflater)) {
+            stream.write(payload);
+        } finally {
+            deflater.end();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes tagged values, reusing one chunk buffer for bulk arrays.
+     */
+    private static class Encoder {
+        private final DataOutputStream out;
+        private final ByteBuffer chunk;
+
+        public Encoder(DataOutputStream out) {
+            this.out = out;
+            this.chunk = ByteBuffer.allocate(CHUNK_SIZE);
+        }
+
+        public void writeValue(Object value) throws IOException {
+            if (value == null) {
+                out.writeByte(TYPE_NULL);
+            } else if (value instanceof Boolean) {
+                out.writeByte((Boolean) value ? TYPE_TRUE : TYPE_FALSE);
+            } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                out.writeByte(TYPE_INT);
+                out.writeInt(((Number) value).intValue());
+            } else if (value instanceof Long) {
+                out.writeByte(TYPE_LONG);
+                out.writeLong((Long) value);
+            } else if (value instanceof Float) {
+                out.writeByte(TYPE_FLOAT);
+                out.writeFloat((Float) value);
+            } else if (value instanceof Number) {
+                out.writeByte(TYPE_DOUBLE);
+                out.writeDouble(((Number) value).doubleValue());
+            } else if (value instanceof StateSnapshot) {
+                writeSnapshot((StateSnapshot) value);
+            } else if (value instanceof Map) {
+                writeMap((Map<?, ?>) value);
+            } else if (value instanceof List) {
+                List<?> list = (List<?>) value;
+                out.writeByte(TYPE_LIST);
+                out.writeInt(list.size());
+                for (Object item : list) {
+                    writeValue(item);
+                }
+            } else if (value instanceof CharSequence || value instanceof Character || value instanceof Enum) {
+                out.writeByte(TYPE_STRING);
+                writeString(value.toString());
+            } else {
+                throw new IllegalArgumentException("Cannot encode value of type " + value.getClass().getName());
+            }
+        }
+
+        public void writeMap(Map<?, ?> map) throws IOException {
+            out.writeByte(TYPE_MAP);
+            out.writeInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeString(String.valueOf(entry.getKey()));
+                writeValue(entry.getValue());
+            }
+        }
+
+        private void writeString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private void writeSnapshot(StateSnapshot snapshot) throws IOException {
+            int count = snapshot.size();
+            if (snapshot.isDense()) {
+                out.writeByte(TYPE_DENSE_STATES);
+                out.writeInt(count);
+                out.writeInt(count > 0 ? snapshot.idAt(0) : 0);
+            } else {
+                out.writeByte(TYPE_SPARSE_STATES);
+                out.writeInt(count);
+                for (int i = 0; i < count; i++) {
+                    if (chunk.remaining() < 4) {
+                        drain();
+                    }
+                    chunk.putInt(snapshot.idAt(i));
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                if (chunk.remaining() < 4) {
+                    drain();
+                }
+                chunk.putFloat(snapshot.valueAt(i));
+            }
+            drain();
+        }
+
+        private void drain() throws IOException {
+            out.write(chunk.array(), 0, chunk.position());
+            chunk.clear();
+        }
+    }
+
+    /**
+     * Reads tagged values, filling bulk arrays a chunk at a time.
+     */
+    private static class Decoder {
+        private final CountingInputStream counter;
+        private final DataInputStream in;
+        private final long limit;
+        private final byte[] chunk;
+
+        public Decoder(InputStream in, long limit) {
+            this.counter = new CountingInputStream(in);
+            this.in = new DataInputStream(counter);
+            this.limit = limit;
+            this.chunk = new byte[CHUNK_SIZE];
+        }
+
+        /**
+         * Read the root value, which must be a map.
+         */
+        public Map<String, Object> readRoot() throws IOException {
+            if (in.readByte() != TYPE_MAP) {
+                throw new IOException("Encoded result is not a map");
+            }
+            return readMap();
+        }
+
+        public Object readValue() throws IOException {
+            byte type = in.readByte();
+            switch (type) {
+                case TYPE_NULL:
+                    return null;
+                case TYPE_FALSE:
+                    return Boolean.FALSE;
+                case TYPE_TRUE:
+                    return Boolean.TRUE;
+                case TYPE_INT:
+                    return in.readInt();
+                case TYPE_LONG:
+                    return in.readLong();
+                case TYPE_FLOAT:
+                    return in.readFloat();
+                case TYPE_DOUBLE:
+                    return in.readDouble();
+                case TYPE_STRING:
+                    return readString();
+                case TYPE_MAP:
+                    return readMap();
+                case TYPE_LIST: {
+                    // Each item holds at least its type tag
+                    int size = readCount(1);
+                    List<Object> list = new ArrayList<>();
+                    for (int i = 0; i < size; i++) {
+                        list.add(readValue());
+                    }
+                    return list;
+                }
+                case TYPE_DENSE_STATES: {
+                    int count = readCount(4);
+                    int baseId = in.readInt();
+                    return StateSnapshot.dense(baseId, readFloats(count));
+                }
+                case TYPE_SPARSE_STATES: {
+                    int count = readCount(8);
+                    int[] ids = readInts(count);
+                    return StateSnapshot.sparse(ids, readFloats(count));
+                }
+                default:
+                    throw new IOException("Unknown value type " + type);
+            }
+        }
+
+        private Map<String, Object> readMap() throws IOException {
+            // Each entry holds at least a key length and a type tag
+            int size = readCount(5);
+            Map<String, Object> map = new HashMap<>();
+            for (int i = 0; i < size; i++) {
+                String key = readString();
+                map.put(key, readValue());
+            }
+            return map;
+        }
+
+        /**
+         * Read a length, checking the elements fit in the bytes left.
+         *
+         * @param elementSize The fewest bytes one element takes
+         */
+        private int readCount(int elementSize) throws IOException {
+            int count = in.readInt();
+            if (count < 0 || (long) count * elementSize > limit - counter.count) {
+                throw new IOException("Invalid length " + count);
+            }
+            return count;
+        }
+
+        private String readString() throws IOException {
+            int length = readCount(1);
+            byte[] bytes = length <= chunk.length ? chunk : new byte[length];
+            in.readFully(bytes, 0, length);
+            return new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+
+        private float[] readFloats(int count) throws IOException {
+            float[] values = new float[count];
+            for (int offset = 0; offset < count; ) {
+                int n = Math.min(count - offset, chunk.length / 4);
+                in.readFully(chunk, 0, n * 4);
+                ByteBuffer.wrap(chunk, 0, n * 4).asFloatBuffer().get(values, offset, n);
+                offset += n;
+            }
+            return values;
+        }
+
+        private int[] readInts(int count) throws IOException {
+            int[] values = new int[count];
+            for (int offset = 0; offset < count; ) {
+                int n = Math.min(count - offset, chunk.length / 4);
+                in.readFully(chunk, 0, n * 4);
+                ByteBuffer.wrap(chunk, 0, n * 4).asIntBuffer().get(values, offset, n);
+                offset += n;
+            }
+            return values;
+        }
+    }
+
+    /**
+     * Counts the bytes read through it.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        long count;
+
+        public CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package db;
+
+import config.AppConfig;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * SqliteTuning holds the SQLite settings applied to every connection the
+ * persistence layer opens. The performance profile switches to a
+ * write-ahead log, which lets readers run alongside the writer, syncs only
+ * at checkpoints, maps the database into memory and keeps temporary tables
+ * in memory. The default profile keeps SQLite's own defaults.
+ */
+public class SqliteTuning {
+    private static final Logger logger = Logger.getLogger(SqliteTuning.class.getName());
+
+    private static final List<String> JOURNAL_MODES = Arrays.asList("DELETE", "TRUNCATE", "PERSIST", "MEMORY", "WAL", "OFF");
+    private static final List<String> SYNCHRONOUS_MODES = Arrays.asList("OFF", "NORMAL", "FULL", "EXTRA");
+    private static final List<String> TEMP_STORES = Arrays.asList("DEFAULT", "FILE", "MEMORY");
+
+    // SQLite's own defaults; a negative cache size is in KiB
+    public static final SqliteTuning DEFAULT = new SqliteTuning("DELETE", "FULL", 0, -2000, "DEFAULT");
+
+    // Write-ahead log, sync at checkpoints, 256MB mapped, 64MB page cache
+    public static final SqliteTuning PERFORMANCE = new SqliteTuning("WAL", "NORMAL", 256L << 20, -65536, "MEMORY");
+
+    private final String journalMode;
+    private final String synchronous;
+    private final long mmapSize;
+    private final int cacheSize;
+    private final String tempStore;
+
+    /**
+     * Create a new SqliteTuning.
+     *
+     * @param journalMode The journal mode, such as WAL
+     * @param synchronous The synchronous mode, such as NORMAL
+     * @param mmapSize The number of bytes mapped into memory, or 0 to disable
+     * @param cacheSize The page cache size in pages, or in KiB if negative
+     * @param tempStore Where temporary tables are kept: DEFAULT, FILE or MEMORY
+     */
+    public SqliteTuning(String journalMode, String synchronous, long mmapSize, int cacheSize, String tempStore) {
+        this.journalMode = checked("journal mode", journalMode, JOURNAL_MODES);
+        this.synchronous = checked("synchronous mode", synchronous, SYNCHRONOUS_MODES);
+        this.tempStore = checked("temp store", tempStore, TEMP_STORES);
+        if (mmapSize < 0) {
+            throw new IllegalArgumentException("Invalid mmap size: " + mmapSize);
+        }
+        this.mmapSize = mmapSize;
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * Create settings from the db.* settings in app.properties: a profile
+     * (performance or default), with any individual setting overriding it.
+     *
+     * @param config The application configuration
+     * @return The configured settings
+     */
+    public static SqliteTuning fromConfig(AppConfig config) {
+        String profile = config.getString("db.profile", "performance");
+        SqliteTuning base = "default".equalsIgnoreCase(profile) ? DEFAULT : PERFORMANCE;
+        return new SqliteTuning(
+            config.getString("db.journal_mode", base.journalMode),
+            config.getString("db.synchronous", base.synchronous),
+            config.getLong("db.mmap_size", base.mmapSize),
+            config.getInt("db.cache_size", base.cacheSize),
+            config.getString("db.temp_store", base.tempStore)
+        );
+    }
+
+    public String getJournalMode() {
+        return journalMode;
+    }
+
+    public String getSynchronous() {
+        return synchronous;
+    }
+
+    public long getMmapSize() {
+        return mmapSize;
+    }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    public String getTempStore() {
+        return tempStore;
+    }
+
+    /**
+     * Apply the settings to a connection that may write. The journal mode
+     * belongs to the database file and is set here.
+     *
+     * @param connection The connection
+     * @throws SQLException If a setting cannot be applied
+     */
+    public void applyToWriter(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("PRAGMA journal_mode = " + journalMode)) {
+                String mode = rs.next() ? rs.getString(1) : null;
+                if (!journalMode.equalsIgnoreCase(mode)) {
+                    logger.warning("Requested journal mode " + journalMode + ", database uses " + mode);
+                }
+            }
+            stmt.execute("PRAGMA synchronous = " + synchronous);
+        }
+        applyToReader(connection);
+    }
+
+    /**
+     * Apply the per-connection settings to a connection used for queries.
+     *
+     * @param connection The connection
+     * @throws SQLException If a setting cannot be applied
+     */
+    public void applyToReader(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("PRAGMA mmap_size = " + mmapSize);
+            stmt.execute("PRAGMA cache_size = " + cacheSize);
+            stmt.execute("PRAGMA temp_store = " + tempStore);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "journal_mode=" + journalMode + ", synchronous=" + synchronous + ", mmap_size=" + mmapSize +
+               ", cache_size=" + cacheSize + ", temp_store=" + tempStore;
+    }
+
+    private static String checked(String name, String value, List<String> allowed) {
+        String upper = value.trim().toUpperCase();
+        if (!allowed.contains(upper)) {
+            throw new IllegalArgumentException("Invalid " + name + ": " + value);
+        }
+        return upper;
+    }
+}
@@ -1,5 +1,7 @@
 package interop;
 
+import simulation.SpikeEvents;
+
 /**
  * NeuroBridge provides the Java interface to the C-based NeuroCore library.
  * It uses JNI (Java Native Interface) to call native C functions.
@@ -85,6 +87,13 @@ public class NeuroBridge {
      */
     public native long getMemoryUsage();
     
+    /**
+     * Drain the spikes recorded since the last call.
+     * 
+     * @return Interleaved (neuron id, step) pairs
+     */
+    public native int[] drainSpikes();
+    
     // Java wrapper methods for convenience
     
     /**
@@ -170,6 +179,16 @@ public class NeuroBridge {
         return runSimulationStep(inputs, timeStep);
     }
     
+    /**
+     * Get the spikes recorded since the last call.
+     * 
+     * @return The spike events
+     */
+    public SpikeEvents getSpikes() {
+        int[] pairs = drainSpikes();
+        return pairs != null ? SpikeEvents.fromPairs(pairs) : SpikeEvents.empty();
+    }
+    
     /**
      * Get current memory usage.
      * 
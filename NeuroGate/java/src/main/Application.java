@@ -1,10 +1,15 @@
 package main;
 
+import config.AppConfig;
+import core.AdaptiveIntervalPolicy;
 import core.NodeController;
 import core.TaskScheduler;
 import db.PersistenceLayer;
+import db.ResultCodec;
+import db.SqliteTuning;
 import cli.NeuroCLI;
 import security.AuthManager;
+import simulation.Downsampler;
 import simulation.ResultProcessor;
 import java.util.logging.Logger;
 
@@ -14,6 +19,7 @@ import java.util.logging.Logger;
 public class Application {
     private static final Logger logger = Logger.getLogger(Application.class.getName());
     
+    private AppConfig config;
     private NodeController nodeController;
     private TaskScheduler taskScheduler;
     private PersistenceLayer persistenceLayer;
@@ -30,32 +36,42 @@ public class Application {
         try {
             logger.info("Initializing NeuroGate application...");
             
+            // Load configuration
+            config = AppConfig.load();
+            
             // Initialize persistence layer
-            persistenceLayer = new PersistenceLayer();
+            persistenceLayer = new PersistenceLayer(config.getString("db.path", "./neurogate.db"),
+                                                    SqliteTuning.fromConfig(config));
             boolean persistenceInitialized = persistenceLayer.initialize();
             if (!persistenceInitialized) {
                 logger.severe("Failed to initialize persistence layer");
                 return false;
             }
+            persistenceLayer.setResultCodec(new ResultCodec(config.getBoolean("db.compress_results", true)));
+            persistenceLayer.setTiers(Downsampler.defaultTiers(
+                config.getLong("results.raw_retention_s", 600) * 1000));
             
             // Initialize result processor
-            resultProcessor = new ResultProcessor(persistenceLayer);
+            resultProcessor = new ResultProcessor(persistenceLayer,
+                                                  (float) config.getDouble("neuron.threshold", -55.0),
+                                                  config.getBoolean("results.offheap_states", false));
             
             // Initialize node controller
             nodeController = new NodeController(null, resultProcessor);
             
             // Initialize task scheduler
-            taskScheduler = new TaskScheduler(nodeController);
+            taskScheduler = new TaskScheduler(nodeController, TaskScheduler.ExecutionMode.fromConfig(config),
+                                              AdaptiveIntervalPolicy.fromConfig(config));
             
             // Set the task scheduler in the node controller
             // (This is a bit of a circular reference, but it's cleaner than alternatives)
-            nodeController = new NodeController(taskScheduler, resultProcessor);
+            nodeController.setScheduler(taskScheduler);
             
             // Initialize authentication manager
             authManager = new AuthManager();
             
             // Initialize CLI
-            cli = new NeuroCLI(nodeController, persistenceLayer);
+            cli = new NeuroCLI(nodeController, persistenceLayer, resultProcessor);
             
             logger.info("NeuroGate application initialized successfully");
             return true;
@@ -97,6 +113,11 @@ public class Application {
             nodeController.shutdown();
         }
         
+        // Drain queued results before the database closes
+        if (resultProcessor != null) {
+            resultProcessor.shutdown();
+        }
+        
         // Shutdown persistence layer
         if (persistenceLayer != null) {
             persistenceLayer.shutdown();
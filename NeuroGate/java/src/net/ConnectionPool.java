@@ -0,0 +1,254 @@
+package net;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * ConnectionPool keeps persistent connections to nodes, keyed by node ID.
+ * Connections are multiplexed: any number of callers share them, each request
+ * going to the least loaded connection. A new connection is only opened when
+ * every existing one has reached its in-flight limit. Connections are health
+ * checked on selection and evicted after sitting idle for too long, unless
+ * they carry an active subscription.
+ */
+public class ConnectionPool {
+    private static final Logger logger = Logger.getLogger(ConnectionPool.class.getName());
+
+    // Default pool settings
+    private static final int DEFAULT_MAX_PER_NODE = 4;
+    private static final int DEFAULT_MAX_IN_FLIGHT = 64;
+    private static final long DEFAULT_IDLE_TIMEOUT = 60000;
+    private static final int DEFAULT_TIMEOUT = 30000;
+    private static final long MAINTENANCE_INTERVAL = 10000;
+
+    private final TransportEngine transport;
+    private final Map<String, NodePool> pools;
+    private final int maxPerNode;
+    private final int maxInFlight;
+    private final long idleTimeoutMs;
+    private final int timeoutMs;
+    private final ScheduledExecutorService maintenance;
+
+    /**
+     * Create a new ConnectionPool with default settings.
+     *
+     * @param transport The transport engine servicing pooled connections
+     */
+    public ConnectionPool(TransportEngine transport) {
+        this(transport, DEFAULT_MAX_PER_NODE, DEFAULT_MAX_IN_FLIGHT, DEFAULT_IDLE_TIMEOUT, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Create a new ConnectionPool with custom settings.
+     *
+     * @param transport The transport engine servicing pooled connections
+     * @param maxPerNode Maximum number of open connections per node
+     * @param maxInFlight Outstanding requests per connection before another is opened
+     * @param idleTimeoutMs Time after which an idle connection is closed
+     * @param timeoutMs Connect and request timeout in milliseconds
+     */
+    public ConnectionPool(TransportEngine transport, int maxPerNode, int maxInFlight,
+                          long idleTimeoutMs, int timeoutMs) {
+        this.transport = transport;
+        this.pools = new ConcurrentHashMap<>();
+        this.maxPerNode = maxPerNode;
+        this.maxInFlight = maxInFlight;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.timeoutMs = timeoutMs;
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-maintenance");
+            t.setDaemon(true);
+            return t;
+        });
+
+        maintenance.scheduleWithFixedDelay(
+            this::evictIdleConnections,
+            MAINTENANCE_INTERVAL,
+            MAINTENANCE_INTERVAL,
+            TimeUnit.MILLISECONDS
+        );
+    }
+
+    /**
+     * Select a connection to a node for the next request. The least loaded
+     * healthy connection is returned; a new one is opened if all are at their
+     * in-flight limit and the per-node bound allows it. Opening a connection
+     * never blocks the caller, and callers that arrive while one is being
+     * opened share it, so connecting to many nodes proceeds in parallel.
+     *
+     * @param nodeId The ID of the node
+     * @param address The address of the node
+     * @param port The port of the node
+     * @return A future completed with a healthy connection to the node, or
+     *         failed with an IOException if none could be obtained
+     */
+    public CompletableFuture<NodeConnection> select(String nodeId, String address, int port) {
+        NodePool pool = pools.computeIfAbsent(nodeId, id -> new NodePool());
+
+        NodeConnection best = leastLoaded(pool, address, port);
+        if (best != null && (best.getInFlight() < maxInFlight || pool.active.size() >= maxPerNode)) {
+            best.touch();
+            return CompletableFuture.completedFuture(best);
+        }
+
+        synchronized (pool) {
+            // Another caller may have opened a connection while we waited
+            best = leastLoaded(pool, address, port);
+            if (best != null && (best.getInFlight() < maxInFlight || pool.active.size() >= maxPerNode)) {
+                best.touch();
+                return CompletableFuture.completedFuture(best);
+            }
+
+            // Share a connection that is already being opened
+            if (pool.connecting != null && !pool.connecting.isDone()) {
+                if (best != null) {
+                    best.touch();
+                    return CompletableFuture.completedFuture(best);
+                }
+                return pool.connecting;
+            }
+
+            // The connection joins the pool before the returned future completes
+            pool.connecting = transport.connect(nodeId, address, port, timeoutMs).whenComplete((conn, error) -> {
+                if (conn == null) {
+                    return;
+                }
+                if (pools.get(nodeId) != pool) {
+                    // The node was removed while connecting
+                    conn.close();
+                    return;
+                }
+                pool.active.add(conn);
+                pool.created.incrementAndGet();
+            });
+            return pool.connecting;
+        }
+    }
+
+    /**
+     * Get the request timeout applied to pooled connections.
+     *
+     * @return The timeout in milliseconds
+     */
+    public int getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    /**
+     * Close all connections to a node and forget about it.
+     *
+     * @param nodeId The ID of the node
+     */
+    public void removeNode(String nodeId) {
+        NodePool pool = pools.remove(nodeId);
+        if (pool != null) {
+            for (NodeConnection conn : pool.active) {
+                conn.close();
+            }
+            pool.active.clear();
+            logger.info("Closed pooled connections to node " + nodeId);
+        }
+    }
+
+    /**
+     * Get pool statistics per node.
+     *
+     * @return Map of node ID to statistics
+     */
+    public Map<String, Map<String, Object>> getStats() {
+        Map<String, Map<String, Object>> stats = new HashMap<>();
+        for (Map.Entry<String, NodePool> entry : pools.entrySet()) {
+            NodePool pool = entry.getValue();
+            int inFlight = 0;
+            for (NodeConnection conn : pool.active) {
+                inFlight += conn.getInFlight();
+            }
+
+            Map<String, Object> nodeStats = new HashMap<>();
+            nodeStats.put("connections", pool.active.size());
+            nodeStats.put("inFlight", inFlight);
+            nodeStats.put("created", pool.created.get());
+            stats.put(entry.getKey(), nodeStats);
+        }
+        return stats;
+    }
+
+    /**
+     * Close all connections and stop the maintenance thread.
+     */
+    public void shutdown() {
+        maintenance.shutdownNow();
+        for (String nodeId : new ArrayList<>(pools.keySet())) {
+            removeNode(nodeId);
+        }
+        logger.info("ConnectionPool shut down");
+    }
+
+    /**
+     * Find the healthy connection with the fewest outstanding requests,
+     * dropping any that have failed along the way.
+     */
+    private NodeConnection leastLoaded(NodePool pool, String address, int port) {
+        NodeConnection best = null;
+        for (NodeConnection conn : pool.active) {
+            if (!conn.isHealthy() || !conn.getAddress().equals(address) || conn.getPort() != port) {
+                pool.active.remove(conn);
+                conn.close();
+                continue;
+            }
+            if (best == null || conn.getInFlight() < best.getInFlight()) {
+                best = conn;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Close connections that have failed or carried no traffic for too long.
+     */
+    private void evictIdleConnections() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, NodePool> entry : pools.entrySet()) {
+            List<NodeConnection> evicted = new ArrayList<>();
+            for (NodeConnection conn : entry.getValue().active) {
+                boolean idle = conn.getInFlight() == 0 && !conn.hasSubscriptions()
+                    && now - conn.getLastUsed() > idleTimeoutMs;
+                if (!conn.isHealthy() || idle) {
+                    evicted.add(conn);
+                }
+            }
+
+            entry.getValue().active.removeAll(evicted);
+            for (NodeConnection conn : evicted) {
+                conn.close();
+            }
+            if (!evicted.isEmpty()) {
+                logger.fine("Evicted " + evicted.size() + " connections to node " + entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Connections held for a single node.
+     */
+    private static class NodePool {
+        private final List<NodeConnection> active;
+        private final AtomicInteger created;
+        private CompletableFuture<NodeConnection> connecting;
+
+        public NodePool() {
+            this.active = new CopyOnWriteArrayList<>();
+            this.created = new AtomicInteger();
+        }
+    }
+}
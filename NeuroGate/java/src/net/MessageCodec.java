@@ -0,0 +1,363 @@
+package net;
+
+import core.NodeController.SimulationConfig;
+import simulation.SpikeBlock;
+import simulation.SpikeEvents;
+import simulation.StateSnapshot;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * MessageCodec encodes and decodes the payloads carried in DATA frames.
+ * Every request payload starts with a command byte and the session ID;
+ * every response payload starts with a status byte.
+ */
+public final class MessageCodec {
+
+    // Response status codes
+    public static final byte STATUS_OK = 1;
+    public static final byte STATUS_ERROR = 0;
+
+    // Snapshot version meaning "no snapshot": nothing acknowledged, or a keyframe
+    public static final long NO_VERSION = -1;
+
+    // State vector encodings
+    private static final byte VECTOR_SPARSE = 0;
+    private static final byte VECTOR_DENSE = 1;
+
+    // Longest string, in UTF-8 bytes, a signed 16-bit length prefix can carry
+    public static final int MAX_STRING_LENGTH = Short.MAX_VALUE;
+
+    // Parameter value tags
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_LONG = 1;
+    private static final byte TAG_DOUBLE = 2;
+    private static final byte TAG_BOOLEAN = 3;
+    private static final byte TAG_STRING = 4;
+
+    private MessageCodec() {
+    }
+
+    /**
+     * Write the common request prefix.
+     *
+     * @param buffer The buffer to write to
+     * @param command The command byte
+     * @param sessionId The ID of the session
+     */
+    public static void writeRequestHeader(ByteBuffer buffer, byte command, String sessionId) {
+        buffer.put(command);
+        writeString(buffer, sessionId);
+    }
+
+    /**
+     * Write a simulation configuration.
+     *
+     * @param buffer The buffer to write to
+     * @param config The configuration to write
+     */
+    public static void writeConfig(ByteBuffer buffer, SimulationConfig config) {
+        buffer.putInt(config.getNeuronCount());
+        buffer.putInt(config.getSynapseCount());
+        writeString(buffer, config.getTopology());
+
+        Map<String, Object> parameters = config.getParameters();
+        int parameterCount = parameters == null ? 0 : parameters.size();
+        if (parameterCount > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many simulation parameters: " + parameterCount);
+        }
+        buffer.putShort((short) parameterCount);
+        if (parameters != null) {
+            for (Map.Entry<String, Object> entry : parameters.entrySet()) {
+                writeString(buffer, entry.getKey());
+                writeValue(buffer, entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Read a plain acknowledgement response.
+     *
+     * @param payload The response payload
+     * @return true if the node reported success
+     */
+    public static Boolean readAck(ByteBuffer payload) {
+        return payload.hasRemaining() && payload.get() == STATUS_OK;
+    }
+
+    /**
+     * Read a status response.
+     *
+     * @param payload The response payload
+     * @param sessionId The ID of the session the status belongs to
+     * @return A map containing status information
+     * @throws IOException if the node reported an error
+     */
+    public static Map<String, Object> readStatus(ByteBuffer payload, String sessionId) throws IOException {
+        checkStatus(payload, sessionId);
+
+        Map<String, Object> status = new HashMap<>();
+        status.put("sessionId", sessionId);
+        status.put("neuronCount", payload.getInt());
+        status.put("synapseCount", payload.getInt());
+        status.put("memoryUsage", payload.getLong());
+        status.put("cpuUsage", payload.getDouble());
+        status.put("stepCount", payload.getLong());
+        status.put("simulationTime", payload.getDouble());
+        return status;
+    }
+
+    /**
+     * Read a results response.
+     *
+     * @param payload The response payload
+     * @param sessionId The ID of the session the results belong to
+     * @return A map containing results data
+     * @throws IOException if the node reported an error
+     */
+    public static Map<String, Object> readResults(ByteBuffer payload, String sessionId) throws IOException {
+        checkStatus(payload, sessionId);
+        return readResultsBody(payload, sessionId);
+    }
+
+    /**
+     * Write the sessions of a batched results request, each with the snapshot
+     * version the controller already holds for it.
+     *
+     * @param buffer The buffer to write to
+     * @param acknowledged Map of session ID to acknowledged version, or {@link #NO_VERSION}
+     */
+    public static void writeSessionList(ByteBuffer buffer, Map<String, Long> acknowledged) {
+        buffer.putInt(acknowledged.size());
+        for (Map.Entry<String, Long> entry : acknowledged.entrySet()) {
+            writeString(buffer, entry.getKey());
+            buffer.putLong(entry.getValue());
+        }
+    }
+
+    /**
+     * Read a batched results response. Sessions the node reported an error
+     * for are left out of the returned map.
+     *
+     * @param payload The response payload
+     * @return Map of session ID to results data
+     * @throws IOException if the node reported an error for the whole batch
+     */
+    public static Map<String, Map<String, Object>> readBatchResults(ByteBuffer payload) throws IOException {
+        checkStatus(payload, "batch");
+
+        int count = payload.getInt();
+        Map<String, Map<String, Object>> batch = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            String sessionId = readString(payload);
+            if (payload.get() == STATUS_OK) {
+                batch.put(sessionId, readResultsBody(payload, sessionId));
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Read a results frame pushed on a result stream.
+     *
+     * @param payload The pushed payload
+     * @param sessionId The ID of the session the stream belongs to
+     * @return A map containing results data, or null if the node ended the stream
+     * @throws IOException if the payload is malformed
+     */
+    public static Map<String, Object> readPushedResults(ByteBuffer payload, String sessionId) throws IOException {
+        if (!payload.hasRemaining() || payload.get() != STATUS_OK) {
+            return null;
+        }
+        return readResultsBody(payload, sessionId);
+    }
+
+    private static Map<String, Object> readResultsBody(ByteBuffer payload, String sessionId) throws IOException {
+        Map<String, Object> results = new HashMap<>();
+        results.put("sessionId", sessionId);
+        results.put("timestamp", payload.getLong());
+        results.put("bufferedSteps", payload.getInt());
+        results.put("version", payload.getLong());
+        results.put("baseVersion", payload.getLong());
+        results.put("neuronStates", readStateVector(payload));
+        results.put("synapseStates", readStateVector(payload));
+        results.put("spikes", readSpikes(payload));
+        return results;
+    }
+
+    /**
+     * Write spike events as a delta and varint encoded block.
+     *
+     * @param buffer The buffer to write to
+     * @param spikes The spike events
+     */
+    public static void writeSpikes(ByteBuffer buffer, SpikeEvents spikes) {
+        SpikeBlock.encode(spikes).writeTo(buffer);
+    }
+
+    /**
+     * Read spike events written by {@link #writeSpikes}.
+     *
+     * @param payload The buffer to read from
+     * @return The spike events, ordered by step and neuron id
+     * @throws IOException if the block is malformed
+     */
+    public static SpikeEvents readSpikes(ByteBuffer payload) throws IOException {
+        return SpikeBlock.readFrom(payload).decode();
+    }
+
+    /**
+     * Write a state vector, choosing the dense encoding when ids are contiguous.
+     *
+     * @param buffer The buffer to write to
+     * @param ids The state ids
+     * @param values The state values
+     * @param count The number of entries
+     */
+    public static void writeStateVector(ByteBuffer buffer, int[] ids, float[] values, int count) {
+        boolean dense = true;
+        for (int i = 1; i < count && dense; i++) {
+            dense = ids[i] == ids[0] + i;
+        }
+
+        buffer.put(dense ? VECTOR_DENSE : VECTOR_SPARSE);
+        buffer.putInt(count);
+        if (dense) {
+            buffer.putInt(count > 0 ? ids[0] : 0);
+        } else {
+            for (int i = 0; i < count; i++) {
+                buffer.putInt(ids[i]);
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            buffer.putFloat(values[i]);
+        }
+    }
+
+    /**
+     * Write a snapshot as a state vector, bulk copied from the snapshot's
+     * arrays. Sparse snapshots whose ids are consecutive use the dense
+     * encoding.
+     *
+     * @param buffer The buffer to write to
+     * @param snapshot The states to write
+     */
+    public static void writeStateVector(ByteBuffer buffer, StateSnapshot snapshot) {
+        int count = snapshot.size();
+        // Sparse ids are strictly ascending, so they are consecutive if they span count ids
+        boolean dense = snapshot.isDense() || count == 0 ||
+                        (long) snapshot.idAt(count - 1) - snapshot.idAt(0) == count - 1;
+        buffer.put(dense ? VECTOR_DENSE : VECTOR_SPARSE);
+        buffer.putInt(count);
+        if (dense) {
+            buffer.putInt(count > 0 ? snapshot.idAt(0) : 0);
+            snapshot.writeValuesTo(buffer);
+        } else {
+            snapshot.writeTo(buffer);
+        }
+    }
+
+    /**
+     * Read a state vector written by {@link #writeStateVector}. Ids and values
+     * are bulk copied into primitive arrays.
+     *
+     * @param payload The buffer to read from
+     * @return The states as a snapshot
+     * @throws IOException if the encoding is not recognised or the vector is truncated
+     */
+    public static StateSnapshot readStateVector(ByteBuffer payload) throws IOException {
+        if (payload.remaining() < 5) {
+            throw new IOException("Truncated state vector");
+        }
+        byte encoding = payload.get();
+        int count = payload.getInt();
+        // Dense vectors hold a base id and a value per state, sparse ones an id and a value
+        long size = encoding == VECTOR_DENSE ? 4 + 4L * count : 8L * count;
+        if (count < 0 || size > payload.remaining()) {
+            throw new IOException("Invalid state vector length " + count);
+        }
+
+        if (encoding == VECTOR_DENSE) {
+            int base = payload.getInt();
+            float[] values = new float[count];
+            payload.asFloatBuffer().get(values);
+            payload.position(payload.position() + count * 4);
+            return StateSnapshot.dense(base, values);
+        } else if (encoding == VECTOR_SPARSE) {
+            int[] ids = new int[count];
+            float[] values = new float[count];
+            payload.asIntBuffer().get(ids);
+            payload.position(payload.position() + count * 4);
+            payload.asFloatBuffer().get(values);
+            payload.position(payload.position() + count * 4);
+            return StateSnapshot.sparse(ids, values);
+        } else {
+            throw new IOException("Unknown state vector encoding " + encoding);
+        }
+    }
+
+    /**
+     * Write a length-prefixed UTF-8 string.
+     *
+     * @param buffer The buffer to write to
+     * @param value The string to write, may be null
+     * @throws IllegalArgumentException if the string is longer than
+     *         {@link #MAX_STRING_LENGTH} bytes in UTF-8
+     */
+    public static void writeString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.putShort((short) -1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_STRING_LENGTH) {
+            throw new IllegalArgumentException("String of " + bytes.length + " bytes exceeds the maximum of " +
+                                               MAX_STRING_LENGTH);
+        }
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    /**
+     * Read a length-prefixed UTF-8 string.
+     *
+     * @param buffer The buffer to read from
+     * @return The string, or null if a null string was written
+     */
+    public static String readString(ByteBuffer buffer) {
+        int length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void checkStatus(ByteBuffer payload, String sessionId) throws IOException {
+        if (!payload.hasRemaining() || payload.get() != STATUS_OK) {
+            throw new IOException("Node reported an error for session " + sessionId);
+        }
+    }
+
+    private static void writeValue(ByteBuffer buffer, Object value) {
+        if (value == null) {
+            buffer.put(TAG_NULL);
+        } else if (value instanceof Double || value instanceof Float) {
+            buffer.put(TAG_DOUBLE);
+            buffer.putDouble(((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            buffer.put(TAG_LONG);
+            buffer.putLong(((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            buffer.put(TAG_BOOLEAN);
+            buffer.put((byte) ((Boolean) value ? 1 : 0));
+        } else {
+            buffer.put(TAG_STRING);
+            writeString(buffer, value.toString());
+        }
+    }
+}
@@ -2,39 +2,56 @@ package net;
 
 import core.NodeController.SimulationConfig;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.Socket;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Logger;
 
 /**
  * NodeComm handles TCP/UDP communication with C-based nodes.
+ * Every operation has an asynchronous form returning a CompletableFuture;
+ * requests from many sessions share the node's pooled connections and are
+ * matched to responses by sequence number. Results can also be streamed
+ * from the node with {@link #openResultStream}.
+ *
+ * Result states are versioned. A request names the version the caller
+ * already holds and the node may answer with only the states that changed
+ * since; such results carry a "baseVersion" other than
+ * {@link MessageCodec#NO_VERSION} and must be applied to that version.
  */
 public class NodeComm {
     private static final Logger logger = Logger.getLogger(NodeComm.class.getName());
     
+    private final String nodeId;
     private final String address;
     private final int port;
+    private final ConnectionPool connectionPool;
     
-    // Message types for protocol
+    // Command types carried in DATA frames
     private static final byte MSG_INIT = 1;
     private static final byte MSG_START = 2;
     private static final byte MSG_PAUSE = 3;
     private static final byte MSG_TERMINATE = 4;
     private static final byte MSG_STATUS = 5;
     private static final byte MSG_RESULTS = 6;
+    private static final byte MSG_RESULTS_BATCH = 7;
+    // Commands 8-10 belong to the result stream protocol (see ResultStream)
     
     /**
      * Create a new NodeComm instance for communicating with a specific node.
      * 
+     * @param nodeId The ID of the node, used as the connection pool key
      * @param address The IP address or hostname of the node
      * @param port The port number to connect to
+     * @param connectionPool The pool providing persistent connections
      */
-    public NodeComm(String address, int port) {
+    public NodeComm(String nodeId, String address, int port, ConnectionPool connectionPool) {
+        this.nodeId = nodeId;
         this.address = address;
         this.port = port;
+        this.connectionPool = connectionPool;
     }
     
     /**
@@ -45,27 +62,10 @@ public class NodeComm {
      * @return true if initialization was successful
      */
     public boolean initializeSession(String sessionId, SimulationConfig config) {
-        // For demonstration purposes, we're simulating a successful initialization
-        // In a real implementation, this would send the initialization command to the node
         logger.info("Initializing session " + sessionId + " on node " + address + ":" + port);
         
         try {
-            Socket socket = createSocket();
-            
-            // Prepare initialization message
-            byte[] message = createInitMessage(sessionId, config);
-            
-            // Send message
-            sendMessage(socket, message);
-            
-            // Receive response
-            byte[] response = receiveMessage(socket);
-            
-            // Close socket
-            socket.close();
-            
-            // Parse response
-            boolean success = parseInitResponse(response);
+            boolean success = await(initializeSessionAsync(sessionId, config));
             
             logger.info("Session " + sessionId + " initialization " + 
                         (success ? "successful" : "failed") + " on node " + address + ":" + port);
@@ -77,6 +77,19 @@ public class NodeComm {
         }
     }
     
+    /**
+     * Initialize a simulation session on the node without blocking.
+     * 
+     * @param sessionId The ID of the session
+     * @param config The simulation configuration
+     * @return A future completed with true if initialization was successful
+     */
+    public CompletableFuture<Boolean> initializeSessionAsync(String sessionId, SimulationConfig config) {
+        return callAsync(MSG_INIT, sessionId,
+                         buffer -> MessageCodec.writeConfig(buffer, config),
+                         MessageCodec::readAck);
+    }
+    
     /**
      * Start a simulation on the node.
      * 
@@ -84,9 +97,18 @@ public class NodeComm {
      * @return true if the simulation was started successfully
      */
     public boolean startSimulation(String sessionId) {
-        // For demonstration purposes, we're simulating a successful start
         logger.info("Starting session " + sessionId + " on node " + address + ":" + port);
-        return true;
+        return sendCommand(MSG_START, sessionId);
+    }
+    
+    /**
+     * Start a simulation on the node without blocking.
+     * 
+     * @param sessionId The ID of the session to start
+     * @return A future completed with true if the simulation was started
+     */
+    public CompletableFuture<Boolean> startSimulationAsync(String sessionId) {
+        return callAsync(MSG_START, sessionId, null, MessageCodec::readAck);
     }
     
     /**
@@ -96,9 +118,18 @@ public class NodeComm {
      * @return true if the simulation was paused successfully
      */
     public boolean pauseSimulation(String sessionId) {
-        // For demonstration purposes, we're simulating a successful pause
         logger.info("Pausing session " + sessionId + " on node " + address + ":" + port);
-        return true;
+        return sendCommand(MSG_PAUSE, sessionId);
+    }
+    
+    /**
+     * Pause a simulation on the node without blocking.
+     * 
+     * @param sessionId The ID of the session to pause
+     * @return A future completed with true if the simulation was paused
+     */
+    public CompletableFuture<Boolean> pauseSimulationAsync(String sessionId) {
+        return callAsync(MSG_PAUSE, sessionId, null, MessageCodec::readAck);
     }
     
     /**
@@ -108,9 +139,18 @@ public class NodeComm {
      * @return true if the simulation was terminated successfully
      */
     public boolean terminateSimulation(String sessionId) {
-        // For demonstration purposes, we're simulating a successful termination
         logger.info("Terminating session " + sessionId + " on node " + address + ":" + port);
-        return true;
+        return sendCommand(MSG_TERMINATE, sessionId);
+    }
+    
+    /**
+     * Terminate a simulation on the node without blocking.
+     * 
+     * @param sessionId The ID of the session to terminate
+     * @return A future completed with true if the simulation was terminated
+     */
+    public CompletableFuture<Boolean> terminateSimulationAsync(String sessionId) {
+        return callAsync(MSG_TERMINATE, sessionId, null, MessageCodec::readAck);
     }
     
     /**
@@ -118,21 +158,21 @@ public class NodeComm {
      * 
      * @param sessionId The ID of the session
      * @return A map containing status information
+     * @throws IOException if the node could not be reached or reported an error
+     */
+    public Map<String, Object> getStatus(String sessionId) throws IOException {
+        return await(getStatusAsync(sessionId));
+    }
+    
+    /**
+     * Get the status of a simulation on the node without blocking.
+     * 
+     * @param sessionId The ID of the session
+     * @return A future completed with the status information
      */
-    public Map<String, Object> getStatus(String sessionId) {
-        // For demonstration purposes, we're returning a simulated status
+    public CompletableFuture<Map<String, Object>> getStatusAsync(String sessionId) {
         logger.fine("Getting status for session " + sessionId + " on node " + address + ":" + port);
-        
-        Map<String, Object> status = new HashMap<>();
-        status.put("sessionId", sessionId);
-        status.put("neuronCount", 1000);
-        status.put("synapseCount", 5000);
-        status.put("memoryUsage", 1024 * 1024); // 1 MB
-        status.put("cpuUsage", 50.0); // 50%
-        status.put("stepCount", 100);
-        status.put("simulationTime", 100.0); // 100 ms
-        
-        return status;
+        return callAsync(MSG_STATUS, sessionId, null, payload -> MessageCodec.readStatus(payload, sessionId));
     }
     
     /**
@@ -140,143 +180,115 @@ public class NodeComm {
      * 
      * @param sessionId The ID of the session
      * @return A map containing results data
+     * @throws IOException if the node could not be reached or reported an error
      */
-    public Map<String, Object> getResults(String sessionId) {
-        // For demonstration purposes, we're returning simulated results
+    public Map<String, Object> getResults(String sessionId) throws IOException {
+        return await(getResultsAsync(sessionId, MessageCodec.NO_VERSION));
+    }
+    
+    /**
+     * Get simulation results from the node without blocking.
+     * 
+     * @param sessionId The ID of the session
+     * @param acknowledged The state version already held, or {@link MessageCodec#NO_VERSION}
+     *                     to request full states
+     * @return A future completed with the results data
+     */
+    public CompletableFuture<Map<String, Object>> getResultsAsync(String sessionId, long acknowledged) {
         logger.fine("Getting results for session " + sessionId + " on node " + address + ":" + port);
-        
-        Map<String, Object> results = new HashMap<>();
-        results.put("sessionId", sessionId);
-        results.put("timestamp", System.currentTimeMillis());
-        
-        // Simulated neuron states
-        Map<Integer, Float> neuronStates = new HashMap<>();
-        for (int i = 0; i < 10; i++) {
-            neuronStates.put(i, (float) Math.random());
-        }
-        results.put("neuronStates", neuronStates);
-        
-        // Simulated synapse states
-        Map<Integer, Float> synapseStates = new HashMap<>();
-        for (int i = 0; i < 20; i++) {
-            synapseStates.put(i, (float) Math.random());
-        }
-        results.put("synapseStates", synapseStates);
-        
-        return results;
+        return callAsync(MSG_RESULTS, sessionId, buffer -> buffer.putLong(acknowledged),
+                         payload -> MessageCodec.readResults(payload, sessionId));
     }
     
     /**
-     * Create a socket connection to the node.
+     * Get simulation results for several sessions hosted on the node in a
+     * single round trip. Sessions the node has no results for are omitted.
      * 
-     * @return A connected socket
-     * @throws IOException if connection fails
+     * @param acknowledged Map of session ID to the state version already held,
+     *                     or {@link MessageCodec#NO_VERSION}
+     * @return A future completed with a map of session ID to results data
      */
-    private Socket createSocket() throws IOException {
-        // In a real implementation, this would create a TCP socket
-        // For demonstration, we'll simulate it
-        logger.fine("Creating socket to " + address + ":" + port);
-        
-        // This would normally connect to the real address and port
-        // Since we're simulating, we'll create a fake socket
-        return new Socket() {
-            @Override
-            public InputStream getInputStream() {
-                // Return a fake input stream with a success response
-                return new InputStream() {
-                    private boolean read = false;
-                    
-                    @Override
-                    public int read() throws IOException {
-                        if (!read) {
-                            read = true;
-                            return 1; // Success code
-                        }
-                        return -1; // End of stream
-                    }
-                };
-            }
-            
-            @Override
-            public OutputStream getOutputStream() {
-                // Return a fake output stream that does nothing
-                return new OutputStream() {
-                    @Override
-                    public void write(int b) throws IOException {
-                        // Do nothing
-                    }
-                };
-            }
-            
-            @Override
-            public void close() {
-                // Do nothing
-            }
-        };
+    public CompletableFuture<Map<String, Map<String, Object>>> getResultsBatchAsync(Map<String, Long> acknowledged) {
+        logger.fine("Getting results for " + acknowledged.size() + " sessions on node " + address + ":" + port);
+        return callAsync(MSG_RESULTS_BATCH, null,
+                         buffer -> MessageCodec.writeSessionList(buffer, acknowledged),
+                         MessageCodec::readBatchResults);
     }
     
     /**
-     * Create an initialization message for the given session and config.
+     * Subscribe to the results of a session as the node produces them.
+     * The first pushed frame holds full states; later frames may hold only
+     * the changes since the previous frame.
      * 
-     * @param sessionId The session ID
-     * @param config The simulation configuration
-     * @return A byte array containing the message
+     * @param sessionId The ID of the session
+     * @param window The number of frames the node may push ahead of processing
+     * @param executor The executor results are delivered on
+     * @param listener The receiver for pushed results
+     * @return A future completed with the open stream, or failed if the node
+     *         rejected the subscription
      */
-    private byte[] createInitMessage(String sessionId, SimulationConfig config) {
-        // In a real implementation, this would serialize the config
-        // For demonstration, we'll return a dummy message
-        return new byte[] { MSG_INIT };
+    public CompletableFuture<ResultStream> openResultStream(String sessionId, int window, Executor executor,
+                                                            ResultStream.Listener listener) {
+        logger.fine("Opening result stream for session " + sessionId + " on node " + address + ":" + port);
+        return connectionPool.select(nodeId, address, port).thenCompose(conn ->
+            ResultStream.open(conn, sessionId, window, executor, listener, connectionPool.getTimeoutMs()));
     }
     
     /**
-     * Send a message to the node.
+     * Send a simple session command and check the acknowledgement.
      * 
-     * @param socket The socket to send on
-     * @param message The message to send
-     * @throws IOException if sending fails
+     * @param command The command to send
+     * @param sessionId The ID of the session
+     * @return true if the node acknowledged the command
      */
-    private void sendMessage(Socket socket, byte[] message) throws IOException {
-        // In a real implementation, this would send the message over the socket
-        logger.fine("Sending message to " + address + ":" + port);
-        
-        OutputStream out = socket.getOutputStream();
-        out.write(message);
-        out.flush();
+    private boolean sendCommand(byte command, String sessionId) {
+        try {
+            return await(callAsync(command, sessionId, null, MessageCodec::readAck));
+        } catch (IOException e) {
+            logger.severe("Error sending command " + command + " for session " + sessionId +
+                          " to node " + address + ":" + port + ": " + e.getMessage());
+            return false;
+        }
     }
     
     /**
-     * Receive a message from the node.
+     * Wait for a response, unwrapping failures into IOExceptions.
      * 
-     * @param socket The socket to receive from
-     * @return The received message
-     * @throws IOException if receiving fails
+     * @param future The pending response
+     * @return The decoded response
+     * @throws IOException if the request failed or timed out
      */
-    private byte[] receiveMessage(Socket socket) throws IOException {
-        // In a real implementation, this would receive a message from the socket
-        logger.fine("Receiving message from " + address + ":" + port);
-        
-        InputStream in = socket.getInputStream();
-        byte[] buffer = new byte[1024];
-        int length = in.read(buffer);
-        
-        if (length <= 0) {
-            return new byte[0];
+    private <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TimeoutException) {
+                throw new IOException("Timed out waiting for response from " + address + ":" + port);
+            }
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for response from " + address + ":" + port, e);
         }
-        
-        byte[] result = new byte[length];
-        System.arraycopy(buffer, 0, result, 0, length);
-        return result;
     }
     
     /**
-     * Parse the response to an initialization message.
+     * Send a command over a shared pooled connection without blocking on the
+     * connection or the response. Connection failures are reported through
+     * the returned future.
      * 
-     * @param response The response bytes
-     * @return true if initialization was successful
+     * @param command The command to send
+     * @param sessionId The ID of the session
+     * @param body Writer for the request body, or null for no body
+     * @param reader Decoder for the response payload
+     * @return A future completed with the decoded response
      */
-    private boolean parseInitResponse(byte[] response) {
-        // In a real implementation, this would parse the response
-        // For demonstration, we'll assume success if the response is not empty
-        return response.length > 0 && response[0] == 1;
+    private <T> CompletableFuture<T> callAsync(byte command, String sessionId, NodeConnection.PayloadWriter body,
+                                               NodeConnection.PayloadReader<T> reader) {
+        return connectionPool.select(nodeId, address, port).thenCompose(conn -> {
+            logger.fine("Sending command " + command + " to " + address + ":" + port);
+            return conn.request(command, sessionId, body, reader, connectionPool.getTimeoutMs());
+        });
     }
 }
\ No newline at end of file
@@ -0,0 +1,553 @@
+package net;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * NodeConnection wraps a single persistent, non-blocking connection to a node.
+ * Instances are owned by a {@link ConnectionPool} and serviced by one of the
+ * {@link TransportEngine} I/O threads; all socket I/O happens on that thread.
+ *
+ * Requests are encoded as {@link TransportHeader} framed DATA messages directly
+ * into a reusable direct buffer, and responses are decoded in place from the
+ * read buffer without intermediate copies.
+ *
+ * Many requests may be outstanding at once. Each request frame carries its own
+ * sequence number and the node echoes it in the response's ack number, so
+ * responses can arrive in any order without head-of-line blocking.
+ *
+ * A node may also push frames without being asked. A subscription request
+ * registers a {@link PushListener} under the request's sequence number, and the
+ * node sends every subsequent frame for it with {@link TransportHeader#FLAG_PUSH}
+ * set and that sequence number in the ack field.
+ */
+public class NodeConnection {
+    private static final Logger logger = Logger.getLogger(NodeConnection.class.getName());
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
+    private final String nodeId;
+    private final String address;
+    private final int port;
+    private final SocketChannel channel;
+    private final TransportEngine.IoLoop loop;
+    private final CompletableFuture<NodeConnection> connected;
+    private final Queue<Request<?>> writeQueue;
+    private final Map<Integer, Request<?>> pending;
+    private final Map<Integer, PushListener> subscriptions;
+    private final AtomicInteger inFlight;
+    private final TransportHeader outboundHeader;
+    private final TransportHeader inboundHeader;
+    private final long createdAt;
+    private ByteBuffer writeBuffer;
+    private ByteBuffer readBuffer;
+    private SelectionKey key;
+    private int nextSeq;
+    private int lastReceivedSeq;
+    private volatile long lastUsed;
+    private volatile boolean closed;
+
+    /**
+     * Writes the body of a request after the command byte and session ID.
+     */
+    public interface PayloadWriter {
+        void write(ByteBuffer buffer);
+    }
+
+    /**
+     * Decodes a response payload. The payload buffer is only valid for the
+     * duration of the call.
+     *
+     * @param <T> The decoded type
+     */
+    public interface PayloadReader<T> {
+        T read(ByteBuffer payload) throws IOException;
+    }
+
+    /**
+     * Receives frames pushed by the node on a subscription. Both methods are
+     * called on the I/O thread and must not block.
+     */
+    public interface PushListener {
+        /**
+         * Handle a pushed frame. The payload buffer is only valid for the
+         * duration of the call.
+         */
+        void onPush(ByteBuffer payload) throws IOException;
+
+        /**
+         * Called once if the connection fails while the subscription is active.
+         */
+        void onClose(Throwable cause);
+    }
+
+    NodeConnection(String nodeId, String address, int port, SocketChannel channel, TransportEngine.IoLoop loop) {
+        this.nodeId = nodeId;
+        this.address = address;
+        this.port = port;
+        this.channel = channel;
+        this.loop = loop;
+        this.connected = new CompletableFuture<>();
+        this.writeQueue = new ConcurrentLinkedQueue<>();
+        this.pending = new ConcurrentHashMap<>();
+        this.subscriptions = new ConcurrentHashMap<>();
+        this.inFlight = new AtomicInteger();
+        this.outboundHeader = new TransportHeader();
+        this.inboundHeader = new TransportHeader();
+        this.writeBuffer = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE);
+        this.writeBuffer.flip();
+        this.readBuffer = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE);
+        this.createdAt = System.currentTimeMillis();
+        this.lastUsed = createdAt;
+        this.nextSeq = 1;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public long getLastUsed() {
+        return lastUsed;
+    }
+
+    /**
+     * Get the number of requests queued or awaiting a response.
+     *
+     * @return The number of outstanding requests
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Check whether any subscriptions are active on this connection.
+     *
+     * @return true if the node may push frames on this connection
+     */
+    public boolean hasSubscriptions() {
+        return !subscriptions.isEmpty();
+    }
+
+    /**
+     * Mark the connection as used now.
+     */
+    public void touch() {
+        lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * Send a command to the node. The returned future completes with the
+     * decoded response whose ack number matches the request's sequence number.
+     * A request that times out is forgotten; a late response to it is dropped.
+     *
+     * @param command The command byte
+     * @param sessionId The ID of the session
+     * @param body Writer for the request body, or null for no body
+     * @param reader Decoder for the response payload
+     * @param timeoutMs Time to wait for the response in milliseconds
+     * @param <T> The decoded response type
+     * @return A future completed with the decoded response
+     */
+    public <T> CompletableFuture<T> request(byte command, String sessionId, PayloadWriter body,
+                                            PayloadReader<T> reader, long timeoutMs) {
+        Request<T> request = new Request<>(command, sessionId, body, reader, null);
+        return enqueue(request, timeoutMs);
+    }
+
+    /**
+     * Send a command that the node does not answer. The returned future
+     * completes once the frame has been encoded for writing.
+     *
+     * @param command The command byte
+     * @param sessionId The ID of the session
+     * @param body Writer for the request body, or null for no body
+     * @param timeoutMs Time allowed for the frame to be sent in milliseconds
+     * @return A future completed when the frame has been queued on the socket
+     */
+    public CompletableFuture<Void> send(byte command, String sessionId, PayloadWriter body, long timeoutMs) {
+        Request<Void> request = new Request<>(command, sessionId, body, null, null);
+        return enqueue(request, timeoutMs);
+    }
+
+    /**
+     * Open a subscription. The node acknowledges the request like any other
+     * command and then pushes frames for it until it is cancelled or the
+     * connection closes. Pushed frames can arrive before the returned future
+     * completes.
+     *
+     * @param command The subscription command byte
+     * @param sessionId The ID of the session
+     * @param body Writer for the request body, or null for no body
+     * @param listener Receiver for pushed frames
+     * @param timeoutMs Time to wait for the acknowledgement in milliseconds
+     * @return A future completed with the subscription ID
+     */
+    public CompletableFuture<Integer> subscribe(byte command, String sessionId, PayloadWriter body,
+                                                PushListener listener, long timeoutMs) {
+        Request<Boolean> request = new Request<>(command, sessionId, body, MessageCodec::readAck, listener);
+        return enqueue(request, timeoutMs).handle((accepted, error) -> {
+            if (error == null && accepted) {
+                return request.seq;
+            }
+            if (request.seq != 0) {
+                subscriptions.remove(request.seq, listener);
+            }
+            throw error != null
+                ? new CompletionException(error)
+                : new CompletionException(new IOException("Node " + nodeId + " rejected subscription for session " + sessionId));
+        });
+    }
+
+    /**
+     * Stop delivering frames for a subscription. Frames the node has already
+     * sent are dropped.
+     *
+     * @param subscriptionId The ID returned by {@link #subscribe}
+     */
+    public void unsubscribe(int subscriptionId) {
+        subscriptions.remove(subscriptionId);
+    }
+
+    private <T> CompletableFuture<T> enqueue(Request<T> request, long timeoutMs) {
+        if (closed) {
+            request.future.completeExceptionally(new IOException("Connection to node " + nodeId + " is closed"));
+            return request.future;
+        }
+
+        touch();
+        inFlight.incrementAndGet();
+        request.future.orTimeout(timeoutMs, TimeUnit.MILLISECONDS).whenComplete((response, error) -> {
+            inFlight.decrementAndGet();
+            if (request.seq != 0) {
+                pending.remove(request.seq, request);
+            }
+        });
+
+        writeQueue.add(request);
+        loop.execute(this::enableWrite);
+        return request.future;
+    }
+
+    /**
+     * Check whether the underlying channel is still usable.
+     *
+     * @return true if the connection is open
+     */
+    public boolean isHealthy() {
+        return !closed && channel.isOpen() && channel.isConnected();
+    }
+
+    /**
+     * Close the connection and fail any outstanding requests.
+     */
+    public void close() {
+        fail(new IOException("Connection to node " + nodeId + " closed"));
+    }
+
+    CompletableFuture<NodeConnection> connectFuture() {
+        return connected;
+    }
+
+    void attach(SelectionKey key) {
+        this.key = key;
+    }
+
+    /**
+     * Complete a pending connect. Called on the I/O thread.
+     */
+    void handleConnect() throws IOException {
+        if (channel.isConnectionPending()) {
+            channel.finishConnect();
+        }
+        key.interestOps(writeQueue.isEmpty()
+            ? SelectionKey.OP_READ
+            : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        logger.fine("Opened connection to node " + nodeId + " at " + address + ":" + port);
+        connected.complete(this);
+    }
+
+    /**
+     * Read available bytes and dispatch every complete frame.
+     * Called on the I/O thread.
+     */
+    void handleRead() throws IOException {
+        int length = channel.read(readBuffer);
+        if (length < 0) {
+            throw new IOException("Node " + nodeId + " closed the connection");
+        }
+
+        readBuffer.flip();
+        int required = 0;
+        while (readBuffer.remaining() >= TransportHeader.SIZE) {
+            int frameStart = readBuffer.position();
+            int dataLength = TransportHeader.peekDataLength(readBuffer, frameStart);
+            if (dataLength < 0 || dataLength > MAX_FRAME_SIZE) {
+                throw new IOException("Invalid frame length " + dataLength + " from node " + nodeId);
+            }
+
+            int frameLength = TransportHeader.SIZE + dataLength;
+            if (readBuffer.remaining() < frameLength) {
+                required = frameLength;
+                break;
+            }
+
+            inboundHeader.read(readBuffer);
+            int payloadStart = readBuffer.position();
+            if (TransportHeader.checksum(readBuffer, payloadStart, dataLength) != inboundHeader.getChecksum()) {
+                throw new IOException("Checksum mismatch in frame " + inboundHeader.getSeqNum() + " from node " + nodeId);
+            }
+
+            ByteBuffer payload = readBuffer.slice();
+            payload.limit(dataLength);
+            readBuffer.position(payloadStart + dataLength);
+            dispatch(inboundHeader, payload);
+        }
+        readBuffer.compact();
+
+        if (required > readBuffer.capacity()) {
+            // Frame does not fit; grow the buffer and keep the partial frame
+            ByteBuffer larger = ByteBuffer.allocateDirect(Integer.highestOneBit(required - 1) << 1);
+            readBuffer.flip();
+            larger.put(readBuffer);
+            readBuffer = larger;
+        }
+    }
+
+    /**
+     * Encode queued requests and flush them to the channel.
+     * Called on the I/O thread.
+     */
+    void handleWrite() throws IOException {
+        while (true) {
+            if (!writeBuffer.hasRemaining()) {
+                if (writeQueue.isEmpty()) {
+                    key.interestOps(SelectionKey.OP_READ);
+                    return;
+                }
+                writeBuffer.clear();
+                encodeQueued();
+                writeBuffer.flip();
+            }
+
+            channel.write(writeBuffer);
+            if (writeBuffer.hasRemaining()) {
+                // Socket buffer is full; wait for the next writable event
+                return;
+            }
+        }
+    }
+
+    /**
+     * Close the channel and fail every outstanding request.
+     *
+     * @param cause The reason for the failure
+     */
+    void fail(Throwable cause) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.warning("Error closing connection to node " + nodeId + ": " + e.getMessage());
+        }
+
+        connected.completeExceptionally(cause);
+        for (Request<?> request : pending.values()) {
+            request.future.completeExceptionally(cause);
+        }
+        Request<?> request;
+        while ((request = writeQueue.poll()) != null) {
+            request.future.completeExceptionally(cause);
+        }
+        for (PushListener listener : subscriptions.values()) {
+            try {
+                listener.onClose(cause);
+            } catch (RuntimeException e) {
+                logger.warning("Error closing subscription on node " + nodeId + ": " + e.getMessage());
+            }
+        }
+        subscriptions.clear();
+        logger.fine("Closed connection to node " + nodeId + " at " + address + ":" + port);
+    }
+
+    /**
+     * Encode as many queued requests as fit into the write buffer.
+     */
+    private void encodeQueued() {
+        Request<?> request;
+        while ((request = writeQueue.peek()) != null) {
+            if (request.future.isDone()) {
+                // Timed out before it could be sent
+                writeQueue.poll();
+                continue;
+            }
+
+            int frameStart = writeBuffer.position();
+            try {
+                encodeFrame(request);
+            } catch (BufferOverflowException e) {
+                writeBuffer.position(frameStart);
+                if (frameStart > 0) {
+                    // Flush what we have and encode this one next time
+                    return;
+                }
+                if (writeBuffer.capacity() >= MAX_FRAME_SIZE) {
+                    writeQueue.poll();
+                    request.future.completeExceptionally(
+                        new IOException("Request exceeds maximum frame size for node " + nodeId));
+                    continue;
+                }
+                writeBuffer = ByteBuffer.allocateDirect(writeBuffer.capacity() * 2);
+                continue;
+            } catch (IllegalArgumentException e) {
+                // The request cannot be encoded, e.g. an oversize string
+                writeBuffer.position(frameStart);
+                writeQueue.poll();
+                request.future.completeExceptionally(
+                    new IOException("Cannot encode request for node " + nodeId + ": " + e.getMessage(), e));
+                continue;
+            }
+
+            writeQueue.poll();
+            if (request.reader == null) {
+                // One-way command; nothing to wait for
+                request.future.complete(null);
+                continue;
+            }
+            if (request.listener != null) {
+                // Register before the acknowledgement so early pushes are not lost
+                subscriptions.put(request.seq, request.listener);
+            }
+            pending.put(request.seq, request);
+            if (request.future.isDone()) {
+                // Timed out while being encoded
+                pending.remove(request.seq, request);
+                if (request.listener != null) {
+                    subscriptions.remove(request.seq, request.listener);
+                }
+            }
+        }
+    }
+
+    private void encodeFrame(Request<?> request) {
+        int frameStart = writeBuffer.position();
+        outboundHeader.set(TransportHeader.MSG_DATA, TransportHeader.FLAG_RELIABLE, nextSeq, lastReceivedSeq);
+        outboundHeader.write(writeBuffer);
+        MessageCodec.writeRequestHeader(writeBuffer, request.command, request.sessionId);
+        if (request.body != null) {
+            request.body.write(writeBuffer);
+        }
+        outboundHeader.complete(writeBuffer, frameStart);
+        request.seq = nextSeq;
+        // Sequence number 0 is reserved for "not yet sent"
+        nextSeq = nextSeq == Integer.MAX_VALUE ? 1 : nextSeq + 1;
+    }
+
+    private void dispatch(TransportHeader header, ByteBuffer payload) throws IOException {
+        lastReceivedSeq = header.getSeqNum();
+
+        switch (header.getType()) {
+            case TransportHeader.MSG_DATA:
+                if ((header.getFlags() & TransportHeader.FLAG_PUSH) != 0) {
+                    dispatchPush(header.getAckNum(), payload);
+                    break;
+                }
+                Request<?> request = pending.remove(header.getAckNum());
+                if (request != null) {
+                    request.complete(payload);
+                } else {
+                    logger.fine("Discarding response to unknown or expired request " +
+                                header.getAckNum() + " from node " + nodeId);
+                }
+                break;
+
+            case TransportHeader.MSG_CLOSE:
+                throw new IOException("Node " + nodeId + " closed the connection");
+
+            default:
+                logger.fine("Ignoring frame type " + header.getType() + " from node " + nodeId);
+                break;
+        }
+    }
+
+    private void dispatchPush(int subscriptionId, ByteBuffer payload) {
+        PushListener listener = subscriptions.get(subscriptionId);
+        if (listener == null) {
+            logger.fine("Discarding push for unknown subscription " + subscriptionId + " from node " + nodeId);
+            return;
+        }
+
+        touch();
+        try {
+            listener.onPush(payload);
+        } catch (Exception e) {
+            logger.warning("Error handling push for subscription " + subscriptionId +
+                           " from node " + nodeId + ": " + e.getMessage());
+        }
+    }
+
+    private void enableWrite() {
+        if (key != null && key.isValid() && channel.isConnected()) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * A request waiting to be sent or answered.
+     */
+    private static class Request<T> {
+        private final byte command;
+        private final String sessionId;
+        private final PayloadWriter body;
+        private final PayloadReader<T> reader;
+        private final PushListener listener;
+        private final CompletableFuture<T> future;
+        private volatile int seq;
+
+        public Request(byte command, String sessionId, PayloadWriter body, PayloadReader<T> reader,
+                       PushListener listener) {
+            this.command = command;
+            this.sessionId = sessionId;
+            this.body = body;
+            this.reader = reader;
+            this.listener = listener;
+            this.future = new CompletableFuture<>();
+        }
+
+        public void complete(ByteBuffer payload) {
+            try {
+                future.complete(reader.read(payload));
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * ResultStream receives step results that a node pushes for one session over
+ * a persistent pooled connection, instead of the node being polled for them.
+ *
+ * Flow control is credit based. The subscription grants the node an initial
+ * window of frames; each pushed frame uses one credit, and credits are only
+ * returned once the listener has processed the results. A slow consumer
+ * therefore stops the node from pushing rather than growing a queue here, and
+ * the node buffers steps until credit arrives.
+ *
+ * Frames are decoded on the I/O thread and delivered in order on the given
+ * executor, one at a time per stream.
+ */
+public class ResultStream implements NodeConnection.PushListener {
+    private static final Logger logger = Logger.getLogger(ResultStream.class.getName());
+
+    // Stream commands carried in DATA frames
+    private static final byte MSG_SUBSCRIBE = 8;
+    private static final byte MSG_CREDIT = 9;
+    private static final byte MSG_UNSUBSCRIBE = 10;
+
+    // Marks the end of the stream in the delivery queue
+    private static final Map<String, Object> END_OF_STREAM = new HashMap<>();
+
+    private final NodeConnection connection;
+    private final String sessionId;
+    private final int window;
+    private final Executor executor;
+    private final Listener listener;
+    private final long timeoutMs;
+    private final Queue<Map<String, Object>> ready;
+    private final AtomicBoolean draining;
+    private final AtomicBoolean closed;
+    private final AtomicLong received;
+    private final AtomicLong delivered;
+    private volatile int subscriptionId;
+    private volatile Throwable closeCause;
+    private int unreturnedCredits;
+
+    /**
+     * Receives the results pushed on a stream.
+     */
+    public interface Listener {
+        /**
+         * Handle one step's results. Credit for the frame is returned after
+         * this method completes.
+         *
+         * @param stream The stream the results arrived on
+         * @param results The results data
+         */
+        void onResults(ResultStream stream, Map<String, Object> results);
+
+        /**
+         * Called once when the node ends the stream or the connection fails.
+         *
+         * @param stream The closed stream
+         * @param cause The failure, or null if the node ended the stream
+         */
+        void onClose(ResultStream stream, Throwable cause);
+    }
+
+    private ResultStream(NodeConnection connection, String sessionId, int window,
+                         Executor executor, Listener listener, long timeoutMs) {
+        this.connection = connection;
+        this.sessionId = sessionId;
+        this.window = window;
+        this.executor = executor;
+        this.listener = listener;
+        this.timeoutMs = timeoutMs;
+        this.ready = new ConcurrentLinkedQueue<>();
+        this.draining = new AtomicBoolean(false);
+        this.closed = new AtomicBoolean(false);
+        this.received = new AtomicLong();
+        this.delivered = new AtomicLong();
+    }
+
+    /**
+     * Subscribe to a session's results on a connection.
+     *
+     * @param connection The connection to the node hosting the session
+     * @param sessionId The ID of the session
+     * @param window The number of frames the node may push ahead of processing
+     * @param executor The executor results are delivered on
+     * @param listener The receiver for pushed results
+     * @param timeoutMs Time to wait for the node to accept the subscription
+     * @return A future completed with the open stream
+     */
+    static CompletableFuture<ResultStream> open(NodeConnection connection, String sessionId, int window,
+                                                Executor executor, Listener listener, long timeoutMs) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("Credit window must be positive");
+        }
+
+        ResultStream stream = new ResultStream(connection, sessionId, window, executor, listener, timeoutMs);
+        return connection.subscribe(MSG_SUBSCRIBE, sessionId, buffer -> buffer.putInt(window), stream, timeoutMs)
+            .thenApply(id -> {
+                stream.subscriptionId = id;
+                return stream;
+            });
+    }
+
+    public String getNodeId() {
+        return connection.getNodeId();
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * Get the number of frames received from the node.
+     *
+     * @return The received frame count
+     */
+    public long getReceived() {
+        return received.get();
+    }
+
+    /**
+     * Get the number of frames delivered to the listener.
+     *
+     * @return The delivered frame count
+     */
+    public long getDelivered() {
+        return delivered.get();
+    }
+
+    /**
+     * Cancel the subscription. Results still queued are dropped and the
+     * listener is not notified.
+     */
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+
+        int id = subscriptionId;
+        connection.unsubscribe(id);
+        ready.clear();
+        connection.send(MSG_UNSUBSCRIBE, sessionId, buffer -> buffer.putInt(id), timeoutMs)
+            .whenComplete((sent, error) -> {
+                if (error != null) {
+                    logger.fine("Could not cancel result stream for session " + sessionId +
+                                " on node " + getNodeId() + ": " + error.getMessage());
+                }
+            });
+        logger.fine("Closed result stream for session " + sessionId + " on node " + getNodeId());
+    }
+
+    @Override
+    public void onPush(ByteBuffer payload) throws IOException {
+        if (closed.get()) {
+            return;
+        }
+
+        Map<String, Object> results = MessageCodec.readPushedResults(payload, sessionId);
+        if (results != null) {
+            received.incrementAndGet();
+        }
+        ready.add(results != null ? results : END_OF_STREAM);
+        scheduleDrain();
+    }
+
+    @Override
+    public void onClose(Throwable cause) {
+        closeCause = cause;
+        ready.add(END_OF_STREAM);
+        scheduleDrain();
+    }
+
+    private void scheduleDrain() {
+        if (draining.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    /**
+     * Deliver queued results in order and return credit for them.
+     * Only one drain runs at a time per stream.
+     */
+    private void drain() {
+        do {
+            Map<String, Object> results;
+            while ((results = ready.poll()) != null) {
+                if (results == END_OF_STREAM) {
+                    finish();
+                    continue;
+                }
+                if (closed.get()) {
+                    continue;
+                }
+
+                try {
+                    listener.onResults(this, results);
+                } catch (RuntimeException e) {
+                    logger.warning("Error processing streamed results for session " + sessionId +
+                                   " from node " + getNodeId() + ": " + e.getMessage());
+                }
+                delivered.incrementAndGet();
+                unreturnedCredits++;
+
+                // Return credit in batches of half the window
+                if (unreturnedCredits >= Math.max(1, window / 2)) {
+                    grantCredits();
+                }
+            }
+            draining.set(false);
+        } while (!ready.isEmpty() && draining.compareAndSet(false, true));
+    }
+
+    private void grantCredits() {
+        int id = subscriptionId;
+        if (id == 0 || closed.get()) {
+            // Not acknowledged yet; return the credit with the next batch
+            return;
+        }
+
+        int credits = unreturnedCredits;
+        unreturnedCredits = 0;
+        connection.send(MSG_CREDIT, sessionId, buffer -> {
+            buffer.putInt(id);
+            buffer.putInt(credits);
+        }, timeoutMs);
+    }
+
+    private void finish() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+
+        connection.unsubscribe(subscriptionId);
+        Throwable cause = closeCause;
+        if (cause == null) {
+            logger.info("Node " + getNodeId() + " ended result stream for session " + sessionId);
+        } else {
+            logger.warning("Result stream for session " + sessionId + " on node " + getNodeId() +
+                           " failed: " + cause.getMessage());
+        }
+        listener.onClose(this, cause);
+    }
+}
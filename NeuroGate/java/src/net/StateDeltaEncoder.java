@@ -0,0 +1,99 @@
+package net;
+
+import java.nio.ByteBuffer;
+import java.util.TreeMap;
+import simulation.StateSnapshot;
+
+/**
+ * StateDeltaEncoder is the node side of delta encoded results for one
+ * session. Every results body carries a snapshot version; when the
+ * controller acknowledges a version it still holds, only the states that
+ * changed since that version are sent. A full keyframe is sent when no
+ * usable version has been acknowledged and at a fixed interval, so a
+ * receiver that lost track always recovers.
+ *
+ * Networks with mostly static synapses therefore send little more than
+ * their neuron states on each collection.
+ */
+public class StateDeltaEncoder {
+
+    // Default number of versions between keyframes
+    private static final int DEFAULT_KEYFRAME_INTERVAL = 32;
+
+    // Sent snapshots kept as possible delta bases
+    private static final int MAX_RETAINED = 8;
+
+    private final int keyframeInterval;
+    private final TreeMap<Long, StateSnapshot[]> retained;
+    private long nextVersion;
+    private long lastKeyframe;
+
+    /**
+     * Create a new StateDeltaEncoder with the default keyframe interval.
+     */
+    public StateDeltaEncoder() {
+        this(DEFAULT_KEYFRAME_INTERVAL);
+    }
+
+    /**
+     * Create a new StateDeltaEncoder with a custom keyframe interval.
+     *
+     * @param keyframeInterval The number of versions between keyframes
+     */
+    public StateDeltaEncoder(int keyframeInterval) {
+        if (keyframeInterval <= 0) {
+            throw new IllegalArgumentException("Keyframe interval must be positive");
+        }
+        this.keyframeInterval = keyframeInterval;
+        this.retained = new TreeMap<>();
+        this.lastKeyframe = MessageCodec.NO_VERSION;
+    }
+
+    /**
+     * Write the versioned states of a results body for a polled request.
+     *
+     * @param buffer The buffer to write to
+     * @param acknowledged The version the controller holds, or {@link MessageCodec#NO_VERSION}
+     * @param neurons The current neuron states
+     * @param synapses The current synapse states
+     */
+    public synchronized void write(ByteBuffer buffer, long acknowledged, StateSnapshot neurons,
+                                   StateSnapshot synapses) {
+        // Versions older than the acknowledged one will not be asked for again
+        retained.headMap(acknowledged).clear();
+
+        StateSnapshot[] base = retained.get(acknowledged);
+        long version = nextVersion++;
+        boolean keyframe = base == null || version - lastKeyframe >= keyframeInterval;
+
+        buffer.putLong(version);
+        if (keyframe) {
+            buffer.putLong(MessageCodec.NO_VERSION);
+            MessageCodec.writeStateVector(buffer, neurons);
+            MessageCodec.writeStateVector(buffer, synapses);
+            lastKeyframe = version;
+        } else {
+            buffer.putLong(acknowledged);
+            MessageCodec.writeStateVector(buffer, StateSnapshot.diff(base[0], neurons));
+            MessageCodec.writeStateVector(buffer, StateSnapshot.diff(base[1], synapses));
+        }
+
+        retained.put(version, new StateSnapshot[] {neurons, synapses});
+        while (retained.size() > MAX_RETAINED) {
+            retained.pollFirstEntry();
+        }
+    }
+
+    /**
+     * Write the versioned states of a pushed results frame. Pushed frames
+     * arrive in order and each is processed, so the previous frame serves
+     * as the base.
+     *
+     * @param buffer The buffer to write to
+     * @param neurons The current neuron states
+     * @param synapses The current synapse states
+     */
+    public synchronized void writeNext(ByteBuffer buffer, StateSnapshot neurons, StateSnapshot synapses) {
+        write(buffer, nextVersion - 1, neurons, synapses);
+    }
+}
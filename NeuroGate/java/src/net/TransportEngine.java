@@ -0,0 +1,264 @@
+package net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * TransportEngine multiplexes all node connections over a small, fixed set of
+ * selector-driven I/O threads. Connections never block a caller thread while
+ * waiting for the network; callers receive futures instead.
+ */
+public class TransportEngine {
+    private static final Logger logger = Logger.getLogger(TransportEngine.class.getName());
+
+    private static final int DEFAULT_IO_THREADS = 2;
+
+    private final IoLoop[] loops;
+    private final AtomicInteger nextLoop;
+
+    /**
+     * Create a new TransportEngine with the default number of I/O threads.
+     *
+     * @throws IOException if a selector cannot be opened
+     */
+    public TransportEngine() throws IOException {
+        this(DEFAULT_IO_THREADS);
+    }
+
+    /**
+     * Create a new TransportEngine with a custom number of I/O threads.
+     *
+     * @param ioThreads The number of selector threads
+     * @throws IOException if a selector cannot be opened
+     */
+    public TransportEngine(int ioThreads) throws IOException {
+        this.loops = new IoLoop[Math.max(1, ioThreads)];
+        this.nextLoop = new AtomicInteger();
+
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new IoLoop("transport-io-" + i);
+            loops[i].start();
+        }
+
+        logger.info("TransportEngine started with " + loops.length + " I/O threads");
+    }
+
+    /**
+     * Open a non-blocking connection to a node. The caller is never blocked
+     * while the connection is established.
+     *
+     * @param nodeId The ID of the node
+     * @param address The address of the node
+     * @param port The port of the node
+     * @param timeoutMs Connect timeout in milliseconds
+     * @return A future completed with the connected node connection, or failed
+     *         with an IOException if it cannot be established in time
+     */
+    public CompletableFuture<NodeConnection> connect(String nodeId, String address, int port, int timeoutMs) {
+        IoLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+
+        SocketChannel channel = null;
+        NodeConnection conn;
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            conn = new NodeConnection(nodeId, address, port, channel, loop);
+        } catch (IOException e) {
+            closeQuietly(channel);
+            return CompletableFuture.failedFuture(e);
+        }
+
+        SocketChannel opened = channel;
+        loop.execute(() -> {
+            try {
+                SelectionKey key = opened.register(loop.selector, 0, conn);
+                conn.attach(key);
+                if (opened.connect(new InetSocketAddress(address, port))) {
+                    conn.handleConnect();
+                } else {
+                    key.interestOps(SelectionKey.OP_CONNECT);
+                }
+            } catch (IOException e) {
+                conn.fail(e);
+            }
+        });
+
+        CompletableFuture<NodeConnection> connected = conn.connectFuture().copy();
+        connected.orTimeout(timeoutMs, TimeUnit.MILLISECONDS);
+        return connected.handle((result, error) -> {
+            if (error == null) {
+                return result;
+            }
+            conn.close();
+            Throwable cause = error instanceof CompletionException && error.getCause() != null
+                ? error.getCause()
+                : error;
+            if (cause instanceof TimeoutException) {
+                cause = new IOException("Timed out connecting to node " + nodeId + " at " + address + ":" + port);
+            } else if (!(cause instanceof IOException)) {
+                cause = new IOException(cause);
+            }
+            throw new CompletionException(cause);
+        });
+    }
+
+    /**
+     * Stop all I/O threads. Open connections are closed.
+     */
+    public void shutdown() {
+        for (IoLoop loop : loops) {
+            loop.shutdown();
+        }
+        logger.info("TransportEngine shut down");
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warning("Error closing channel: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * A single selector thread servicing a subset of the connections.
+     */
+    static class IoLoop implements Runnable {
+        private final Selector selector;
+        private final String name;
+        private final Queue<Runnable> tasks;
+        private volatile Thread thread;
+        private volatile boolean running;
+
+        IoLoop(String name) throws IOException {
+            this.name = name;
+            this.selector = Selector.open();
+            this.tasks = new ConcurrentLinkedQueue<>();
+        }
+
+        /**
+         * Start the loop thread. The thread is created here rather than in
+         * the constructor, so it never sees a partly constructed loop.
+         */
+        synchronized void start() {
+            if (thread != null) {
+                throw new IllegalStateException("I/O loop " + name + " already started");
+            }
+            Thread loopThread = new Thread(this, name);
+            loopThread.setDaemon(true);
+            running = true;
+            thread = loopThread;
+            loopThread.start();
+        }
+
+        /**
+         * Run a task on this loop's thread.
+         *
+         * @param task The task to run
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            if (Thread.currentThread() != thread) {
+                selector.wakeup();
+            }
+        }
+
+        void shutdown() {
+            running = false;
+            selector.wakeup();
+            Thread loopThread = thread;
+            if (loopThread == null) {
+                return;
+            }
+            try {
+                loopThread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    runTasks();
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        processKey(key);
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                logger.severe("I/O loop " + name + " failed: " + e.getMessage());
+            } finally {
+                closeAll();
+            }
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.warning("Error running I/O task: " + e.getMessage());
+                }
+            }
+        }
+
+        private void processKey(SelectionKey key) {
+            NodeConnection conn = (NodeConnection) key.attachment();
+            if (!key.isValid()) {
+                return;
+            }
+
+            try {
+                if (key.isConnectable()) {
+                    conn.handleConnect();
+                }
+                if (key.isValid() && key.isReadable()) {
+                    conn.handleRead();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    conn.handleWrite();
+                }
+            } catch (IOException e) {
+                conn.fail(e);
+            }
+        }
+
+        private void closeAll() {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof NodeConnection) {
+                    ((NodeConnection) key.attachment()).fail(new IOException("Transport shut down"));
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                logger.warning("Error closing selector: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * TransportHeader mirrors the C {@code transport_header_t} structure.
+ * Headers are encoded in network byte order as a fixed 24-byte prefix
+ * in front of every frame.
+ */
+public class TransportHeader {
+
+    // Protocol constants (see c/net/transport.c)
+    public static final int MAGIC = 0x4E474154;  // "NGAT" in ASCII
+    public static final byte VERSION = 1;
+    public static final int SIZE = 24;
+
+    // Message types (message_type_t)
+    public static final byte MSG_HANDSHAKE = 0;
+    public static final byte MSG_DATA = 1;
+    public static final byte MSG_ACK = 2;
+    public static final byte MSG_NACK = 3;
+    public static final byte MSG_PING = 4;
+    public static final byte MSG_PONG = 5;
+    public static final byte MSG_CLOSE = 6;
+
+    // Protocol flags
+    public static final short FLAG_ENCRYPTED = 0x0001;
+    public static final short FLAG_COMPRESSED = 0x0002;
+    public static final short FLAG_FRAGMENTED = 0x0004;
+    public static final short FLAG_LAST_FRAGMENT = 0x0008;
+    public static final short FLAG_URGENT = 0x0010;
+    public static final short FLAG_RELIABLE = 0x0020;
+    public static final short FLAG_PUSH = 0x0040;  // Unsolicited frame on a subscription
+
+    // Field offsets within the encoded header
+    private static final int LENGTH_OFFSET = 16;
+    private static final int CHECKSUM_OFFSET = 20;
+
+    private byte type;
+    private short flags;
+    private int seqNum;
+    private int ackNum;
+    private int dataLength;
+    private int checksum;
+
+    public byte getType() {
+        return type;
+    }
+
+    public short getFlags() {
+        return flags;
+    }
+
+    public int getSeqNum() {
+        return seqNum;
+    }
+
+    public int getAckNum() {
+        return ackNum;
+    }
+
+    public int getDataLength() {
+        return dataLength;
+    }
+
+    public int getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * Set the fields that are chosen by the sender.
+     *
+     * @param type The message type
+     * @param flags The message flags
+     * @param seqNum The sequence number
+     * @param ackNum The acknowledgment number
+     */
+    public void set(byte type, short flags, int seqNum, int ackNum) {
+        this.type = type;
+        this.flags = flags;
+        this.seqNum = seqNum;
+        this.ackNum = ackNum;
+        this.dataLength = 0;
+        this.checksum = 0;
+    }
+
+    /**
+     * Write this header at the buffer's current position. Data length and
+     * checksum are written as zero and patched by {@link #complete}.
+     *
+     * @param buffer The buffer to write to
+     */
+    public void write(ByteBuffer buffer) {
+        buffer.putInt(MAGIC);
+        buffer.put(VERSION);
+        buffer.put(type);
+        buffer.putShort(flags);
+        buffer.putInt(seqNum);
+        buffer.putInt(ackNum);
+        buffer.putInt(0);
+        buffer.putInt(0);
+    }
+
+    /**
+     * Patch data length and checksum of a header written at {@code headerStart}
+     * once its payload has been written up to the buffer's current position.
+     *
+     * @param buffer The buffer holding the frame
+     * @param headerStart The position the header was written at
+     */
+    public void complete(ByteBuffer buffer, int headerStart) {
+        int payloadStart = headerStart + SIZE;
+        dataLength = buffer.position() - payloadStart;
+        checksum = checksum(buffer, payloadStart, dataLength);
+        buffer.putInt(headerStart + LENGTH_OFFSET, dataLength);
+        buffer.putInt(headerStart + CHECKSUM_OFFSET, checksum);
+    }
+
+    /**
+     * Read a header from the buffer's current position.
+     *
+     * @param buffer The buffer to read from
+     * @throws IOException if the magic number or version is not recognised
+     */
+    public void read(ByteBuffer buffer) throws IOException {
+        int magic = buffer.getInt();
+        if (magic != MAGIC) {
+            throw new IOException("Invalid frame magic 0x" + Integer.toHexString(magic));
+        }
+        byte version = buffer.get();
+        if (version != VERSION) {
+            throw new IOException("Unsupported protocol version " + version);
+        }
+        type = buffer.get();
+        flags = buffer.getShort();
+        seqNum = buffer.getInt();
+        ackNum = buffer.getInt();
+        dataLength = buffer.getInt();
+        checksum = buffer.getInt();
+    }
+
+    /**
+     * Peek at the payload length of a header starting at {@code headerStart}
+     * without consuming it.
+     *
+     * @param buffer The buffer holding the header
+     * @param headerStart The position of the header
+     * @return The payload length
+     */
+    public static int peekDataLength(ByteBuffer buffer, int headerStart) {
+        return buffer.getInt(headerStart + LENGTH_OFFSET);
+    }
+
+    /**
+     * Calculate the checksum used by {@code transport_calculate_checksum}:
+     * an additive checksum with a one-bit left rotation per byte.
+     *
+     * @param buffer The buffer holding the data
+     * @param offset The absolute offset of the data
+     * @param length The length of the data
+     * @return The checksum
+     */
+    public static int checksum(ByteBuffer buffer, int offset, int length) {
+        int checksum = 0;
+        for (int i = offset; i < offset + length; i++) {
+            checksum = Integer.rotateLeft(checksum, 1);
+            checksum += buffer.get(i) & 0xFF;
+        }
+        return checksum;
+    }
+}
@@ -0,0 +1,269 @@
+package simulation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Downsampler rolls the results of one session up into fixed time buckets at
+ * several resolutions as they are processed. Raw results are kept only for a
+ * recent window; older history is served from 10s, 1m and 10m buckets, each
+ * holding the merged statistics of every result received within it. A bucket
+ * is emitted when a result for the same node falls into a later bucket, or
+ * when the session ends.
+ *
+ * Instances are not thread safe; callers synchronize access.
+ */
+public class Downsampler {
+
+    // Raw results, then rollups from finest to coarsest; zero retention keeps data forever
+    public static final List<Tier> DEFAULT_TIERS = List.of(
+        new Tier("raw", 0, 10 * 60 * 1000L),
+        new Tier("10s", 10 * 1000L, 6 * 60 * 60 * 1000L),
+        new Tier("1m", 60 * 1000L, 7 * 24 * 60 * 60 * 1000L),
+        new Tier("10m", 10 * 60 * 1000L, 0)
+    );
+
+    private final List<Tier> tiers;
+    private final Map<String, Bucket[]> open;
+
+    /**
+     * Create a new Downsampler with the default tiers.
+     */
+    public Downsampler() {
+        this(DEFAULT_TIERS);
+    }
+
+    /**
+     * Create a new Downsampler with custom tiers.
+     *
+     * @param tiers The tiers, from finest to coarsest; raw tiers are skipped
+     */
+    public Downsampler(List<Tier> tiers) {
+        this.tiers = new ArrayList<>();
+        for (Tier tier : tiers) {
+            if (!tier.isRaw()) {
+                this.tiers.add(tier);
+            }
+        }
+        this.open = new HashMap<>();
+    }
+
+    /**
+     * Get the default tiers with a custom raw retention.
+     *
+     * @param rawRetentionMs How long raw results are kept, or 0 to keep them forever
+     * @return The tiers
+     */
+    public static List<Tier> defaultTiers(long rawRetentionMs) {
+        List<Tier> tiers = new ArrayList<>(DEFAULT_TIERS);
+        Tier raw = tiers.get(0);
+        tiers.set(0, new Tier(raw.name, 0, rawRetentionMs));
+        return tiers;
+    }
+
+    /**
+     * Choose the tier to answer a query from: the coarsest tier no coarser
+     * than the requested resolution that still holds data back to the start
+     * of the range. If no such tier holds the whole range, the finest tier
+     * that does is used instead.
+     *
+     * @param tiers The tiers, from finest to coarsest
+     * @param fromMs The start of the range in milliseconds
+     * @param resolutionMs The coarsest acceptable resolution in milliseconds
+     * @param nowMs The current time in milliseconds
+     * @return The tier
+     */
+    public static Tier select(List<Tier> tiers, long fromMs, long resolutionMs, long nowMs) {
+        Tier best = null;
+        Tier fallback = null;
+        for (Tier tier : tiers) {
+            if (!tier.covers(fromMs, nowMs)) {
+                continue;
+            }
+            if (fallback == null) {
+                fallback = tier;
+            }
+            if (tier.bucketMs <= resolutionMs) {
+                best = tier;
+            }
+        }
+
+        if (best != null) {
+            return best;
+        }
+        return fallback != null ? fallback : tiers.get(tiers.size() - 1);
+    }
+
+    /**
+     * Add the statistics of one result to every tier.
+     *
+     * @param nodeId The ID of the node
+     * @param timeMs The time the result was received in milliseconds
+     * @param neurons Statistics of the node's neuron states
+     * @param synapses Statistics of the node's synapse states
+     * @param firing The number of firing neurons
+     * @return Buckets completed by this result
+     */
+    public List<Rollup> record(String nodeId, long timeMs, RunningStats neurons, RunningStats synapses, long firing) {
+        Bucket[] buckets = open.computeIfAbsent(nodeId, id -> new Bucket[tiers.size()]);
+        List<Rollup> completed = new ArrayList<>();
+
+        for (int t = 0; t < tiers.size(); t++) {
+            Tier tier = tiers.get(t);
+            long startMs = timeMs - Math.floorMod(timeMs, tier.bucketMs);
+            Bucket bucket = buckets[t];
+            if (bucket != null && bucket.startMs != startMs) {
+                completed.add(bucket.toRollup(nodeId, tier));
+                bucket = null;
+            }
+            if (bucket == null) {
+                bucket = new Bucket(startMs);
+                buckets[t] = bucket;
+            }
+            bucket.add(neurons, synapses, firing);
+        }
+        return completed;
+    }
+
+    /**
+     * Emit every open bucket, as when the session ends.
+     *
+     * @return The open buckets
+     */
+    public List<Rollup> flush() {
+        List<Rollup> completed = new ArrayList<>();
+        for (Map.Entry<String, Bucket[]> entry : open.entrySet()) {
+            Bucket[] buckets = entry.getValue();
+            for (int t = 0; t < tiers.size(); t++) {
+                if (buckets[t] != null) {
+                    completed.add(buckets[t].toRollup(entry.getKey(), tiers.get(t)));
+                }
+            }
+        }
+        open.clear();
+        return completed;
+    }
+
+    /**
+     * A resolution at which results are kept, and for how long.
+     */
+    public static class Tier {
+        private final String name;
+        private final long bucketMs;
+        private final long retentionMs;
+
+        public Tier(String name, long bucketMs, long retentionMs) {
+            this.name = name;
+            this.bucketMs = bucketMs;
+            this.retentionMs = retentionMs;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getBucketMs() {
+            return bucketMs;
+        }
+
+        public long getRetentionMs() {
+            return retentionMs;
+        }
+
+        /**
+         * Check whether this tier holds raw results rather than rollups.
+         *
+         * @return true for the raw tier
+         */
+        public boolean isRaw() {
+            return bucketMs == 0;
+        }
+
+        /**
+         * Check whether this tier still holds data from a point in time.
+         *
+         * @param fromMs The point in time in milliseconds
+         * @param nowMs The current time in milliseconds
+         * @return true if nothing from that time has expired
+         */
+        public boolean covers(long fromMs, long nowMs) {
+            return retentionMs == 0 || nowMs - retentionMs <= fromMs;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * A completed bucket of one node at one tier.
+     */
+    public static class Rollup {
+        private final String nodeId;
+        private final Tier tier;
+        private final long startMs;
+        private final Map<String, Object> results;
+
+        public Rollup(String nodeId, Tier tier, long startMs, Map<String, Object> results) {
+            this.nodeId = nodeId;
+            this.tier = tier;
+            this.startMs = startMs;
+            this.results = results;
+        }
+
+        public String getNodeId() {
+            return nodeId;
+        }
+
+        public Tier getTier() {
+            return tier;
+        }
+
+        public long getStartMs() {
+            return startMs;
+        }
+
+        public Map<String, Object> getResults() {
+            return results;
+        }
+    }
+
+    /**
+     * The statistics merged into one open bucket.
+     */
+    private static class Bucket {
+        private final long startMs;
+        private final RunningStats neurons;
+        private final RunningStats synapses;
+        private long firing;
+        private long samples;
+
+        public Bucket(long startMs) {
+            this.startMs = startMs;
+            this.neurons = new RunningStats();
+            this.synapses = new RunningStats();
+        }
+
+        public void add(RunningStats neuronStats, RunningStats synapseStats, long firingCount) {
+            neurons.merge(neuronStats);
+            synapses.merge(synapseStats);
+            firing += firingCount;
+            samples++;
+        }
+
+        public Rollup toRollup(String nodeId, Tier tier) {
+            Map<String, Object> results = new HashMap<>();
+            results.put("tier", tier.name);
+            results.put("start", startMs);
+            results.put("end", startMs + tier.bucketMs);
+            results.put("samples", samples);
+            results.put("neuronStats", neurons.toMap());
+            results.put("synapseStats", synapses.toMap());
+            results.put("firingRate", neurons.getCount() > 0 ? (double) firing / neurons.getCount() : 0.0);
+            return new Rollup(nodeId, tier, startMs, results);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package simulation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Histogram counts values in equal-width bins over a fixed range, with
+ * separate counts for values below and above it. Histograms with the same
+ * range and bin count merge by adding their counts.
+ *
+ * Instances are not thread safe; callers synchronize access.
+ */
+public final class Histogram {
+    private final double lower;
+    private final double upper;
+    private final double binWidth;
+    private final long[] counts;
+    private long underflow;
+    private long overflow;
+
+    /**
+     * Create a new Histogram.
+     *
+     * @param lower The lower bound of the first bin
+     * @param upper The upper bound of the last bin
+     * @param bins The number of bins
+     */
+    public Histogram(double lower, double upper, int bins) {
+        if (bins <= 0 || !(upper > lower)) {
+            throw new IllegalArgumentException("Invalid histogram range or bin count");
+        }
+        this.lower = lower;
+        this.upper = upper;
+        this.binWidth = (upper - lower) / bins;
+        this.counts = new long[bins];
+    }
+
+    /**
+     * Add a value.
+     *
+     * @param value The value to add
+     */
+    public void add(double value) {
+        if (value < lower) {
+            underflow++;
+        } else if (value >= upper) {
+            overflow++;
+        } else {
+            // Rounding can place values just below the upper bound past the last bin
+            counts[Math.min(counts.length - 1, (int) ((value - lower) / binWidth))]++;
+        }
+    }
+
+    /**
+     * Fold another histogram with the same layout into this one.
+     *
+     * @param other The histogram to merge
+     */
+    public void merge(Histogram other) {
+        if (other.lower != lower || other.upper != upper || other.counts.length != counts.length) {
+            throw new IllegalArgumentException("Cannot merge histograms with different bins");
+        }
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        underflow += other.underflow;
+        overflow += other.overflow;
+    }
+
+    /**
+     * Get the histogram as a map for status and result reports.
+     *
+     * @return Map of field name to value
+     */
+    public Map<String, Object> toMap() {
+        List<Object> bins = new ArrayList<>(counts.length);
+        for (long count : counts) {
+            bins.add(count);
+        }
+
+        Map<String, Object> map = new HashMap<>();
+        map.put("lower", lower);
+        map.put("upper", upper);
+        map.put("binWidth", binWidth);
+        map.put("counts", bins);
+        map.put("underflow", underflow);
+        map.put("overflow", overflow);
+        return map;
+    }
+}
@@ -0,0 +1,158 @@
+package simulation;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * OffHeapStateStore keeps the latest state vectors of one session in direct
+ * buffers outside the Java heap, so long-running sessions over large
+ * networks do not grow the old generation.
+ *
+ * Each stored vector owns a buffer sized to a power of two. Updates are
+ * copied into the existing buffer while they fit, so steady-state updates
+ * allocate nothing. Released buffers go to a shared pool, bounded in size,
+ * and are reused by other sessions instead of waiting for the collector to
+ * free them.
+ */
+public class OffHeapStateStore {
+
+    // Smallest buffer handed out, and the most memory the shared pool keeps
+    private static final int MIN_BUFFER_SIZE = 4096;
+    private static final long MAX_POOLED_BYTES = 64L << 20;
+
+    private static final Map<Integer, Queue<ByteBuffer>> pool = new ConcurrentHashMap<>();
+    private static final AtomicLong pooledBytes = new AtomicLong();
+    private static final AtomicLong bytesInUse = new AtomicLong();
+
+    private final Map<String, Slot> slots;
+    private long sessionBytes;
+
+    public OffHeapStateStore() {
+        this.slots = new HashMap<>();
+    }
+
+    /**
+     * Store a state vector, replacing the previous one under the same key.
+     *
+     * @param key The key, such as the node ID and vector name
+     * @param snapshot The states to store
+     */
+    public synchronized void put(String key, StateSnapshot snapshot) {
+        int size = snapshot.encodedSize();
+        Slot slot = slots.get(key);
+        if (slot == null || slot.buffer.capacity() < size) {
+            if (slot != null) {
+                free(slot.buffer);
+            }
+            slot = new Slot(acquire(size));
+            slots.put(key, slot);
+        }
+
+        slot.buffer.clear();
+        snapshot.writeTo(slot.buffer);
+        slot.dense = snapshot.isDense();
+        slot.baseId = snapshot.isEmpty() ? 0 : snapshot.idAt(0);
+        slot.count = snapshot.size();
+    }
+
+    /**
+     * Copy a stored state vector onto the heap.
+     *
+     * @param key The key the vector was stored under
+     * @return The states, or null if nothing is stored under the key
+     */
+    public synchronized StateSnapshot get(String key) {
+        Slot slot = slots.get(key);
+        if (slot == null) {
+            return null;
+        }
+
+        slot.buffer.clear();
+        return StateSnapshot.readFrom(slot.buffer, slot.dense, slot.baseId, slot.count);
+    }
+
+    /**
+     * Release every buffer of this store to the shared pool.
+     */
+    public synchronized void release() {
+        for (Slot slot : slots.values()) {
+            free(slot.buffer);
+        }
+        slots.clear();
+    }
+
+    /**
+     * Get the off-heap memory held by this store.
+     *
+     * @return The size of its buffers in bytes
+     */
+    public synchronized long getBytes() {
+        return sessionBytes;
+    }
+
+    /**
+     * Get the off-heap memory held by all stores.
+     *
+     * @return The size of all buffers in use in bytes
+     */
+    public static long getTotalBytes() {
+        return bytesInUse.get();
+    }
+
+    /**
+     * Get the off-heap memory kept in the pool for reuse.
+     *
+     * @return The size of pooled buffers in bytes
+     */
+    public static long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    private ByteBuffer acquire(int size) {
+        int capacity = Math.max(MIN_BUFFER_SIZE, Integer.highestOneBit(Math.max(1, size - 1)) << 1);
+        Queue<ByteBuffer> free = pool.get(capacity);
+        ByteBuffer buffer = free != null ? free.poll() : null;
+        if (buffer != null) {
+            pooledBytes.addAndGet(-capacity);
+        } else {
+            buffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+        }
+
+        sessionBytes += capacity;
+        bytesInUse.addAndGet(capacity);
+        return buffer;
+    }
+
+    private void free(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        sessionBytes -= capacity;
+        bytesInUse.addAndGet(-capacity);
+
+        // Beyond the pool limit the buffer is left to the collector
+        if (pooledBytes.addAndGet(capacity) <= MAX_POOLED_BYTES) {
+            pool.computeIfAbsent(capacity, c -> new ConcurrentLinkedQueue<>()).offer(buffer);
+        } else {
+            pooledBytes.addAndGet(-capacity);
+        }
+    }
+
+    /**
+     * A stored state vector.
+     */
+    private static class Slot {
+        private final ByteBuffer buffer;
+        private boolean dense;
+        private int baseId;
+        private int count;
+
+        public Slot(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+}
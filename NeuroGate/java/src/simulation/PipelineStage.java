@@ -0,0 +1,186 @@
+package simulation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * PipelineStage is one stage of the result pipeline: a bounded
+ * {@link RingBuffer} fed by any number of producers and drained in batches by
+ * a dedicated thread. Producers never block unless they ask to; a full queue
+ * is reported back to them, and a queue above its high-water mark is reported
+ * as backpressure so collection can slow down before anything is dropped.
+ *
+ * @param <T> The type of the items processed
+ */
+public class PipelineStage<T> {
+    private static final Logger logger = Logger.getLogger(PipelineStage.class.getName());
+
+    // How long an idle stage sleeps before checking its queue again
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    // How long a producer waiting for space sleeps between attempts
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    // Share of the capacity at which backpressure is signalled
+    private static final double HIGH_WATER_RATIO = 0.75;
+
+    private final String name;
+    private final RingBuffer<T> queue;
+    private final int batchSize;
+    private final Consumer<List<T>> handler;
+    private volatile Thread thread;
+    private volatile boolean running;
+    private volatile boolean idle;
+
+    // Stage metrics
+    private final AtomicLong processed;
+    private final AtomicLong batches;
+    private final AtomicLong failures;
+
+    /**
+     * Create a new PipelineStage. The stage does not run until started.
+     *
+     * @param name The stage name, used for its thread
+     * @param capacity The queue capacity
+     * @param batchSize The maximum number of items handed to the handler at once
+     * @param handler The handler processing each batch on the stage thread
+     */
+    public PipelineStage(String name, int capacity, int batchSize, Consumer<List<T>> handler) {
+        this.name = name;
+        this.queue = new RingBuffer<>(capacity);
+        this.batchSize = batchSize;
+        this.handler = handler;
+        this.processed = new AtomicLong();
+        this.batches = new AtomicLong();
+        this.failures = new AtomicLong();
+    }
+
+    /**
+     * Start the stage thread. The thread is created here rather than in the
+     * constructor, so it never sees a partly constructed stage.
+     */
+    public synchronized void start() {
+        if (thread != null) {
+            throw new IllegalStateException("Pipeline stage " + name + " already started");
+        }
+        Thread stageThread = new Thread(this::run, "pipeline-" + name);
+        stageThread.setDaemon(true);
+        running = true;
+        thread = stageThread;
+        stageThread.start();
+    }
+
+    /**
+     * Queue an item without waiting.
+     *
+     * @param item The item
+     * @return true if the item was queued, false if the queue is full
+     */
+    public boolean offer(T item) {
+        if (!queue.offer(item)) {
+            return false;
+        }
+        if (idle) {
+            LockSupport.unpark(thread);
+        }
+        return true;
+    }
+
+    /**
+     * Queue an item, waiting for space if the queue is full.
+     *
+     * @param item The item
+     * @param timeoutMs How long to wait for space
+     * @return true if the item was queued, false on timeout or if the stage stopped
+     */
+    public boolean put(T item, long timeoutMs) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (!offer(item)) {
+            if (!running || System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            LockSupport.parkNanos(this, FULL_PARK_NANOS);
+        }
+        return true;
+    }
+
+    /**
+     * Check whether the queue is filled beyond its high-water mark.
+     *
+     * @return true if producers should slow down
+     */
+    public boolean isBackpressured() {
+        return queue.size() >= queue.capacity() * HIGH_WATER_RATIO;
+    }
+
+    /**
+     * Stop the stage once its queue is drained.
+     *
+     * @param timeoutMs How long to wait for the queue to drain
+     */
+    public void shutdown(long timeoutMs) {
+        running = false;
+        Thread stageThread = thread;
+        if (stageThread == null) {
+            return;
+        }
+        LockSupport.unpark(stageThread);
+        try {
+            stageThread.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (stageThread.isAlive()) {
+            logger.warning("Pipeline stage " + name + " stopped with " + queue.size() + " items queued");
+        }
+    }
+
+    /**
+     * Get stage metrics.
+     *
+     * @return Map of metric name to value
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("queued", queue.size());
+        metrics.put("capacity", queue.capacity());
+        metrics.put("processed", processed.get());
+        metrics.put("batches", batches.get());
+        metrics.put("failures", failures.get());
+        metrics.put("backpressured", isBackpressured());
+        return metrics;
+    }
+
+    private void run() {
+        List<T> batch = new ArrayList<>(batchSize);
+
+        while (running || !queue.isEmpty()) {
+            if (queue.drainTo(batch, batchSize) == 0) {
+                idle = true;
+                if (running && queue.isEmpty()) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                idle = false;
+                continue;
+            }
+
+            try {
+                handler.accept(batch);
+            } catch (RuntimeException e) {
+                failures.incrementAndGet();
+                logger.warning("Pipeline stage " + name + " failed on a batch of " + batch.size() +
+                               ": " + e.getMessage());
+            }
+            processed.addAndGet(batch.size());
+            batches.incrementAndGet();
+            batch.clear();
+        }
+    }
+}
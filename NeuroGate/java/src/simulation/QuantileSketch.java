@@ -0,0 +1,237 @@
+package simulation;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * QuantileSketch estimates quantiles of a stream of values in bounded space,
+ * after the KLL sketch. Values are held in a stack of levels; an item at
+ * level h stands for 2^h values. When a level fills, it is sorted and every
+ * other item is promoted to the level above, so lower levels stay short and
+ * only the top levels approach the full size k. Two sketches merge by
+ * concatenating their levels and compacting again, which costs time in the
+ * size of the sketches rather than the number of values seen.
+ *
+ * The rank error is roughly proportional to 1/k; the default keeps it near
+ * one percent. Instances are not thread safe; callers synchronize access.
+ */
+public final class QuantileSketch {
+
+    // Default size of the top level, and the smallest any level may be
+    private static final int DEFAULT_K = 200;
+    private static final int MIN_LEVEL_CAPACITY = 8;
+
+    private final int k;
+    private float[][] levels;
+    private int[] sizes;
+    private int levelCount;
+    private long count;
+    private float min;
+    private float max;
+
+    // Picks which half of a level is promoted, so compaction is unbiased
+    private long random;
+
+    public QuantileSketch() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * Create a new QuantileSketch with a custom size.
+     *
+     * @param k The size of the top level; larger is more accurate
+     */
+    public QuantileSketch(int k) {
+        if (k < MIN_LEVEL_CAPACITY) {
+            throw new IllegalArgumentException("Sketch size must be at least " + MIN_LEVEL_CAPACITY);
+        }
+        this.k = k;
+        this.levels = new float[1][MIN_LEVEL_CAPACITY];
+        this.sizes = new int[1];
+        this.levelCount = 1;
+        this.min = Float.POSITIVE_INFINITY;
+        this.max = Float.NEGATIVE_INFINITY;
+        this.random = System.nanoTime() | 1;
+    }
+
+    /**
+     * Add a value.
+     *
+     * @param value The value to add
+     */
+    public void add(float value) {
+        count++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        append(0, value);
+        if (sizes[0] >= capacity(0)) {
+            compress();
+        }
+    }
+
+    /**
+     * Fold another sketch into this one. The other sketch is not modified.
+     *
+     * @param other The sketch to merge
+     */
+    public void merge(QuantileSketch other) {
+        if (other.count == 0) {
+            return;
+        }
+        for (int h = 0; h < other.levelCount; h++) {
+            for (int i = 0; i < other.sizes[h]; i++) {
+                append(h, other.levels[h][i]);
+            }
+        }
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        compress();
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Estimate the value at a quantile.
+     *
+     * @param q The quantile, between 0 and 1
+     * @return The estimated value, or 0 if no values were added
+     */
+    public double getQuantile(double q) {
+        if (count == 0) {
+            return 0.0;
+        }
+        if (q <= 0) {
+            return min;
+        }
+        if (q >= 1) {
+            return max;
+        }
+
+        // Sort the retained items together with their weights
+        int total = 0;
+        for (int h = 0; h < levelCount; h++) {
+            total += sizes[h];
+        }
+        long[] packed = new long[total];
+        int n = 0;
+        for (int h = 0; h < levelCount; h++) {
+            for (int i = 0; i < sizes[h]; i++) {
+                packed[n++] = ((long) sortableBits(levels[h][i]) << 32) | h;
+            }
+        }
+        Arrays.sort(packed);
+
+        long weight = 0;
+        for (long item : packed) {
+            weight += 1L << (int) (item & 0xFFFFFFFFL);
+        }
+        double target = q * weight;
+        long cumulative = 0;
+        for (long item : packed) {
+            cumulative += 1L << (int) (item & 0xFFFFFFFFL);
+            if (cumulative >= target) {
+                return fromSortableBits((int) (item >> 32));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Get the distribution as a map for status and result reports.
+     *
+     * @return Map of statistic name to value
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("count", count);
+        map.put("min", count > 0 ? (double) min : 0.0);
+        map.put("max", count > 0 ? (double) max : 0.0);
+        map.put("p10", getQuantile(0.10));
+        map.put("p50", getQuantile(0.50));
+        map.put("p90", getQuantile(0.90));
+        map.put("p99", getQuantile(0.99));
+        return map;
+    }
+
+    /**
+     * Get the number of items a level holds before it is compacted. Levels
+     * shrink geometrically below the top one.
+     */
+    private int capacity(int level) {
+        int depth = levelCount - 1 - level;
+        return Math.max(MIN_LEVEL_CAPACITY, (int) Math.ceil(k * Math.pow(2.0 / 3.0, depth)));
+    }
+
+    private void append(int level, float value) {
+        if (level >= levelCount) {
+            levels = Arrays.copyOf(levels, level + 1);
+            sizes = Arrays.copyOf(sizes, level + 1);
+            for (int h = levelCount; h <= level; h++) {
+                levels[h] = new float[MIN_LEVEL_CAPACITY];
+            }
+            levelCount = level + 1;
+        }
+        if (sizes[level] == levels[level].length) {
+            levels[level] = Arrays.copyOf(levels[level], levels[level].length * 2);
+        }
+        levels[level][sizes[level]++] = value;
+    }
+
+    /**
+     * Compact every level that has reached its capacity, from the bottom up.
+     */
+    private void compress() {
+        for (int h = 0; h < levelCount; h++) {
+            if (sizes[h] >= capacity(h)) {
+                compact(h);
+            }
+        }
+    }
+
+    /**
+     * Sort a level and promote every other item to the level above. With an
+     * odd number of items, the largest stays behind.
+     */
+    private void compact(int level) {
+        int size = sizes[level];
+        float[] items = levels[level];
+        Arrays.sort(items, 0, size);
+
+        int pairs = size & ~1;
+        int offset = nextBit();
+        for (int i = offset; i < pairs; i += 2) {
+            append(level + 1, items[i]);
+        }
+
+        if (pairs < size) {
+            items[0] = items[size - 1];
+        }
+        sizes[level] = size - pairs;
+    }
+
+    /**
+     * Get a pseudo-random bit (xorshift).
+     */
+    private int nextBit() {
+        random ^= random << 13;
+        random ^= random >>> 7;
+        random ^= random << 17;
+        return (int) (random >>> 63);
+    }
+
+    /**
+     * Map a float to an int that sorts in the same order.
+     */
+    private static int sortableBits(float value) {
+        int bits = Float.floatToIntBits(value);
+        return bits >= 0 ? bits : bits ^ 0x7FFFFFFF;
+    }
+
+    private static float fromSortableBits(int bits) {
+        return Float.intBitsToFloat(bits >= 0 ? bits : bits ^ 0x7FFFFFFF);
+    }
+}
@@ -1,60 +1,211 @@
 package simulation;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
+import db.DeltaRebuilder;
 import db.PersistenceLayer;
 
 /**
  * ResultProcessor handles processing and storing simulation results.
+ * Neuron and synapse states are carried as {@link StateSnapshot}s, so
+ * averaging and aggregation work on primitive arrays. Spike events are kept
+ * per session in a {@link SpikeRaster} rather than with the node states.
+ * 
+ * Nodes may send only the states that changed since a version the
+ * controller acknowledged. Such deltas are applied to the node's previous
+ * states here, so the running statistics and final results always see full
+ * states. A delta against a version no longer held is dropped and the
+ * node's version forgotten, so the next collection asks for full states.
+ * Deltas are stored as they arrived, tagged with their base version, as
+ * long as the node's previous results were stored; after a fixed number of
+ * deltas, and whenever the chain is broken, full states are stored instead.
+ * 
+ * Results flow through a staged pipeline so that the threads fetching them
+ * never wait on the database:
+ * <ul>
+ *   <li>ingest, on the caller's thread: delta reconstruction, then a
+ *       non-blocking hand-off to the aggregate stage;</li>
+ *   <li>aggregate, on its own thread: running and windowed statistics,
+ *       refreshed once per batch for each session in it;</li>
+ *   <li>persist, on its own thread: database writes.</li>
+ * </ul>
+ * Stages are connected by bounded lock-free {@link RingBuffer}s. When a
+ * queue fills beyond its high-water mark, {@link #isBackpressured()} tells
+ * the scheduler to slow down collection; if it fills completely, results
+ * are refused rather than blocking the caller.
+ * 
+ * Optionally, the latest states of every node are kept off-heap in an
+ * {@link OffHeapStateStore} per session, released when the session's final
+ * results are produced, so the controller heap does not grow with the size
+ * of the simulated network.
+ * 
+ * As results are aggregated they are also rolled up into coarser time
+ * buckets by a {@link Downsampler}; completed buckets are persisted next to
+ * the raw results, and raw results and rollups older than their tier's
+ * retention are pruned while the session runs.
+ * 
+ * Besides moments, each node's results are summarized by a
+ * {@link QuantileSketch} and a fixed-bin {@link Histogram} of neuron
+ * potentials and synapse weights. Both merge across nodes in time
+ * proportional to their size, so session-wide percentiles are reported
+ * without keeping every value.
  */
 public class ResultProcessor {
     private static final Logger logger = Logger.getLogger(ResultProcessor.class.getName());
     
+    // Default neuron firing threshold (neuron.threshold)
+    private static final float DEFAULT_FIRING_THRESHOLD = -55.0f;
+    
+    // Histogram ranges and bins of neuron potentials (mV) and synapse weights
+    private static final double NEURON_HISTOGRAM_LOWER = -100.0;
+    private static final double NEURON_HISTOGRAM_UPPER = 50.0;
+    private static final int NEURON_HISTOGRAM_BINS = 75;
+    private static final double SYNAPSE_HISTOGRAM_LOWER = -2.0;
+    private static final double SYNAPSE_HISTOGRAM_UPPER = 2.0;
+    private static final int SYNAPSE_HISTOGRAM_BINS = 80;
+    
+    // Version of results without a snapshot version, or of full states (keyframes)
+    private static final long NO_VERSION = -1;
+    
+    // Pipeline queue sizes and timeouts
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final int BATCH_SIZE = 64;
+    private static final long FINAL_SUBMIT_TIMEOUT_MS = 5000;
+    private static final long PERSIST_HANDOFF_TIMEOUT_MS = 60000;
+    private static final long FINAL_FLUSH_TIMEOUT_MS = 30000;
+    private static final long SHUTDOWN_TIMEOUT_MS = 10000;
+    
+    // Stored deltas of a node between stored keyframes of its full states
+    private static final int STORED_KEYFRAME_INTERVAL = 16;
+    
+    // Minimum time between pruning runs for a session
+    private static final long PRUNE_INTERVAL_MS = 10000;
+    
     private final PersistenceLayer persistenceLayer;
     private final Map<String, SessionResults> sessionResults;
+    private final Set<String> terminatedSessions;
+    private final float firingThreshold;
+    private final PipelineStage<Ingested> aggregateStage;
+    private final PipelineStage<PersistTask> persistStage;
+    private final AtomicLong droppedResults;
+    private final StateReducer reducer;
+    private final boolean offHeapStates;
+    
+    // Last pruning time per session, and the last stored results of each
+    // node per session; used by the persist stage only
+    private final Map<String, Long> lastPruned;
+    private final Map<String, Map<String, StoredVersion>> storedVersions;
     
     public ResultProcessor(PersistenceLayer persistenceLayer) {
+        this(persistenceLayer, DEFAULT_FIRING_THRESHOLD, false);
+    }
+    
+    /**
+     * Create a new ResultProcessor.
+     * 
+     * @param persistenceLayer The persistence layer results are stored in
+     * @param firingThreshold Neuron state at or above which a neuron counts as firing
+     * @param offHeapStates Whether node states are kept outside the Java heap
+     */
+    public ResultProcessor(PersistenceLayer persistenceLayer, float firingThreshold, boolean offHeapStates) {
         this.persistenceLayer = persistenceLayer;
         this.sessionResults = new ConcurrentHashMap<>();
+        this.terminatedSessions = ConcurrentHashMap.newKeySet();
+        this.firingThreshold = firingThreshold;
+        this.offHeapStates = offHeapStates;
+        this.droppedResults = new AtomicLong();
+        this.reducer = new StateReducer();
+        this.lastPruned = new HashMap<>();
+        this.storedVersions = new HashMap<>();
+        this.persistStage = new PipelineStage<>("persist", QUEUE_CAPACITY, BATCH_SIZE, this::persist);
+        this.aggregateStage = new PipelineStage<>("aggregate", QUEUE_CAPACITY, BATCH_SIZE, this::aggregate);
+        persistStage.start();
+        aggregateStage.start();
+    }
+    
+    /**
+     * Process results from a node for a specific session. Returns as soon as
+     * the results are queued for aggregation and persistence.
+     * 
+     * @param sessionId The ID of the session
+     * @param nodeId The ID of the node
+     * @param results The results data
+     * @return false if the results were dropped, because the pipeline is
+     *         full or they are a delta against states not held
+     */
+    public boolean processResults(String sessionId, String nodeId, Map<String, Object> results) {
+        return processResults(sessionId, nodeId, results, 0);
     }
     
     /**
-     * Process results from a node for a specific session.
+     * Process results from a node, waiting for room in the pipeline if it is
+     * full. Only for callers that may block, such as result stream consumers,
+     * where waiting holds back flow control credit from the node.
      * 
      * @param sessionId The ID of the session
      * @param nodeId The ID of the node
      * @param results The results data
+     * @param timeoutMs How long to wait for room in the pipeline
+     * @return false if the results were dropped, because the pipeline stayed
+     *         full, they are a delta against states not held or the session
+     *         has been terminated
      */
-    public void processResults(String sessionId, String nodeId, Map<String, Object> results) {
+    public boolean processResults(String sessionId, String nodeId, Map<String, Object> results, long timeoutMs) {
         if (sessionId == null || nodeId == null || results == null) {
             logger.warning("Invalid parameters for processResults");
-            return;
+            return false;
         }
         
-        // Get or create session results
+        // Get or create session results; terminated sessions are not recreated
         SessionResults sessionResult = sessionResults.computeIfAbsent(
-            sessionId, id -> new SessionResults(id)
+            sessionId, id -> terminatedSessions.contains(id)
+                ? null
+                : new SessionResults(id, offHeapStates, persistenceLayer.getTiers())
         );
-        
-        // Add node results
-        sessionResult.addNodeResults(nodeId, results);
-        
-        // Store results in the persistence layer
-        try {
-            persistenceLayer.storeResults(sessionId, nodeId, results);
-            logger.fine("Stored results for session " + sessionId + ", node " + nodeId);
-        } catch (Exception e) {
-            logger.warning("Failed to store results: " + e.getMessage());
+        if (sessionResult == null) {
+            logger.fine("Ignored results for terminated session " + sessionId + " from node " + nodeId);
+            return false;
         }
         
-        // Process results (analyze, aggregate, etc.)
-        processResultData(sessionId, results);
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        Ingest outcome;
+        while ((outcome = sessionResult.ingest(nodeId, results, aggregateStage)) == Ingest.FULL) {
+            if (System.currentTimeMillis() >= deadline) {
+                droppedResults.incrementAndGet();
+                logger.warning("Result pipeline full, dropped results for session " + sessionId +
+                               " from node " + nodeId);
+                return false;
+            }
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                droppedResults.incrementAndGet();
+                return false;
+            }
+        }
+        if (outcome == Ingest.STALE) {
+            droppedResults.incrementAndGet();
+            return false;
+        }
+        return true;
     }
     
     /**
-     * Process final results when a session is terminated.
+     * Process final results when a session is terminated. Final results are
+     * generated and stored once every result queued before them has been
+     * aggregated. The session is remembered as terminated, so results
+     * arriving afterwards are refused instead of starting a new session
+     * entry that would never be finalized or released.
      * 
      * @param sessionId The ID of the session
      */
@@ -64,32 +215,82 @@ public class ResultProcessor {
             return;
         }
         
-        SessionResults sessionResult = sessionResults.get(sessionId);
+        // Mark the session terminated before removing it, so no new entry can replace it
+        terminatedSessions.add(sessionId);
+        SessionResults sessionResult = sessionResults.remove(sessionId);
         if (sessionResult == null) {
             logger.warning("No results found for session " + sessionId);
             return;
         }
         
-        // Generate final aggregated results
-        Map<String, Object> finalResults = sessionResult.generateFinalResults();
-        
-        // Store final results
-        try {
-            persistenceLayer.storeFinalResults(sessionId, finalResults);
-            logger.info("Stored final results for session " + sessionId);
-        } catch (Exception e) {
-            logger.warning("Failed to store final results: " + e.getMessage());
+        if (!aggregateStage.put(Ingested.finalResults(sessionResult), FINAL_SUBMIT_TIMEOUT_MS)) {
+            logger.warning("Result pipeline full, final results for session " + sessionId + " not stored");
+            sessionResult.release();
         }
-        
-        // Clean up session results
-        sessionResults.remove(sessionId);
     }
     
     /**
-     * Get results for a specific session.
+     * Check whether the result pipeline is falling behind. Collection should
+     * slow down while this is true.
+     * 
+     * @return true if a pipeline queue or the database write queue is above its high-water mark
+     */
+    public boolean isBackpressured() {
+        return aggregateStage.isBackpressured() || persistStage.isBackpressured() ||
+               persistenceLayer.isWriteBackpressured();
+    }
+    
+    /**
+     * Get result pipeline metrics.
+     * 
+     * @return Map of stage name to its metrics, plus the database writer and
+     *         the number of dropped results
+     */
+    public Map<String, Object> getPipelineMetrics() {
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("aggregate", aggregateStage.getMetrics());
+        metrics.put("persist", persistStage.getMetrics());
+        metrics.put("writer", persistenceLayer.getWriterMetrics());
+        metrics.put("droppedResults", droppedResults.get());
+        return metrics;
+    }
+    
+    /**
+     * Get memory metrics: heap usage of the controller and the off-heap
+     * memory held for session states.
+     * 
+     * @return Map of metric name to value
+     */
+    public Map<String, Object> getMemoryMetrics() {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("heapUsed", heap.getUsed());
+        metrics.put("heapCommitted", heap.getCommitted());
+        metrics.put("heapMax", heap.getMax());
+        metrics.put("offHeapStates", offHeapStates);
+        metrics.put("offHeapBytes", OffHeapStateStore.getTotalBytes());
+        metrics.put("offHeapPooledBytes", OffHeapStateStore.getPooledBytes());
+        metrics.put("sessions", sessionResults.size());
+        return metrics;
+    }
+    
+    /**
+     * Drain the pipeline and stop its threads. Must be called before the
+     * persistence layer is shut down.
+     */
+    public void shutdown() {
+        aggregateStage.shutdown(SHUTDOWN_TIMEOUT_MS);
+        persistStage.shutdown(SHUTDOWN_TIMEOUT_MS);
+        logger.info("ResultProcessor shut down");
+    }
+    
+    /**
+     * Get results for a specific session. The running statistics are
+     * maintained as results arrive, so this does not depend on the number of
+     * nodes or states; full merged states are only built for final results.
      * 
      * @param sessionId The ID of the session
-     * @return The results data or null if not found
+     * @return The results summary or null if not found
      */
     public Map<String, Object> getSessionResults(String sessionId) {
         SessionResults sessionResult = sessionResults.get(sessionId);
@@ -98,132 +299,707 @@ public class ResultProcessor {
             return null;
         }
         
-        return sessionResult.generateFinalResults();
+        return new HashMap<>(sessionResult.getSummary());
     }
     
     /**
-     * Process result data for analysis and aggregation.
+     * Get the state version held for a node of a session, which is
+     * acknowledged to the node when collecting its next results.
      * 
      * @param sessionId The ID of the session
-     * @param results The results data
+     * @param nodeId The ID of the node
+     * @return The version, or -1 if no versioned states are held
      */
-    private void processResultData(String sessionId, Map<String, Object> results) {
-        // This is where you would implement result analysis, visualization preparation, etc.
-        // For demonstration, we'll just log some basic metrics
+    public long getSnapshotVersion(String sessionId, String nodeId) {
+        SessionResults sessionResult = sessionResults.get(sessionId);
+        return sessionResult != null ? sessionResult.getVersion(nodeId) : NO_VERSION;
+    }
+    
+    /**
+     * Get sliding-window statistics for a session: mean activity, firing rate
+     * and synapse weight drift over the last 1s, 10s and 60s.
+     * 
+     * @param sessionId The ID of the session
+     * @return Map of window name to aggregates, or null if the session has no results
+     */
+    public Map<String, Object> getWindowedStats(String sessionId) {
+        SessionResults sessionResult = sessionResults.get(sessionId);
+        if (sessionResult == null) {
+            return null;
+        }
         
-        // Extract neuron states if available
-        Map<Integer, Float> neuronStates = (Map<Integer, Float>) results.get("neuronStates");
-        if (neuronStates != null) {
-            float averageState = calculateAverageState(neuronStates);
-            logger.fine("Session " + sessionId + " average neuron state: " + averageState);
+        return sessionResult.getWindows(System.currentTimeMillis());
+    }
+    
+    /**
+     * Get the spikes a session recorded within a step range.
+     * 
+     * @param sessionId The ID of the session
+     * @param fromStep The first step, inclusive
+     * @param toStep The last step, inclusive
+     * @return The spike events, or null if the session has no results
+     */
+    public SpikeEvents getSpikes(String sessionId, long fromStep, long toStep) {
+        SessionResults sessionResult = sessionResults.get(sessionId);
+        if (sessionResult == null) {
+            return null;
+        }
+        
+        return sessionResult.spikes.getSpikes(fromStep, toStep);
+    }
+    
+    /**
+     * Aggregate stage: update statistics for a batch of ingested results and
+     * pass them on to the persist stage.
+     * 
+     * @param batch The ingested results, in arrival order
+     */
+    private void aggregate(List<Ingested> batch) {
+        Set<SessionResults> touched = new LinkedHashSet<>();
+        
+        for (Ingested item : batch) {
+            SessionResults session = item.session;
+            if (item.results == null) {
+                // Everything queued before the marker is aggregated
+                if (touched.remove(session)) {
+                    session.refresh();
+                }
+                for (Downsampler.Rollup rollup : session.flushRollups()) {
+                    handOff(new PersistTask(session.sessionId, rollup));
+                }
+                handOff(new PersistTask(session.sessionId, null, session.generateFinalResults(reducer)));
+                session.release();
+                continue;
+            }
+            
+            NodeStats stats = session.aggregate(item, firingThreshold);
+            touched.add(session);
+            processResultData(session.sessionId, stats);
+            handOff(new PersistTask(session.sessionId, item.nodeId, item.current, item.delta ? item.results : null));
+            for (Downsampler.Rollup rollup : session.downsample(item.nodeId, stats)) {
+                handOff(new PersistTask(session.sessionId, rollup));
+            }
+        }
+        
+        // Summaries are rebuilt once per batch, not once per result
+        for (SessionResults session : touched) {
+            session.refresh();
+        }
+    }
+    
+    /**
+     * Pass a task to the persist stage, waiting while its queue is full.
+     * The aggregate queue then fills in turn and signals backpressure.
+     * 
+     * @param task The task
+     */
+    private void handOff(PersistTask task) {
+        if (!persistStage.put(task, PERSIST_HANDOFF_TIMEOUT_MS)) {
+            droppedResults.incrementAndGet();
+            logger.warning("Persistence stalled, results for session " + task.sessionId + " not stored");
+        }
+    }
+    
+    /**
+     * Persist stage: store a batch of results.
+     * 
+     * @param batch The results to store
+     */
+    private void persist(List<PersistTask> batch) {
+        Set<String> active = new LinkedHashSet<>();
+        
+        for (PersistTask task : batch) {
+            try {
+                if (task.rollup != null) {
+                    persistenceLayer.storeRollup(task.sessionId, task.rollup);
+                } else if (task.nodeId == null) {
+                    // Final results are committed before the session counts as stored
+                    if (persistenceLayer.storeFinalResults(task.sessionId, task.results) &&
+                        persistenceLayer.flush(FINAL_FLUSH_TIMEOUT_MS)) {
+                        logger.info("Stored final results for session " + task.sessionId);
+                    } else {
+                        logger.warning("Final results for session " + task.sessionId + " may not have been stored");
+                    }
+                    active.remove(task.sessionId);
+                    lastPruned.remove(task.sessionId);
+                    storedVersions.remove(task.sessionId);
+                } else {
+                    Map<String, Object> stored = toStore(task);
+                    if (persistenceLayer.storeResults(task.sessionId, task.nodeId, stored)) {
+                        logger.fine("Stored results for session " + task.sessionId + ", node " + task.nodeId);
+                    } else {
+                        // The next results cannot be stored as a delta against these
+                        storedVersions.get(task.sessionId).remove(task.nodeId);
+                    }
+                    active.add(task.sessionId);
+                }
+            } catch (Exception e) {
+                logger.warning("Failed to store results: " + e.getMessage());
+            }
         }
         
-        // Extract synapse states if available
-        Map<Integer, Float> synapseStates = (Map<Integer, Float>) results.get("synapseStates");
-        if (synapseStates != null) {
-            float averageWeight = calculateAverageState(synapseStates);
-            logger.fine("Session " + sessionId + " average synapse weight: " + averageWeight);
+        // Expired results are pruned at most once per interval per session
+        long now = System.currentTimeMillis();
+        for (String sessionId : active) {
+            Long last = lastPruned.get(sessionId);
+            if (last == null || now - last >= PRUNE_INTERVAL_MS) {
+                lastPruned.put(sessionId, now);
+                try {
+                    persistenceLayer.pruneResults(sessionId, now);
+                } catch (Exception e) {
+                    logger.warning("Failed to prune results: " + e.getMessage());
+                }
+            }
         }
     }
     
     /**
-     * Calculate the average value of a map of states.
+     * Choose how to store a node's results: as the delta that arrived, if
+     * the node's previously stored results are its base and the node is not
+     * due a keyframe, and otherwise as full states.
      * 
-     * @param states The map of states
-     * @return The average value
+     * @param task The node's results
+     * @return The results to store
      */
-    private float calculateAverageState(Map<Integer, Float> states) {
-        if (states == null || states.isEmpty()) {
-            return 0.0f;
+    private Map<String, Object> toStore(PersistTask task) {
+        Map<String, StoredVersion> nodes = storedVersions.computeIfAbsent(task.sessionId, id -> new HashMap<>());
+        StoredVersion previous = nodes.get(task.nodeId);
+        long version = SessionResults.toVersion(task.results.get("version"));
+        
+        if (task.delta != null && previous != null && previous.deltas < STORED_KEYFRAME_INTERVAL &&
+            previous.version == DeltaRebuilder.baseVersion(task.delta)) {
+            nodes.put(task.nodeId, new StoredVersion(version, previous.deltas + 1));
+            return task.delta;
         }
         
-        float sum = 0.0f;
-        for (Float value : states.values()) {
-            sum += value;
+        if (version == NO_VERSION) {
+            // Unversioned results cannot be the base of a delta
+            nodes.remove(task.nodeId);
+        } else {
+            nodes.put(task.nodeId, new StoredVersion(version, 0));
         }
+        return task.results;
+    }
+    
+    /**
+     * Process result data for analysis and aggregation.
+     * 
+     * @param sessionId The ID of the session
+     * @param stats The statistics of the results just added
+     */
+    private void processResultData(String sessionId, NodeStats stats) {
+        // This is where you would implement result analysis, visualization preparation, etc.
+        // For demonstration, we'll just log some basic metrics
         
-        return sum / states.size();
+        if (stats.neurons.getCount() > 0) {
+            logger.fine("Session " + sessionId + " average neuron state: " + stats.neurons.getMean());
+        }
+        
+        if (stats.synapses.getCount() > 0) {
+            logger.fine("Session " + sessionId + " average synapse weight: " + stats.synapses.getMean());
+        }
     }
     
     /**
      * Class to hold results for a single simulation session.
+     * 
+     * Running statistics are maintained as results arrive: each node's latest
+     * states are summarized once, the per-node summaries are combined into
+     * session totals, and the resulting report is cached. Reading the report
+     * therefore costs nothing regardless of how many states the nodes hold.
+     * Every update is also recorded as a step in sliding-window statistics.
+     * Spike events go to the session's raster and are not kept per node.
+     * With an off-heap store, node states live there and the per-node
+     * results hold only their metadata.
      */
     private static class SessionResults {
         private final String sessionId;
         private final Map<String, Map<String, Object>> nodeResults;
+        private final OffHeapStateStore stateStore;
+        private final Map<String, NodeStats> nodeStats;
+        private final WindowedStats windows;
+        private final SpikeRaster spikes;
+        private final Downsampler downsampler;
         private long lastUpdateTime;
+        private long updateCount;
+        private long deltaCount;
+        private boolean released;
+        private volatile Map<String, Object> summary;
         
-        public SessionResults(String sessionId) {
+        public SessionResults(String sessionId, boolean offHeapStates, List<Downsampler.Tier> tiers) {
             this.sessionId = sessionId;
             this.nodeResults = new ConcurrentHashMap<>();
+            this.stateStore = offHeapStates ? new OffHeapStateStore() : null;
+            this.nodeStats = new HashMap<>();
+            this.windows = new WindowedStats();
+            this.spikes = new SpikeRaster();
+            this.downsampler = new Downsampler(tiers);
             this.lastUpdateTime = System.currentTimeMillis();
+            this.summary = buildSummary();
         }
         
         /**
-         * Add results from a node.
+         * Ingest results from a node: apply a delta to the node's previous
+         * states and queue the results for aggregation. The node's states
+         * only advance once the results are queued, so a refused delta can
+         * be retried. Deltas against a version not held are discarded and
+         * the node's version is forgotten, so its next results are
+         * requested as full states.
          * 
          * @param nodeId The ID of the node
          * @param results The results data
+         * @param stage The aggregate stage
+         * @return The outcome; FULL if the aggregate queue is full
          */
-        public void addNodeResults(String nodeId, Map<String, Object> results) {
-            nodeResults.put(nodeId, results);
-            lastUpdateTime = System.currentTimeMillis();
+        public synchronized Ingest ingest(String nodeId, Map<String, Object> results,
+                                           PipelineStage<Ingested> stage) {
+            // Spikes live in the raster, not with the node states
+            SpikeEvents spikeEvents = (SpikeEvents) results.remove("spikes");
+            
+            Map<String, Object> current = results;
+            boolean delta = toVersion(results.get("baseVersion")) != NO_VERSION;
+            if (delta) {
+                Map<String, Object> previous = nodeResults.get(nodeId);
+                if (previous == null || toVersion(previous.get("version")) != toVersion(results.get("baseVersion"))) {
+                    logger.warning("Dropped results for session " + sessionId + " from node " + nodeId +
+                                   ": delta against unknown version " + results.get("baseVersion"));
+                    if (previous != null) {
+                        Map<String, Object> forgotten = new HashMap<>(previous);
+                        forgotten.remove("version");
+                        nodeResults.put(nodeId, forgotten);
+                    }
+                    return Ingest.STALE;
+                }
+                current = new HashMap<>(results);
+                current.remove("baseVersion");
+                current.put("neuronStates", applyDelta(getStates(nodeId, "neuronStates"), results, "neuronStates"));
+                current.put("synapseStates", applyDelta(getStates(nodeId, "synapseStates"), results, "synapseStates"));
+            }
+            
+            if (!stage.offer(new Ingested(this, nodeId, results, current, spikeEvents, delta))) {
+                if (spikeEvents != null) {
+                    results.put("spikes", spikeEvents);
+                }
+                return Ingest.FULL;
+            }
+            retain(nodeId, current);
+            return Ingest.QUEUED;
         }
         
         /**
-         * Generate final aggregated results for this session.
+         * Keep a node's latest results, moving its states off-heap if a
+         * store is in use. Once the store is released, results that raced
+         * with the session's final results are not kept, so no buffers are
+         * acquired that would never be freed. Called with the lock held.
          * 
-         * @return The aggregated results
+         * @param nodeId The ID of the node
+         * @param current The node's full results
          */
-        public Map<String, Object> generateFinalResults() {
-            Map<String, Object> finalResults = new HashMap<>();
-            finalResults.put("sessionId", sessionId);
-            finalResults.put("timestamp", lastUpdateTime);
-            finalResults.put("nodeCount", nodeResults.size());
+        private void retain(String nodeId, Map<String, Object> current) {
+            if (stateStore == null) {
+                nodeResults.put(nodeId, current);
+                return;
+            }
+            if (released) {
+                return;
+            }
             
-            // Aggregate neuron states across all nodes
-            Map<Integer, Float> aggregatedNeuronStates = new HashMap<>();
+            Map<String, Object> metadata = new HashMap<>(current);
+            for (String key : new String[] {"neuronStates", "synapseStates"}) {
+                StateSnapshot states = (StateSnapshot) metadata.remove(key);
+                if (states != null) {
+                    stateStore.put(nodeId + "/" + key, states);
+                }
+            }
+            nodeResults.put(nodeId, metadata);
+        }
+        
+        /**
+         * Get a node's latest states.
+         * 
+         * @param nodeId The ID of the node
+         * @param key "neuronStates" or "synapseStates"
+         * @return The states, or null if none are held
+         */
+        private StateSnapshot getStates(String nodeId, String key) {
+            if (stateStore != null) {
+                return stateStore.get(nodeId + "/" + key);
+            }
+            Map<String, Object> results = nodeResults.get(nodeId);
+            return results != null ? (StateSnapshot) results.get(key) : null;
+        }
+        
+        /**
+         * Free the session's off-heap states once its final results are built.
+         */
+        public synchronized void release() {
+            released = true;
+            if (stateStore != null) {
+                stateStore.release();
+            }
+        }
+        
+        /**
+         * Add ingested results to the running statistics, replacing the
+         * node's previous contribution. The summary is refreshed separately.
+         * 
+         * @param item The ingested results
+         * @param firingThreshold Neuron state at or above which a neuron counts as firing
+         * @return The statistics of the node's new results
+         */
+        public NodeStats aggregate(Ingested item, float firingThreshold) {
+            // Summarizing the states is a full pass; it runs without the lock ingest takes
+            NodeStats stats = new NodeStats(item.current, firingThreshold);
+            
+            synchronized (this) {
+                if (item.spikes != null) {
+                    spikes.add(item.spikes);
+                }
+                nodeStats.put(item.nodeId, stats);
+                lastUpdateTime = System.currentTimeMillis();
+                updateCount++;
+                if (item.delta) {
+                    deltaCount++;
+                }
+            }
+            return stats;
+        }
+        
+        /**
+         * Roll aggregated results up into the session's time buckets.
+         * 
+         * @param nodeId The ID of the node
+         * @param stats The statistics of the node's new results
+         * @return Buckets completed by these results
+         */
+        public synchronized List<Downsampler.Rollup> downsample(String nodeId, NodeStats stats) {
+            return downsampler.record(nodeId, lastUpdateTime, stats.neurons, stats.synapses, stats.firing);
+        }
+        
+        /**
+         * Complete every open time bucket, as the session ends.
+         * 
+         * @return The open buckets
+         */
+        public synchronized List<Downsampler.Rollup> flushRollups() {
+            return downsampler.flush();
+        }
+        
+        /**
+         * Rebuild the cached summary after a batch of updates.
+         */
+        public synchronized void refresh() {
+            summary = buildSummary();
+        }
+        
+        /**
+         * Get the state version held for a node.
+         * 
+         * @param nodeId The ID of the node
+         * @return The version, or NO_VERSION
+         */
+        public long getVersion(String nodeId) {
+            Map<String, Object> results = nodeResults.get(nodeId);
+            return results != null ? toVersion(results.get("version")) : NO_VERSION;
+        }
+        
+        /**
+         * Get the sliding-window statistics as of a point in time.
+         * 
+         * @param nowMs The current time in milliseconds
+         * @return Map of window name to aggregates
+         */
+        public synchronized Map<String, Object> getWindows(long nowMs) {
+            return windows.toMap(nowMs);
+        }
+        
+        /**
+         * Get the running statistics for this session.
+         * 
+         * @return The cached summary; callers must not modify it
+         */
+        public Map<String, Object> getSummary() {
+            return summary;
+        }
+        
+        /**
+         * Generate final aggregated results for this session. The merged
+         * states replace the running statistics, which count an id once per
+         * node reporting it.
+         * Distributions are the per-node sketches and histograms merged, as
+         * in the running summary.
+         * 
+         * @param reducer The reducer merging node states, in parallel for large sessions
+         * @return The aggregated results
+         */
+        public synchronized Map<String, Object> generateFinalResults(StateReducer reducer) {
+            spikes.flush();
+            Map<String, Object> finalResults = new HashMap<>(summary);
+            finalResults.put("spikes", spikes.getStats());
             
-            // Aggregate synapse states across all nodes
-            Map<Integer, Float> aggregatedSynapseStates = new HashMap<>();
+            // Collect node snapshots, then merge them without boxing
+            List<StateSnapshot> neuronSnapshots = new ArrayList<>();
+            List<StateSnapshot> synapseSnapshots = new ArrayList<>();
             
-            for (Map<String, Object> nodeResult : nodeResults.values()) {
+            for (String nodeId : nodeResults.keySet()) {
                 // Process neuron states
-                Map<Integer, Float> neuronStates = (Map<Integer, Float>) nodeResult.get("neuronStates");
+                StateSnapshot neuronStates = getStates(nodeId, "neuronStates");
                 if (neuronStates != null) {
-                    aggregatedNeuronStates.putAll(neuronStates);
+                    neuronSnapshots.add(neuronStates);
                 }
                 
                 // Process synapse states
-                Map<Integer, Float> synapseStates = (Map<Integer, Float>) nodeResult.get("synapseStates");
+                StateSnapshot synapseStates = getStates(nodeId, "synapseStates");
                 if (synapseStates != null) {
-                    aggregatedSynapseStates.putAll(synapseStates);
+                    synapseSnapshots.add(synapseStates);
                 }
             }
             
-            finalResults.put("neuronStates", aggregatedNeuronStates);
-            finalResults.put("synapseStates", aggregatedSynapseStates);
+            StateReducer.Reduction neurons = reducer.reduce(neuronSnapshots);
+            StateReducer.Reduction synapses = reducer.reduce(synapseSnapshots);
+            finalResults.put("neuronStates", neurons.getMerged());
+            finalResults.put("synapseStates", synapses.getMerged());
+            finalResults.put("neuronStats", neurons.getStats().toMap());
+            finalResults.put("synapseStats", synapses.getStats().toMap());
+            return finalResults;
+        }
+        
+        /**
+         * Combine the per-node statistics into a session report and record
+         * the session's state as a step in the windowed statistics.
+         * Called with the lock held, once per aggregated batch.
+         */
+        private Map<String, Object> buildSummary() {
+            RunningStats neuronTotals = new RunningStats();
+            RunningStats synapseTotals = new RunningStats();
+            Distribution neuronDistribution = Distribution.forNeurons();
+            Distribution synapseDistribution = Distribution.forSynapses();
+            long firingTotal = 0;
+            Map<String, Object> nodes = new HashMap<>();
             
-            // Calculate summary metrics
-            if (!aggregatedNeuronStates.isEmpty()) {
-                float averageNeuronState = 0.0f;
-                for (Float value : aggregatedNeuronStates.values()) {
-                    averageNeuronState += value;
-                }
-                averageNeuronState /= aggregatedNeuronStates.size();
-                finalResults.put("averageNeuronState", averageNeuronState);
+            for (Map.Entry<String, NodeStats> entry : nodeStats.entrySet()) {
+                NodeStats stats = entry.getValue();
+                neuronTotals.merge(stats.neurons);
+                synapseTotals.merge(stats.synapses);
+                neuronDistribution.merge(stats.neuronDistribution);
+                synapseDistribution.merge(stats.synapseDistribution);
+                firingTotal += stats.firing;
+                
+                Map<String, Object> node = new HashMap<>();
+                node.put("timestamp", stats.timestamp);
+                node.put("neuronStats", stats.neurons.toMap());
+                node.put("synapseStats", stats.synapses.toMap());
+                node.put("neuronDistribution", stats.neuronDistribution.toMap());
+                node.put("synapseDistribution", stats.synapseDistribution.toMap());
+                nodes.put(entry.getKey(), node);
+            }
+            
+            Map<String, Object> report = new HashMap<>();
+            report.put("sessionId", sessionId);
+            report.put("timestamp", lastUpdateTime);
+            report.put("nodeCount", nodeStats.size());
+            report.put("updateCount", updateCount);
+            report.put("deltaCount", deltaCount);
+            report.put("neuronStats", neuronTotals.toMap());
+            report.put("synapseStats", synapseTotals.toMap());
+            report.put("neuronDistribution", neuronDistribution.toMap());
+            report.put("synapseDistribution", synapseDistribution.toMap());
+            report.put("nodes", nodes);
+            report.put("spikes", spikes.getStats());
+            
+            double firingRate = neuronTotals.getCount() > 0 ? (double) firingTotal / neuronTotals.getCount() : 0.0;
+            report.put("firingRate", firingRate);
+            if (!nodeStats.isEmpty()) {
+                windows.record(lastUpdateTime, neuronTotals.getMean(), firingRate, synapseTotals.getMean());
+            }
+            
+            // Summary metrics
+            if (neuronTotals.getCount() > 0) {
+                report.put("averageNeuronState", (float) neuronTotals.getMean());
+            }
+            if (synapseTotals.getCount() > 0) {
+                report.put("averageSynapseWeight", (float) synapseTotals.getMean());
             }
+            return report;
+        }
+        
+        private static StateSnapshot applyDelta(StateSnapshot base, Map<String, Object> delta, String key) {
+            StateSnapshot changes = (StateSnapshot) delta.get(key);
+            if (base == null) {
+                return changes;
+            }
+            return changes != null ? base.applyDelta(changes) : base;
+        }
+        
+        private static long toVersion(Object version) {
+            return version instanceof Number ? ((Number) version).longValue() : NO_VERSION;
+        }
+    }
+    
+    /**
+     * Outcome of ingesting results.
+     */
+    private enum Ingest {
+        // Queued for aggregation
+        QUEUED,
+        // The aggregate queue is full; may be retried
+        FULL,
+        // A delta against a version not held; dropped
+        STALE
+    }
+    
+    /**
+     * Results passed from ingest to the aggregate stage, or a marker
+     * requesting a session's final results when results is null.
+     */
+    private static class Ingested {
+        private final SessionResults session;
+        private final String nodeId;
+        private final Map<String, Object> results;
+        private final Map<String, Object> current;
+        private final SpikeEvents spikes;
+        private final boolean delta;
+        
+        public Ingested(SessionResults session, String nodeId, Map<String, Object> results,
+                        Map<String, Object> current, SpikeEvents spikes, boolean delta) {
+            this.session = session;
+            this.nodeId = nodeId;
+            this.results = results;
+            this.current = current;
+            this.spikes = spikes;
+            this.delta = delta;
+        }
+        
+        public static Ingested finalResults(SessionResults session) {
+            return new Ingested(session, null, null, null, null, false);
+        }
+    }
+    
+    /**
+     * Results passed from the aggregate to the persist stage: a rollup when
+     * one is set, otherwise final results when nodeId is null. Node results
+     * that arrived as a delta carry it next to the full results.
+     */
+    private static class PersistTask {
+        private final String sessionId;
+        private final String nodeId;
+        private final Map<String, Object> results;
+        private final Map<String, Object> delta;
+        private final Downsampler.Rollup rollup;
+        
+        public PersistTask(String sessionId, String nodeId, Map<String, Object> results) {
+            this(sessionId, nodeId, results, null);
+        }
+        
+        public PersistTask(String sessionId, String nodeId, Map<String, Object> results, Map<String, Object> delta) {
+            this.sessionId = sessionId;
+            this.nodeId = nodeId;
+            this.results = results;
+            this.delta = delta;
+            this.rollup = null;
+        }
+        
+        public PersistTask(String sessionId, Downsampler.Rollup rollup) {
+            this.sessionId = sessionId;
+            this.nodeId = rollup.getNodeId();
+            this.results = rollup.getResults();
+            this.delta = null;
+            this.rollup = rollup;
+        }
+    }
+    
+    /**
+     * The version of a node's last stored results, and the number of deltas
+     * stored since its last keyframe.
+     */
+    private static class StoredVersion {
+        private final long version;
+        private final int deltas;
+        
+        public StoredVersion(long version, int deltas) {
+            this.version = version;
+            this.deltas = deltas;
+        }
+    }
+    
+    /**
+     * Statistics of one node's latest results.
+     */
+    private static class NodeStats {
+        private final Object timestamp;
+        private final RunningStats neurons;
+        private final RunningStats synapses;
+        private final Distribution neuronDistribution;
+        private final Distribution synapseDistribution;
+        private final long firing;
+        
+        public NodeStats(Map<String, Object> results, float firingThreshold) {
+            StateSnapshot neuronStates = (StateSnapshot) results.get("neuronStates");
+            StateSnapshot synapseStates = (StateSnapshot) results.get("synapseStates");
+            this.timestamp = results.get("timestamp");
+            this.neurons = new RunningStats();
+            this.synapses = new RunningStats();
+            this.neuronDistribution = Distribution.forNeurons();
+            this.synapseDistribution = Distribution.forSynapses();
             
-            if (!aggregatedSynapseStates.isEmpty()) {
-                float averageSynapseWeight = 0.0f;
-                for (Float value : aggregatedSynapseStates.values()) {
-                    averageSynapseWeight += value;
+            // Summarize neuron states and count firing neurons in one pass
+            long firingCount = 0;
+            if (neuronStates != null) {
+                for (int i = 0; i < neuronStates.size(); i++) {
+                    float value = neuronStates.valueAt(i);
+                    neurons.add(value);
+                    neuronDistribution.add(value);
+                    if (value >= firingThreshold) {
+                        firingCount++;
+                    }
                 }
-                averageSynapseWeight /= aggregatedSynapseStates.size();
-                finalResults.put("averageSynapseWeight", averageSynapseWeight);
             }
+            this.firing = firingCount;
             
-            return finalResults;
+            if (synapseStates != null) {
+                for (int i = 0; i < synapseStates.size(); i++) {
+                    float value = synapseStates.valueAt(i);
+                    synapses.add(value);
+                    synapseDistribution.add(value);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Quantile sketch and histogram of one kind of state.
+     */
+    private static class Distribution {
+        private final QuantileSketch sketch;
+        private final Histogram histogram;
+        
+        public Distribution(double lower, double upper, int bins) {
+            this.sketch = new QuantileSketch();
+            this.histogram = new Histogram(lower, upper, bins);
+        }
+        
+        public static Distribution forNeurons() {
+            return new Distribution(NEURON_HISTOGRAM_LOWER, NEURON_HISTOGRAM_UPPER, NEURON_HISTOGRAM_BINS);
+        }
+        
+        public static Distribution forSynapses() {
+            return new Distribution(SYNAPSE_HISTOGRAM_LOWER, SYNAPSE_HISTOGRAM_UPPER, SYNAPSE_HISTOGRAM_BINS);
+        }
+        
+        public void add(float value) {
+            sketch.add(value);
+            histogram.add(value);
+        }
+        
+        public void merge(Distribution other) {
+            sketch.merge(other.sketch);
+            histogram.merge(other.histogram);
+        }
+        
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = sketch.toMap();
+            map.put("histogram", histogram.toMap());
+            return map;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,139 @@
+package simulation;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * RingBuffer is a bounded, lock-free queue for any number of producers and
+ * consumers. Every slot carries a sequence number telling whether it is free
+ * for the producer at a given position or holds an item for the consumer at
+ * that position; producers and consumers claim positions with a single
+ * compare-and-set and never block each other.
+ *
+ * @param <T> The type of the queued items
+ */
+public final class RingBuffer<T> {
+
+    private final Object[] items;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail;
+    private final AtomicLong head;
+
+    /**
+     * Create a new RingBuffer.
+     *
+     * @param capacity The minimum capacity, rounded up to a power of two
+     */
+    public RingBuffer(int capacity) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Invalid ring buffer capacity " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+
+        this.items = new Object[size];
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+        this.tail = new AtomicLong();
+        this.head = new AtomicLong();
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Add an item without waiting.
+     *
+     * @param item The item to add
+     * @return true if the item was added, false if the buffer is full
+     */
+    public boolean offer(T item) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) position & mask;
+            long available = sequences.get(index) - position;
+            if (available == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    items[index] = item;
+                    // Publish the item to consumers
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (available < 0) {
+                // The slot still holds an item from the previous lap
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Remove the oldest item without waiting.
+     *
+     * @return The item, or null if the buffer is empty
+     */
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        long position = head.get();
+        while (true) {
+            int index = (int) position & mask;
+            long available = sequences.get(index) - (position + 1);
+            if (available == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    T item = (T) items[index];
+                    items[index] = null;
+                    // Hand the slot to the producer of the next lap
+                    sequences.set(index, position + mask + 1);
+                    return item;
+                }
+                position = head.get();
+            } else if (available < 0) {
+                return null;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    /**
+     * Move up to a number of items into a list.
+     *
+     * @param batch The list to add to
+     * @param max The maximum number of items to move
+     * @return The number of items moved
+     */
+    public int drainTo(List<? super T> batch, int max) {
+        int count = 0;
+        T item;
+        while (count < max && (item = poll()) != null) {
+            batch.add(item);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Get the number of queued items. The value is a snapshot and may be
+     * stale by the time it is used.
+     *
+     * @return The number of items
+     */
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, items.length));
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return items.length;
+    }
+}
@@ -0,0 +1,123 @@
+package simulation;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * RunningStats accumulates count, mean, variance, minimum and maximum of a
+ * stream of values in constant space. Values are added with Welford's update
+ * and two accumulators can be combined exactly, so statistics for several
+ * nodes can be merged without revisiting their values.
+ */
+public final class RunningStats {
+    private long count;
+    private double mean;
+    private double m2;
+    private double min;
+    private double max;
+
+    public RunningStats() {
+        this.min = Double.POSITIVE_INFINITY;
+        this.max = Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Create statistics over all values of a snapshot.
+     *
+     * @param snapshot The snapshot to summarize
+     * @return The statistics
+     */
+    public static RunningStats of(StateSnapshot snapshot) {
+        RunningStats stats = new RunningStats();
+        for (int i = 0; i < snapshot.size(); i++) {
+            stats.add(snapshot.valueAt(i));
+        }
+        return stats;
+    }
+
+    /**
+     * Add a value.
+     *
+     * @param value The value to add
+     */
+    public void add(double value) {
+        count++;
+        double delta = value - mean;
+        mean += delta / count;
+        m2 += delta * (value - mean);
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Fold another accumulator into this one.
+     *
+     * @param other The statistics to merge
+     */
+    public void merge(RunningStats other) {
+        if (other.count == 0) {
+            return;
+        }
+        if (count == 0) {
+            count = other.count;
+            mean = other.mean;
+            m2 = other.m2;
+            min = other.min;
+            max = other.max;
+            return;
+        }
+
+        long total = count + other.count;
+        double delta = other.mean - mean;
+        mean += delta * other.count / total;
+        m2 += other.m2 + delta * delta * ((double) count * other.count / total);
+        count = total;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getSum() {
+        return mean * count;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    /**
+     * Get the population variance.
+     *
+     * @return The variance, or 0 for fewer than two values
+     */
+    public double getVariance() {
+        return count > 1 ? m2 / count : 0.0;
+    }
+
+    public double getMin() {
+        return count > 0 ? min : 0.0;
+    }
+
+    public double getMax() {
+        return count > 0 ? max : 0.0;
+    }
+
+    /**
+     * Get the statistics as a map for status and result reports.
+     *
+     * @return Map of statistic name to value
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("count", count);
+        map.put("sum", getSum());
+        map.put("mean", mean);
+        map.put("variance", getVariance());
+        map.put("min", getMin());
+        map.put("max", getMax());
+        return map;
+    }
+}
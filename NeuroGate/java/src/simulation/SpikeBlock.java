@@ -0,0 +1,214 @@
+package simulation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * SpikeBlock is an immutable, compactly encoded run of spike events.
+ *
+ * Events are ordered by step and then neuron id. Each event is written as the
+ * step delta from the previous event followed by the neuron id, both as
+ * unsigned LEB128 varints; when the step delta is zero the id is written as a
+ * delta from the previous id instead. Dense firing therefore costs one or two
+ * bytes per event rather than the twelve of a raw (id, step) pair.
+ */
+public final class SpikeBlock {
+
+    // Longest varint encoding of a 64-bit value
+    private static final int MAX_VARINT_BYTES = 10;
+
+    private final long firstStep;
+    private final long lastStep;
+    private final int count;
+    private final byte[] data;
+
+    private SpikeBlock(long firstStep, long lastStep, int count, byte[] data) {
+        this.firstStep = firstStep;
+        this.lastStep = lastStep;
+        this.count = count;
+        this.data = data;
+    }
+
+    /**
+     * Encode a batch of events. The batch does not need to be ordered.
+     *
+     * @param events The events to encode
+     * @return The encoded block
+     */
+    public static SpikeBlock encode(SpikeEvents events) {
+        int count = events.size();
+        if (count == 0) {
+            return new SpikeBlock(0, 0, 0, new byte[0]);
+        }
+
+        long firstStep = Long.MAX_VALUE;
+        long lastStep = Long.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            firstStep = Math.min(firstStep, events.stepAt(i));
+            lastStep = Math.max(lastStep, events.stepAt(i));
+        }
+        if (lastStep - firstStep > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Spike block spans too many steps: " + firstStep + "-" + lastStep);
+        }
+
+        // Order by (step, id) with one primitive sort of packed keys
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = ((events.stepAt(i) - firstStep) << 32) | (events.neuronIdAt(i) & 0xFFFFFFFFL);
+        }
+        Arrays.sort(keys);
+
+        byte[] out = new byte[count * 2 + 16];
+        int position = 0;
+        long previousStep = 0;
+        long previousId = 0;
+        for (int i = 0; i < count; i++) {
+            long step = keys[i] >>> 32;
+            long id = keys[i] & 0xFFFFFFFFL;
+            long stepDelta = step - previousStep;
+
+            if (out.length - position < 20) {
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            position = writeVarint(out, position, stepDelta);
+            position = writeVarint(out, position, stepDelta == 0 && i > 0 ? id - previousId : id);
+
+            previousStep = step;
+            previousId = id;
+        }
+
+        return new SpikeBlock(firstStep, lastStep, count, Arrays.copyOf(out, position));
+    }
+
+    /**
+     * Decode the block back into events, ordered by step and neuron id.
+     * Blocks are well formed by construction: {@link #encode} writes them and
+     * {@link #readFrom} checks those read from a buffer.
+     *
+     * @return The events
+     */
+    public SpikeEvents decode() {
+        int[] neuronIds = new int[count];
+        long[] steps = new long[count];
+
+        int position = 0;
+        long step = firstStep;
+        long id = 0;
+        for (int i = 0; i < count; i++) {
+            long stepDelta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[position++];
+                stepDelta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+
+            long value = 0;
+            shift = 0;
+            do {
+                b = data[position++];
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+
+            step += stepDelta;
+            id = stepDelta == 0 && i > 0 ? id + value : value;
+            neuronIds[i] = (int) id;
+            steps[i] = step;
+        }
+
+        return SpikeEvents.of(neuronIds, steps);
+    }
+
+    public long getFirstStep() {
+        return firstStep;
+    }
+
+    public long getLastStep() {
+        return lastStep;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Get the size of the encoded events in bytes.
+     *
+     * @return The encoded size
+     */
+    public int getEncodedSize() {
+        return data.length;
+    }
+
+    /**
+     * Write the block to a buffer.
+     *
+     * @param buffer The buffer to write to
+     */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putLong(firstStep);
+        buffer.putLong(lastStep);
+        buffer.putInt(count);
+        buffer.putInt(data.length);
+        buffer.put(data);
+    }
+
+    /**
+     * Read a block written by {@link #writeTo}.
+     *
+     * @param buffer The buffer to read from
+     * @return The block
+     * @throws IOException if the block header or its events are malformed
+     */
+    public static SpikeBlock readFrom(ByteBuffer buffer) throws IOException {
+        long firstStep = buffer.getLong();
+        long lastStep = buffer.getLong();
+        int count = buffer.getInt();
+        int length = buffer.getInt();
+        // Every event takes at least two bytes
+        if (count < 0 || length < 0 || length > buffer.remaining() || count > length / 2) {
+            throw new IOException("Invalid spike block: " + count + " events in " + length + " bytes");
+        }
+
+        byte[] data = new byte[length];
+        buffer.get(data);
+        checkEvents(data, count);
+        return new SpikeBlock(firstStep, lastStep, count, data);
+    }
+
+    /**
+     * Check that data holds exactly count events of two complete varints each,
+     * so that {@link #decode} cannot read past its end.
+     */
+    private static void checkEvents(byte[] data, int count) throws IOException {
+        int position = 0;
+        for (int i = 0; i < count * 2; i++) {
+            int start = position;
+            byte b;
+            do {
+                if (position >= data.length) {
+                    throw new IOException("Truncated spike block: event " + (i / 2) + " of " + count);
+                }
+                if (position - start >= MAX_VARINT_BYTES) {
+                    throw new IOException("Malformed varint in spike block at byte " + start);
+                }
+                b = data[position++];
+            } while (b < 0);
+        }
+        if (position != data.length) {
+            throw new IOException("Spike block has " + (data.length - position) + " bytes after its events");
+        }
+    }
+
+    private static int writeVarint(byte[] out, int position, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[position++] = (byte) value;
+        return position;
+    }
+}
@@ -0,0 +1,80 @@
+package simulation;
+
+/**
+ * SpikeEvents is a batch of firing events, each a neuron id and the simulation
+ * step it fired on, held in parallel primitive arrays.
+ */
+public final class SpikeEvents {
+
+    private static final SpikeEvents EMPTY = new SpikeEvents(new int[0], new long[0]);
+
+    private final int[] neuronIds;
+    private final long[] steps;
+
+    private SpikeEvents(int[] neuronIds, long[] steps) {
+        this.neuronIds = neuronIds;
+        this.steps = steps;
+    }
+
+    /**
+     * Get a batch with no events.
+     *
+     * @return The empty batch
+     */
+    public static SpikeEvents empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Create a batch from parallel arrays. The arrays are used directly, not copied.
+     *
+     * @param neuronIds The ids of the neurons that fired
+     * @param steps The step each neuron fired on
+     * @return The batch
+     */
+    public static SpikeEvents of(int[] neuronIds, long[] steps) {
+        if (neuronIds.length != steps.length) {
+            throw new IllegalArgumentException("Id and step counts differ: " + neuronIds.length + " != " + steps.length);
+        }
+        return neuronIds.length == 0 ? EMPTY : new SpikeEvents(neuronIds, steps);
+    }
+
+    /**
+     * Create a batch from interleaved (neuron id, step) pairs, as returned by
+     * the native core.
+     *
+     * @param pairs The interleaved pairs
+     * @return The batch
+     */
+    public static SpikeEvents fromPairs(int[] pairs) {
+        int count = pairs.length / 2;
+        int[] neuronIds = new int[count];
+        long[] steps = new long[count];
+        for (int i = 0; i < count; i++) {
+            neuronIds[i] = pairs[i * 2];
+            steps[i] = pairs[i * 2 + 1];
+        }
+        return of(neuronIds, steps);
+    }
+
+    public int size() {
+        return neuronIds.length;
+    }
+
+    public boolean isEmpty() {
+        return neuronIds.length == 0;
+    }
+
+    public int neuronIdAt(int index) {
+        return neuronIds[index];
+    }
+
+    public long stepAt(int index) {
+        return steps[index];
+    }
+
+    @Override
+    public String toString() {
+        return "SpikeEvents[size=" + neuronIds.length + "]";
+    }
+}
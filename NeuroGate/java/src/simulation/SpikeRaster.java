@@ -0,0 +1,186 @@
+package simulation;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * SpikeRaster stores every spike of a session at full step resolution.
+ *
+ * Incoming events are grouped into fixed windows of steps. The newest two
+ * windows stay open so nodes reporting slightly out of step can still add to
+ * them; older windows are sealed into delta and varint encoded
+ * {@link SpikeBlock}s. Only a bounded number of sealed blocks is kept.
+ *
+ * Instances are thread safe.
+ */
+public class SpikeRaster {
+
+    // Default window length and retention
+    private static final long DEFAULT_WINDOW_STEPS = 1000;
+    private static final int DEFAULT_MAX_BLOCKS = 1024;
+
+    private final long windowSteps;
+    private final int maxBlocks;
+    private final TreeMap<Long, WindowBuilder> open;
+    private final Deque<SpikeBlock> sealed;
+    private long latestWindow;
+    private long totalEvents;
+    private long encodedBytes;
+    private long droppedBlocks;
+
+    /**
+     * Create a new SpikeRaster with default settings.
+     */
+    public SpikeRaster() {
+        this(DEFAULT_WINDOW_STEPS, DEFAULT_MAX_BLOCKS);
+    }
+
+    /**
+     * Create a new SpikeRaster with custom settings.
+     *
+     * @param windowSteps The number of steps per encoded block
+     * @param maxBlocks The number of sealed blocks kept before the oldest is dropped
+     */
+    public SpikeRaster(long windowSteps, int maxBlocks) {
+        if (windowSteps <= 0 || maxBlocks <= 0) {
+            throw new IllegalArgumentException("Window length and block limit must be positive");
+        }
+        this.windowSteps = windowSteps;
+        this.maxBlocks = maxBlocks;
+        this.open = new TreeMap<>();
+        this.sealed = new ArrayDeque<>();
+        this.latestWindow = Long.MIN_VALUE;
+    }
+
+    /**
+     * Add spike events.
+     *
+     * @param events The events to add
+     */
+    public synchronized void add(SpikeEvents events) {
+        if (events.isEmpty()) {
+            return;
+        }
+
+        for (int i = 0; i < events.size(); i++) {
+            long step = events.stepAt(i);
+            long window = Math.floorDiv(step, windowSteps);
+            open.computeIfAbsent(window, w -> new WindowBuilder()).add(events.neuronIdAt(i), step);
+            latestWindow = Math.max(latestWindow, window);
+        }
+        totalEvents += events.size();
+
+        // Seal everything but the two newest windows
+        while (!open.isEmpty() && open.firstKey() < latestWindow - 1) {
+            seal(open.pollFirstEntry().getValue());
+        }
+    }
+
+    /**
+     * Seal all open windows, for example when the session ends.
+     */
+    public synchronized void flush() {
+        while (!open.isEmpty()) {
+            seal(open.pollFirstEntry().getValue());
+        }
+    }
+
+    /**
+     * Get the spikes within a step range, ordered by step and neuron id.
+     *
+     * @param fromStep The first step, inclusive
+     * @param toStep The last step, inclusive
+     * @return The matching events
+     */
+    public synchronized SpikeEvents getSpikes(long fromStep, long toStep) {
+        WindowBuilder matches = new WindowBuilder();
+
+        for (SpikeBlock block : sealed) {
+            if (block.getLastStep() < fromStep || block.getFirstStep() > toStep) {
+                continue;
+            }
+            SpikeEvents events = block.decode();
+            for (int i = 0; i < events.size(); i++) {
+                matches.addIfInRange(events.neuronIdAt(i), events.stepAt(i), fromStep, toStep);
+            }
+        }
+        for (WindowBuilder builder : open.values()) {
+            for (int i = 0; i < builder.size; i++) {
+                matches.addIfInRange(builder.ids[i], builder.steps[i], fromStep, toStep);
+            }
+        }
+
+        // Encoding orders the events; decode to hand them back sorted
+        return matches.size == 0 ? SpikeEvents.empty() : SpikeBlock.encode(matches.toEvents()).decode();
+    }
+
+    /**
+     * Get storage statistics.
+     *
+     * @return Map of statistic name to value
+     */
+    public synchronized Map<String, Object> getStats() {
+        long sealedEvents = 0;
+        for (SpikeBlock block : sealed) {
+            sealedEvents += block.getCount();
+        }
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("events", totalEvents);
+        stats.put("blocks", sealed.size());
+        stats.put("openWindows", open.size());
+        stats.put("encodedBytes", encodedBytes);
+        stats.put("bytesPerEvent", sealedEvents == 0 ? 0.0 : (double) encodedBytes / sealedEvents);
+        stats.put("droppedBlocks", droppedBlocks);
+        return stats;
+    }
+
+    private void seal(WindowBuilder builder) {
+        SpikeBlock block = SpikeBlock.encode(builder.toEvents());
+        sealed.addLast(block);
+        encodedBytes += block.getEncodedSize();
+
+        while (sealed.size() > maxBlocks) {
+            encodedBytes -= sealed.removeFirst().getEncodedSize();
+            droppedBlocks++;
+        }
+    }
+
+    /**
+     * Growable primitive buffer of events for one window.
+     */
+    private static class WindowBuilder {
+        private int[] ids;
+        private long[] steps;
+        private int size;
+
+        public WindowBuilder() {
+            this.ids = new int[64];
+            this.steps = new long[64];
+        }
+
+        void add(int id, long step) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                steps = Arrays.copyOf(steps, size * 2);
+            }
+            ids[size] = id;
+            steps[size] = step;
+            size++;
+        }
+
+        void addIfInRange(int id, long step, long fromStep, long toStep) {
+            if (step >= fromStep && step <= toStep) {
+                add(id, step);
+            }
+        }
+
+        SpikeEvents toEvents() {
+            return SpikeEvents.of(Arrays.copyOf(ids, size), Arrays.copyOf(steps, size));
+        }
+    }
+}
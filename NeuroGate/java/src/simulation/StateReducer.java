@@ -0,0 +1,156 @@
+package simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * StateReducer merges the state snapshots of a session's nodes and
+ * summarizes the merged states. Large inputs are partitioned by id range
+ * and reduced on a fork-join pool: each partition is merged and summarized
+ * independently, and partition results are joined in id order with their
+ * statistics combined exactly. Inputs below a size threshold are reduced
+ * sequentially, where splitting would cost more than it saves.
+ */
+public class StateReducer {
+
+    // States below which a reduction or partition is not split further
+    private static final int DEFAULT_SEQUENTIAL_THRESHOLD = 1 << 16;
+
+    private final ForkJoinPool pool;
+    private final int sequentialThreshold;
+
+    /**
+     * Create a new StateReducer using the common pool.
+     */
+    public StateReducer() {
+        this(ForkJoinPool.commonPool(), DEFAULT_SEQUENTIAL_THRESHOLD);
+    }
+
+    /**
+     * Create a new StateReducer with custom settings.
+     *
+     * @param pool The pool partitions are reduced on
+     * @param sequentialThreshold The number of states below which work is not split
+     */
+    public StateReducer(ForkJoinPool pool, int sequentialThreshold) {
+        if (sequentialThreshold <= 0) {
+            throw new IllegalArgumentException("Sequential threshold must be positive");
+        }
+        this.pool = pool;
+        this.sequentialThreshold = sequentialThreshold;
+    }
+
+    /**
+     * Merge snapshots and summarize the merged states. Where the same id
+     * appears more than once, the later snapshot wins.
+     *
+     * @param snapshots The snapshots to merge, in order
+     * @return The merged states and their statistics
+     */
+    public Reduction reduce(List<StateSnapshot> snapshots) {
+        long total = 0;
+        long minId = Long.MAX_VALUE;
+        long maxId = Long.MIN_VALUE;
+        for (StateSnapshot snapshot : snapshots) {
+            if (snapshot.isEmpty()) {
+                continue;
+            }
+            total += snapshot.size();
+            minId = Math.min(minId, snapshot.idAt(0));
+            maxId = Math.max(maxId, snapshot.idAt(snapshot.size() - 1));
+        }
+
+        if (total <= sequentialThreshold) {
+            StateSnapshot merged = StateSnapshot.merge(snapshots);
+            return new Reduction(merged, RunningStats.of(merged));
+        }
+
+        Partition result = pool.invoke(new PartitionTask(snapshots, minId, maxId + 1, total));
+        return new Reduction(StateSnapshot.concat(result.parts), result.stats);
+    }
+
+    /**
+     * Merged states with their statistics.
+     */
+    public static class Reduction {
+        private final StateSnapshot merged;
+        private final RunningStats stats;
+
+        public Reduction(StateSnapshot merged, RunningStats stats) {
+            this.merged = merged;
+            this.stats = stats;
+        }
+
+        public StateSnapshot getMerged() {
+            return merged;
+        }
+
+        public RunningStats getStats() {
+            return stats;
+        }
+    }
+
+    /**
+     * Merged states of one or more adjacent id ranges, in id order.
+     */
+    private static class Partition {
+        private final List<StateSnapshot> parts;
+        private final RunningStats stats;
+
+        public Partition(List<StateSnapshot> parts, RunningStats stats) {
+            this.parts = parts;
+            this.stats = stats;
+        }
+    }
+
+    /**
+     * Reduce the states within an id range, splitting the range in half
+     * while it holds more states than the threshold.
+     */
+    // Serializable only through RecursiveTask; tasks are never serialized
+    @SuppressWarnings("serial")
+    private class PartitionTask extends RecursiveTask<Partition> {
+        private final List<StateSnapshot> snapshots;
+        private final long fromId;
+        private final long toId;
+        private final long count;
+
+        public PartitionTask(List<StateSnapshot> snapshots, long fromId, long toId, long count) {
+            this.snapshots = snapshots;
+            this.fromId = fromId;
+            this.toId = toId;
+            this.count = count;
+        }
+
+        @Override
+        protected Partition compute() {
+            if (count <= sequentialThreshold || toId - fromId < 2) {
+                StateSnapshot merged = StateSnapshot.mergeRange(snapshots, fromId, toId);
+                List<StateSnapshot> parts = new ArrayList<>();
+                parts.add(merged);
+                return new Partition(parts, RunningStats.of(merged));
+            }
+
+            long middle = fromId + (toId - fromId) / 2;
+            PartitionTask left = new PartitionTask(snapshots, fromId, middle, countBetween(fromId, middle));
+            PartitionTask right = new PartitionTask(snapshots, middle, toId, countBetween(middle, toId));
+            left.fork();
+            Partition upper = right.compute();
+            Partition lower = left.join();
+
+            lower.parts.addAll(upper.parts);
+            lower.stats.merge(upper.stats);
+            return lower;
+        }
+
+        private long countBetween(long from, long to) {
+            long total = 0;
+            for (StateSnapshot snapshot : snapshots) {
+                total += snapshot.lowerBound(to) - snapshot.lowerBound(from);
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,476 @@
+package simulation;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * StateSnapshot holds the neuron or synapse states reported for one step in
+ * primitive arrays. States with contiguous ids are stored densely as a base id
+ * and a value array; otherwise ids and values are kept in parallel arrays
+ * sorted by id. Neither form boxes ids or values.
+ *
+ * Snapshots are immutable once created.
+ */
+public final class StateSnapshot {
+
+    private static final StateSnapshot EMPTY = new StateSnapshot(0, null, new float[0]);
+
+    // Merge densely when the id range is at most this many times the state count
+    private static final int DENSE_SPAN_FACTOR = 2;
+
+    private final int baseId;
+    private final int[] ids;
+    private final float[] values;
+
+    private StateSnapshot(int baseId, int[] ids, float[] values) {
+        this.baseId = baseId;
+        this.ids = ids;
+        this.values = values;
+    }
+
+    /**
+     * Get a snapshot with no states.
+     *
+     * @return The empty snapshot
+     */
+    public static StateSnapshot empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Create a dense snapshot. The array is used directly, not copied.
+     *
+     * @param baseId The id of the first state
+     * @param values The state values, one per consecutive id
+     * @return The snapshot
+     */
+    public static StateSnapshot dense(int baseId, float[] values) {
+        return new StateSnapshot(baseId, null, values);
+    }
+
+    /**
+     * Create a sparse snapshot. The arrays are used directly if the ids are
+     * strictly ascending; otherwise sorted copies are made and, of duplicate
+     * ids, the last one is kept.
+     *
+     * @param ids The state ids
+     * @param values The state values, parallel to ids
+     * @return The snapshot
+     */
+    public static StateSnapshot sparse(int[] ids, float[] values) {
+        if (ids.length != values.length) {
+            throw new IllegalArgumentException("Id and value counts differ: " + ids.length + " != " + values.length);
+        }
+        StateSnapshot snapshot = new StateSnapshot(0, ids, values);
+        return isAscending(ids) ? snapshot
+            : mergeSorted(List.of(snapshot), new int[] {0}, new int[] {ids.length}, ids.length);
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    public boolean isEmpty() {
+        return values.length == 0;
+    }
+
+    public boolean isDense() {
+        return ids == null;
+    }
+
+    /**
+     * Get the id of the state at an index.
+     *
+     * @param index The index, from 0 to size() - 1
+     * @return The state id
+     */
+    public int idAt(int index) {
+        return ids == null ? baseId + index : ids[index];
+    }
+
+    /**
+     * Get the value of the state at an index.
+     *
+     * @param index The index, from 0 to size() - 1
+     * @return The state value
+     */
+    public float valueAt(int index) {
+        return values[index];
+    }
+
+    /**
+     * Look up the value of a state by id.
+     *
+     * @param id The state id
+     * @param defaultValue The value to return if the id is not present
+     * @return The state value
+     */
+    public float get(int id, float defaultValue) {
+        int index = indexOf(id);
+        return index >= 0 ? values[index] : defaultValue;
+    }
+
+    /**
+     * Check whether a state id is present.
+     *
+     * @param id The state id
+     * @return true if the snapshot has a value for the id
+     */
+    public boolean contains(int id) {
+        return indexOf(id) >= 0;
+    }
+
+    /**
+     * Sum all state values.
+     *
+     * @return The sum, accumulated in double precision
+     */
+    public double sum() {
+        double sum = 0.0;
+        for (float value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    /**
+     * Calculate the average state value.
+     *
+     * @return The average, or 0 if the snapshot is empty
+     */
+    public float average() {
+        return values.length == 0 ? 0.0f : (float) (sum() / values.length);
+    }
+
+    /**
+     * Merge snapshots, for example from the nodes a session is spread over.
+     * Where the same id appears more than once, the later snapshot wins.
+     *
+     * @param snapshots The snapshots to merge, in order
+     * @return The merged snapshot
+     */
+    public static StateSnapshot merge(List<StateSnapshot> snapshots) {
+        if (snapshots.isEmpty()) {
+            return EMPTY;
+        }
+        if (snapshots.size() == 1) {
+            return snapshots.get(0);
+        }
+
+        return mergeRange(snapshots, Integer.MIN_VALUE, Integer.MAX_VALUE + 1L);
+    }
+
+    /**
+     * Merge the states of snapshots whose ids fall within a range.
+     *
+     * @param snapshots The snapshots to merge, in order
+     * @param fromId The first id, inclusive
+     * @param toId The last id, exclusive
+     * @return The merged states in the range
+     */
+    static StateSnapshot mergeRange(List<StateSnapshot> snapshots, long fromId, long toId) {
+        int[] starts = new int[snapshots.size()];
+        int[] ends = new int[snapshots.size()];
+        long total = 0;
+        long minId = Long.MAX_VALUE;
+        long maxId = Long.MIN_VALUE;
+        for (int s = 0; s < snapshots.size(); s++) {
+            StateSnapshot snapshot = snapshots.get(s);
+            starts[s] = snapshot.lowerBound(fromId);
+            ends[s] = snapshot.lowerBound(toId);
+            if (starts[s] == ends[s]) {
+                continue;
+            }
+            total += ends[s] - starts[s];
+            minId = Math.min(minId, snapshot.idAt(starts[s]));
+            maxId = Math.max(maxId, snapshot.idAt(ends[s] - 1));
+        }
+        if (total == 0) {
+            return EMPTY;
+        }
+
+        long span = maxId - minId + 1;
+        if (span <= total * DENSE_SPAN_FACTOR && span <= Integer.MAX_VALUE - 8) {
+            return mergeDense(snapshots, starts, ends, (int) minId, (int) span);
+        }
+        return mergeSorted(snapshots, starts, ends, (int) total);
+    }
+
+    /**
+     * Join snapshots covering ascending, disjoint id ranges, such as the
+     * partitions produced by {@link #mergeRange}.
+     *
+     * @param parts The snapshots, ordered by id range
+     * @return The joined snapshot
+     */
+    static StateSnapshot concat(List<StateSnapshot> parts) {
+        int total = 0;
+        boolean contiguous = true;
+        StateSnapshot previous = null;
+        for (StateSnapshot part : parts) {
+            if (part.isEmpty()) {
+                continue;
+            }
+            total += part.size();
+            contiguous &= part.isDense()
+                && (previous == null || part.baseId == previous.baseId + previous.size());
+            previous = part;
+        }
+        if (total == 0) {
+            return EMPTY;
+        }
+
+        float[] values = new float[total];
+        int[] ids = contiguous ? null : new int[total];
+        int position = 0;
+        int baseId = 0;
+        for (StateSnapshot part : parts) {
+            if (part.isEmpty()) {
+                continue;
+            }
+            if (position == 0) {
+                baseId = part.idAt(0);
+            }
+            System.arraycopy(part.values, 0, values, position, part.size());
+            if (ids != null) {
+                for (int i = 0; i < part.size(); i++) {
+                    ids[position + i] = part.idAt(i);
+                }
+            }
+            position += part.size();
+        }
+        return new StateSnapshot(baseId, ids, values);
+    }
+
+    /**
+     * Get the number of bytes {@link #writeTo} writes.
+     *
+     * @return The encoded size in bytes
+     */
+    int encodedSize() {
+        return values.length * 4 + (ids == null ? 0 : ids.length * 4);
+    }
+
+    /**
+     * Bulk copy the ids (sparse snapshots only) and values into a buffer.
+     *
+     * @param buffer The buffer to write to, advanced past the states
+     */
+    public void writeTo(ByteBuffer buffer) {
+        if (ids != null) {
+            buffer.asIntBuffer().put(ids);
+            buffer.position(buffer.position() + ids.length * 4);
+        }
+        writeValuesTo(buffer);
+    }
+
+    /**
+     * Bulk copy the values alone into a buffer, for states whose ids are
+     * known to be consecutive.
+     *
+     * @param buffer The buffer to write to, advanced past the values
+     */
+    public void writeValuesTo(ByteBuffer buffer) {
+        buffer.asFloatBuffer().put(values);
+        buffer.position(buffer.position() + values.length * 4);
+    }
+
+    /**
+     * Read states written by {@link #writeTo}.
+     *
+     * @param buffer The buffer to read from, advanced past the states
+     * @param dense Whether the states were written from a dense snapshot
+     * @param baseId The id of the first state of a dense snapshot
+     * @param count The number of states
+     * @return The snapshot
+     */
+    static StateSnapshot readFrom(ByteBuffer buffer, boolean dense, int baseId, int count) {
+        int[] ids = null;
+        if (!dense) {
+            ids = new int[count];
+            buffer.asIntBuffer().get(ids);
+            buffer.position(buffer.position() + count * 4);
+        }
+        float[] values = new float[count];
+        buffer.asFloatBuffer().get(values);
+        buffer.position(buffer.position() + count * 4);
+        return count == 0 ? EMPTY : new StateSnapshot(baseId, ids, values);
+    }
+
+    /**
+     * Find the index of the first state with an id at or above the given one.
+     *
+     * @param id The id
+     * @return The index, or size() if every id is below it
+     */
+    int lowerBound(long id) {
+        if (ids == null) {
+            return (int) Math.max(0, Math.min(values.length, id - baseId));
+        }
+        if (id > Integer.MAX_VALUE) {
+            return ids.length;
+        }
+        int index = Arrays.binarySearch(ids, (int) Math.max(Integer.MIN_VALUE, id));
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * Compute the states that differ between two snapshots: ids whose value
+     * changed and ids not present in the base. Ids missing from the current
+     * snapshot are not represented, so applying the delta to the base with
+     * {@link #applyDelta} yields the current snapshot as long as ids are only
+     * ever added.
+     *
+     * @param base The snapshot the receiver already holds
+     * @param current The new snapshot
+     * @return The changed states, sorted by id
+     */
+    public static StateSnapshot diff(StateSnapshot base, StateSnapshot current) {
+        int[] ids = new int[current.size()];
+        float[] values = new float[current.size()];
+        int n = 0;
+        int j = 0;
+
+        // Both snapshots are sorted by id, so walk them together
+        for (int i = 0; i < current.size(); i++) {
+            int id = current.idAt(i);
+            while (j < base.size() && base.idAt(j) < id) {
+                j++;
+            }
+            boolean same = j < base.size() && base.idAt(j) == id
+                && Float.floatToIntBits(base.values[j]) == Float.floatToIntBits(current.values[i]);
+            if (!same) {
+                ids[n] = id;
+                values[n] = current.values[i];
+                n++;
+            }
+        }
+
+        return n == 0 ? EMPTY : new StateSnapshot(0, Arrays.copyOf(ids, n), Arrays.copyOf(values, n));
+    }
+
+    /**
+     * Apply a delta produced by {@link #diff} to this snapshot.
+     *
+     * @param delta The changed states
+     * @return The updated snapshot; this one is left unchanged
+     */
+    public StateSnapshot applyDelta(StateSnapshot delta) {
+        return delta.isEmpty() ? this : merge(List.of(this, delta));
+    }
+
+    /**
+     * Merge into an array covering the whole id range, then compact it if
+     * some ids turned out to be missing.
+     */
+    private static StateSnapshot mergeDense(List<StateSnapshot> snapshots, int[] starts, int[] ends,
+                                            int minId, int span) {
+        float[] merged = new float[span];
+        boolean[] present = new boolean[span];
+        int count = 0;
+
+        for (int s = 0; s < snapshots.size(); s++) {
+            StateSnapshot snapshot = snapshots.get(s);
+            if (starts[s] == ends[s]) {
+                continue;
+            }
+            if (snapshot.isDense()) {
+                int offset = snapshot.baseId + starts[s] - minId;
+                int length = ends[s] - starts[s];
+                System.arraycopy(snapshot.values, starts[s], merged, offset, length);
+                for (int i = 0; i < length; i++) {
+                    if (!present[offset + i]) {
+                        present[offset + i] = true;
+                        count++;
+                    }
+                }
+            } else {
+                for (int i = starts[s]; i < ends[s]; i++) {
+                    int offset = snapshot.ids[i] - minId;
+                    merged[offset] = snapshot.values[i];
+                    if (!present[offset]) {
+                        present[offset] = true;
+                        count++;
+                    }
+                }
+            }
+        }
+
+        if (count == span) {
+            return dense(minId, merged);
+        }
+
+        int[] ids = new int[count];
+        float[] values = new float[count];
+        int n = 0;
+        for (int i = 0; i < span; i++) {
+            if (present[i]) {
+                ids[n] = minId + i;
+                values[n] = merged[i];
+                n++;
+            }
+        }
+        return new StateSnapshot(0, ids, values);
+    }
+
+    /**
+     * Merge widely scattered ids by sorting (id, position) keys packed into
+     * longs; for duplicate ids the highest position, i.e. the latest value, wins.
+     */
+    private static StateSnapshot mergeSorted(List<StateSnapshot> snapshots, int[] starts, int[] ends, int total) {
+        long[] keys = new long[total];
+        float[] all = new float[total];
+        int position = 0;
+
+        for (int s = 0; s < snapshots.size(); s++) {
+            StateSnapshot snapshot = snapshots.get(s);
+            for (int i = starts[s]; i < ends[s]; i++) {
+                keys[position] = ((long) snapshot.idAt(i) << 32) | position;
+                all[position] = snapshot.values[i];
+                position++;
+            }
+        }
+        Arrays.sort(keys);
+
+        int[] ids = new int[total];
+        float[] values = new float[total];
+        int n = 0;
+        for (int i = 0; i < total; i++) {
+            int id = (int) (keys[i] >> 32);
+            if (i + 1 < total && (int) (keys[i + 1] >> 32) == id) {
+                // A later duplicate follows
+                continue;
+            }
+            ids[n] = id;
+            values[n] = all[(int) keys[i]];
+            n++;
+        }
+
+        return new StateSnapshot(0, n == total ? ids : Arrays.copyOf(ids, n),
+                                 n == total ? values : Arrays.copyOf(values, n));
+    }
+
+    private int indexOf(int id) {
+        if (ids == null) {
+            long offset = (long) id - baseId;
+            return offset >= 0 && offset < values.length ? (int) offset : -1;
+        }
+        int index = Arrays.binarySearch(ids, id);
+        return index >= 0 ? index : -1;
+    }
+
+    private static boolean isAscending(int[] ids) {
+        for (int i = 1; i < ids.length; i++) {
+            if (ids[i] <= ids[i - 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "StateSnapshot[size=" + values.length + (ids == null ? ", dense from " + baseId : ", sparse") + "]";
+    }
+}
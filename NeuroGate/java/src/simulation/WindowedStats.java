@@ -0,0 +1,206 @@
+package simulation;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * WindowedStats keeps a ring buffer of per-step summaries for one session and
+ * maintains sliding-window aggregates over it (by default the last 1s, 10s and
+ * 60s). Each window tracks the oldest entry it still covers together with
+ * running sums, so recording a step and reading a window are amortized O(1)
+ * and neither allocates.
+ *
+ * Instances are not thread safe; callers synchronize access.
+ */
+public class WindowedStats {
+
+    // Default ring size and window lengths
+    private static final int DEFAULT_CAPACITY = 4096;
+    private static final long[] DEFAULT_WINDOWS = {1000, 10000, 60000};
+
+    private final long[] windowsMs;
+    private final long[] times;
+    private final double[] activity;
+    private final double[] firing;
+    private final double[] weight;
+    private final int capacity;
+    private int head;
+    private int size;
+
+    // Per-window state: oldest covered entry, entry count and running sums
+    private final int[] tails;
+    private final int[] counts;
+    private final double[] activitySums;
+    private final double[] firingSums;
+
+    /**
+     * Create a new WindowedStats with the default capacity and windows.
+     */
+    public WindowedStats() {
+        this(DEFAULT_CAPACITY, DEFAULT_WINDOWS);
+    }
+
+    /**
+     * Create a new WindowedStats with custom settings.
+     *
+     * @param capacity The number of step summaries kept
+     * @param windowsMs The window lengths in milliseconds
+     */
+    public WindowedStats(int capacity, long[] windowsMs) {
+        if (capacity <= 0 || windowsMs.length == 0) {
+            throw new IllegalArgumentException("Capacity and windows must be non-empty");
+        }
+        this.capacity = capacity;
+        this.windowsMs = windowsMs.clone();
+        this.times = new long[capacity];
+        this.activity = new double[capacity];
+        this.firing = new double[capacity];
+        this.weight = new double[capacity];
+        this.tails = new int[windowsMs.length];
+        this.counts = new int[windowsMs.length];
+        this.activitySums = new double[windowsMs.length];
+        this.firingSums = new double[windowsMs.length];
+    }
+
+    /**
+     * Record the summary of one step.
+     *
+     * @param timeMs The time of the step in milliseconds
+     * @param meanActivity The mean neuron state
+     * @param firingRate The fraction of neurons at or above the firing threshold
+     * @param meanWeight The mean synapse weight
+     */
+    public void record(long timeMs, double meanActivity, double firingRate, double meanWeight) {
+        if (size == capacity) {
+            // The oldest entry is about to be overwritten; drop it from every window
+            for (int w = 0; w < windowsMs.length; w++) {
+                if (counts[w] > 0 && tails[w] == head) {
+                    evictOldest(w);
+                }
+            }
+        } else {
+            size++;
+        }
+
+        times[head] = timeMs;
+        activity[head] = meanActivity;
+        firing[head] = firingRate;
+        weight[head] = meanWeight;
+
+        for (int w = 0; w < windowsMs.length; w++) {
+            if (counts[w] == 0) {
+                tails[w] = head;
+            }
+            counts[w]++;
+            activitySums[w] += meanActivity;
+            firingSums[w] += firingRate;
+        }
+        head = (head + 1) % capacity;
+
+        expire(timeMs);
+    }
+
+    /**
+     * Drop entries that have fallen out of their windows.
+     *
+     * @param nowMs The current time in milliseconds
+     */
+    public void expire(long nowMs) {
+        for (int w = 0; w < windowsMs.length; w++) {
+            long cutoff = nowMs - windowsMs[w];
+            while (counts[w] > 0 && times[tails[w]] <= cutoff) {
+                evictOldest(w);
+            }
+        }
+    }
+
+    public int getWindowCount() {
+        return windowsMs.length;
+    }
+
+    public long getWindowMs(int window) {
+        return windowsMs[window];
+    }
+
+    /**
+     * Get the number of steps in a window.
+     *
+     * @param window The window index
+     * @return The step count
+     */
+    public int getCount(int window) {
+        return counts[window];
+    }
+
+    /**
+     * Get the mean neuron activity over a window.
+     *
+     * @param window The window index
+     * @return The mean activity, or 0 if the window is empty
+     */
+    public double getMeanActivity(int window) {
+        return counts[window] == 0 ? 0.0 : activitySums[window] / counts[window];
+    }
+
+    /**
+     * Get the mean firing rate over a window.
+     *
+     * @param window The window index
+     * @return The mean fraction of firing neurons, or 0 if the window is empty
+     */
+    public double getFiringRate(int window) {
+        return counts[window] == 0 ? 0.0 : firingSums[window] / counts[window];
+    }
+
+    /**
+     * Get the change in mean synapse weight across a window.
+     *
+     * @param window The window index
+     * @return Newest minus oldest mean weight, or 0 if the window is empty
+     */
+    public double getWeightDrift(int window) {
+        if (counts[window] == 0) {
+            return 0.0;
+        }
+        int newest = (head - 1 + capacity) % capacity;
+        return weight[newest] - weight[tails[window]];
+    }
+
+    /**
+     * Get every window's aggregates, keyed by window length such as "10s".
+     *
+     * @param nowMs The current time in milliseconds
+     * @return Map of window name to its aggregates
+     */
+    public Map<String, Object> toMap(long nowMs) {
+        expire(nowMs);
+
+        Map<String, Object> windows = new HashMap<>();
+        for (int w = 0; w < windowsMs.length; w++) {
+            Map<String, Object> window = new HashMap<>();
+            window.put("steps", counts[w]);
+            window.put("meanActivity", getMeanActivity(w));
+            window.put("firingRate", getFiringRate(w));
+            window.put("weightDrift", getWeightDrift(w));
+            windows.put(formatWindow(windowsMs[w]), window);
+        }
+        return windows;
+    }
+
+    private void evictOldest(int w) {
+        int tail = tails[w];
+        counts[w]--;
+        activitySums[w] -= activity[tail];
+        firingSums[w] -= firing[tail];
+        tails[w] = (tail + 1) % capacity;
+        if (counts[w] == 0) {
+            // Reset to avoid accumulating rounding error
+            activitySums[w] = 0.0;
+            firingSums[w] = 0.0;
+        }
+    }
+
+    private static String formatWindow(long windowMs) {
+        return windowMs % 1000 == 0 ? (windowMs / 1000) + "s" : windowMs + "ms";
+    }
+}
@@ -0,0 +1,136 @@
+package tools;
+
+import simulation.StateReducer;
+import simulation.StateSnapshot;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * AggregationBenchmark times the merge and summary of node states done for
+ * final results, sequentially and on fork-join pools of 1, 2, 4, ... threads
+ * up to the available cores. Every configuration is warmed up before it is
+ * measured, so the JIT has compiled the reduction, and its median and best
+ * times are reported.
+ *
+ * Usage: java tools.AggregationBenchmark [nodes] [statesPerNode] [warmupRuns] [measuredRuns]
+ */
+public class AggregationBenchmark {
+
+    // Default input size and run counts
+    private static final int DEFAULT_NODES = 16;
+    private static final int DEFAULT_STATES_PER_NODE = 250000;
+    private static final int DEFAULT_WARMUP_RUNS = 10;
+    private static final int DEFAULT_MEASURED_RUNS = 10;
+
+    // Partitions per thread the parallel reductions are split into
+    private static final int PARTITIONS_PER_THREAD = 8;
+
+    private final int warmupRuns;
+    private final int measuredRuns;
+
+    public AggregationBenchmark(int warmupRuns, int measuredRuns) {
+        if (warmupRuns < 0 || measuredRuns <= 0) {
+            throw new IllegalArgumentException("Invalid run counts: " + warmupRuns + " warm-up, " +
+                                               measuredRuns + " measured");
+        }
+        this.warmupRuns = warmupRuns;
+        this.measuredRuns = measuredRuns;
+    }
+
+    public static void main(String[] args) {
+        int nodeCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_NODES;
+        int statesPerNode = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_STATES_PER_NODE;
+        int warmupRuns = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_WARMUP_RUNS;
+        int measuredRuns = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_MEASURED_RUNS;
+
+        new AggregationBenchmark(warmupRuns, measuredRuns).run(nodeCount, statesPerNode);
+    }
+
+    /**
+     * Run the benchmark and print the results.
+     *
+     * @param nodeCount The number of nodes
+     * @param statesPerNode The number of states each node reports
+     */
+    public void run(int nodeCount, int statesPerNode) {
+        List<StateSnapshot> snapshots = generate(nodeCount, statesPerNode);
+        long totalStates = (long) nodeCount * statesPerNode;
+
+        System.out.println("Aggregating " + nodeCount + " nodes x " + statesPerNode + " states (" +
+                           warmupRuns + " warm-up, " + measuredRuns + " measured runs):");
+        double[] sequential = time(new StateReducer(ForkJoinPool.commonPool(), Integer.MAX_VALUE), snapshots);
+        print("sequential", sequential, sequential[0]);
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= cores; threads = threads == cores ? cores + 1 : Math.min(threads * 2, cores)) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                int threshold = (int) Math.max(1, totalStates / ((long) threads * PARTITIONS_PER_THREAD));
+                print(threads + " threads", time(new StateReducer(pool, threshold), snapshots), sequential[0]);
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Generate dense snapshots with disjoint id ranges and membrane-like values.
+     */
+    private static List<StateSnapshot> generate(int nodeCount, int statesPerNode) {
+        Random random = new Random(42);
+        List<StateSnapshot> snapshots = new ArrayList<>();
+        for (int n = 0; n < nodeCount; n++) {
+            float[] values = new float[statesPerNode];
+            for (int i = 0; i < statesPerNode; i++) {
+                values[i] = (float) random.nextGaussian() * 10.0f - 65.0f;
+            }
+            snapshots.add(StateSnapshot.dense(n * statesPerNode, values));
+        }
+        return snapshots;
+    }
+
+    /**
+     * Time a reduction after warming it up.
+     *
+     * @return The median and best time in milliseconds
+     */
+    private double[] time(StateReducer reducer, List<StateSnapshot> snapshots) {
+        long expected = 0;
+        for (StateSnapshot snapshot : snapshots) {
+            expected += snapshot.size();
+        }
+
+        for (int i = 0; i < warmupRuns; i++) {
+            check(reducer.reduce(snapshots), expected);
+        }
+
+        double[] times = new double[measuredRuns];
+        for (int i = 0; i < measuredRuns; i++) {
+            long start = System.nanoTime();
+            StateReducer.Reduction reduction = reducer.reduce(snapshots);
+            times[i] = (System.nanoTime() - start) / 1e6;
+            check(reduction, expected);
+        }
+        Arrays.sort(times);
+        return new double[] {times[times.length / 2], times[0]};
+    }
+
+    /**
+     * Check a reduction kept every state, which also keeps the JIT from
+     * discarding its result.
+     */
+    private static void check(StateReducer.Reduction reduction, long expected) {
+        if (reduction.getMerged().size() != expected) {
+            throw new IllegalStateException("Reduction merged " + reduction.getMerged().size() +
+                                            " states, expected " + expected);
+        }
+    }
+
+    private static void print(String label, double[] times, double sequentialMedian) {
+        System.out.printf("  %-10s : median %8.2f ms, best %8.2f ms  (%.2fx)%n",
+                          label, times[0], times[1], sequentialMedian / times[0]);
+    }
+}
@@ -0,0 +1,284 @@
+package tools;
+
+import db.DeltaRebuilder;
+import db.PersistenceLayer;
+import net.MessageCodec;
+import net.StateDeltaEncoder;
+import simulation.Downsampler;
+import simulation.ResultProcessor;
+import simulation.SpikeEvents;
+import simulation.StateSnapshot;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * DeltaRoundTrip checks delta encoded results end to end without a node:
+ * states encoded by {@link StateDeltaEncoder}, framed and read back by
+ * {@link MessageCodec}, rebuilt by {@link ResultProcessor}, stored as
+ * keyframes and deltas, and rebuilt again by the {@link DeltaRebuilder} the
+ * persistence layer reads them with. One node is polled and another pushes
+ * frames, one of which is lost on the way. Every stored result, once
+ * rebuilt, must hold exactly the states the node had at that version, most
+ * must be stored as deltas, and the lost frame must make the processor ask
+ * for a keyframe.
+ *
+ * Usage: java tools.DeltaRoundTrip [steps] [neurons] [synapses]
+ * Exits with status 1 if any check fails.
+ */
+public class DeltaRoundTrip {
+
+    // Default run size
+    private static final int DEFAULT_STEPS = 200;
+    private static final int DEFAULT_NEURONS = 10000;
+    private static final int DEFAULT_SYNAPSES = 50000;
+
+    // Share of states changing per step, and versions between keyframes
+    private static final double NEURON_CHANGE_RATE = 0.1;
+    private static final double SYNAPSE_CHANGE_RATE = 0.001;
+    private static final int KEYFRAME_INTERVAL = 16;
+
+    // The pushed frame that is dropped before it reaches the processor
+    private static final int LOST_FRAME = 40;
+
+    private static final String SESSION_ID = "delta-round-trip";
+    private static final long SUBMIT_TIMEOUT_MS = 5000;
+
+    private final int steps;
+    private final Random random;
+    private final List<String> failures;
+
+    public DeltaRoundTrip(int steps) {
+        this.steps = steps;
+        this.random = new Random(42);
+        this.failures = new ArrayList<>();
+    }
+
+    public static void main(String[] args) {
+        int steps = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_STEPS;
+        int neurons = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_NEURONS;
+        int synapses = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_SYNAPSES;
+
+        DeltaRoundTrip check = new DeltaRoundTrip(steps);
+        for (boolean offHeap : new boolean[] {false, true}) {
+            check.run(neurons, synapses, offHeap);
+        }
+
+        if (check.failures.isEmpty()) {
+            System.out.println("All delta round trip checks passed");
+        } else {
+            for (String failure : check.failures) {
+                System.out.println("FAILED: " + failure);
+            }
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Run the polled and pushed node through one result processor.
+     *
+     * @param neurons The number of neuron states per node
+     * @param synapses The number of synapse states per node
+     * @param offHeap Whether the processor keeps states off-heap
+     */
+    private void run(int neurons, int synapses, boolean offHeap) {
+        String mode = offHeap ? "off-heap" : "on-heap";
+        CapturingPersistence persistence = new CapturingPersistence();
+        ResultProcessor processor = new ResultProcessor(persistence, -55.0f, offHeap);
+
+        SimulatedNode polled = new SimulatedNode("polled", neurons, synapses);
+        SimulatedNode pushed = new SimulatedNode("pushed", neurons, synapses);
+        boolean recovered = false;
+
+        try {
+            for (int step = 0; step < steps; step++) {
+                // Polled node: acknowledge the version the processor holds
+                polled.advance();
+                long acknowledged = processor.getSnapshotVersion(SESSION_ID, polled.nodeId);
+                ByteBuffer frame = polled.encode(acknowledged, false);
+                Map<String, Object> results = MessageCodec.readResults(frame, SESSION_ID);
+                if (!processor.processResults(SESSION_ID, polled.nodeId, results, SUBMIT_TIMEOUT_MS)) {
+                    failures.add(mode + ": polled results refused at step " + step);
+                }
+
+                // Pushed node: each frame is based on the previous one
+                pushed.advance();
+                frame = pushed.encode(MessageCodec.NO_VERSION, true);
+                results = MessageCodec.readPushedResults(frame, SESSION_ID);
+                if (step == LOST_FRAME) {
+                    continue;
+                }
+                boolean accepted = processor.processResults(SESSION_ID, pushed.nodeId, results, SUBMIT_TIMEOUT_MS);
+                boolean delta = (Long) results.get("baseVersion") != MessageCodec.NO_VERSION;
+                if (!accepted && !delta) {
+                    failures.add(mode + ": pushed keyframe refused at step " + step);
+                } else if (!accepted) {
+                    // A delta after the lost frame: the processor must forget the node's version
+                    if (processor.getSnapshotVersion(SESSION_ID, pushed.nodeId) != MessageCodec.NO_VERSION) {
+                        failures.add(mode + ": stale delta at step " + step + " did not reset the held version");
+                    }
+                    // Recover the way the controller does, by polling for a keyframe
+                    frame = pushed.encode(MessageCodec.NO_VERSION, false);
+                    results = MessageCodec.readResults(frame, SESSION_ID);
+                    if ((Long) results.get("baseVersion") != MessageCodec.NO_VERSION) {
+                        failures.add(mode + ": poll without a version did not return a keyframe");
+                    }
+                    recovered = processor.processResults(SESSION_ID, pushed.nodeId, results, SUBMIT_TIMEOUT_MS);
+                } else if (step > LOST_FRAME && delta && !recovered) {
+                    failures.add(mode + ": delta at step " + step + " accepted against a lost base");
+                }
+            }
+        } catch (IOException e) {
+            failures.add(mode + ": " + e.getMessage());
+        } finally {
+            processor.shutdown();
+        }
+
+        if (steps > LOST_FRAME + 1 && !recovered) {
+            failures.add(mode + ": pushed node never recovered after the lost frame");
+        }
+        int checked = verify(mode, polled, persistence) + verify(mode, pushed, persistence);
+        System.out.println(mode + ": checked " + checked + " stored results");
+    }
+
+    /**
+     * Rebuild every stored result of a node, in the order stored, and
+     * compare it with the states the node had at the result's version.
+     *
+     * @return The number of stored results checked
+     */
+    private int verify(String mode, SimulatedNode node, CapturingPersistence persistence) {
+        List<Map<String, Object>> stored = persistence.stored.getOrDefault(node.nodeId, new ArrayList<>());
+        if (stored.isEmpty()) {
+            failures.add(mode + ": no results stored for node " + node.nodeId);
+        }
+        DeltaRebuilder rebuilder = new DeltaRebuilder();
+        int deltas = 0;
+        for (Map<String, Object> row : stored) {
+            long version = (Long) row.get("version");
+            if (DeltaRebuilder.baseVersion(row) != DeltaRebuilder.NO_VERSION) {
+                deltas++;
+            }
+            Map<String, Object> results = rebuilder.rebuild(node.nodeId, row);
+            if (results == null) {
+                failures.add(mode + ": node " + node.nodeId + " version " + version + " stored against a missing base");
+                continue;
+            }
+            StateSnapshot[] expected = node.history.get(version);
+            if (!sameStates(expected[0], (StateSnapshot) results.get("neuronStates")) ||
+                !sameStates(expected[1], (StateSnapshot) results.get("synapseStates"))) {
+                failures.add(mode + ": node " + node.nodeId + " version " + version + " stored wrong states");
+            }
+        }
+        if (deltas * 2 < stored.size()) {
+            failures.add(mode + ": node " + node.nodeId + " stored only " + deltas + " of " + stored.size() +
+                         " results as deltas");
+        }
+        return stored.size();
+    }
+
+    private static boolean sameStates(StateSnapshot expected, StateSnapshot actual) {
+        if (actual == null || expected.size() != actual.size()) {
+            return false;
+        }
+        for (int i = 0; i < expected.size(); i++) {
+            if (expected.idAt(i) != actual.idAt(i) ||
+                Float.floatToIntBits(expected.valueAt(i)) != Float.floatToIntBits(actual.valueAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A node's states and the encoder the node would use for them.
+     */
+    private class SimulatedNode {
+        private final String nodeId;
+        private final float[] neurons;
+        private final float[] synapses;
+        private final StateDeltaEncoder encoder;
+        private final Map<Long, StateSnapshot[]> history;
+        private long nextVersion;
+
+        public SimulatedNode(String nodeId, int neuronCount, int synapseCount) {
+            this.nodeId = nodeId;
+            this.neurons = new float[neuronCount];
+            this.synapses = new float[synapseCount];
+            this.encoder = new StateDeltaEncoder(KEYFRAME_INTERVAL);
+            this.history = new HashMap<>();
+            for (int i = 0; i < neuronCount; i++) {
+                neurons[i] = -70.0f + random.nextFloat() * 20.0f;
+            }
+            for (int i = 0; i < synapseCount; i++) {
+                synapses[i] = random.nextFloat() * 2.0f - 1.0f;
+            }
+        }
+
+        /**
+         * Simulate one step: change a share of the states.
+         */
+        public void advance() {
+            for (int i = 0; i < neurons.length; i++) {
+                if (random.nextDouble() < NEURON_CHANGE_RATE) {
+                    neurons[i] = -70.0f + random.nextFloat() * 20.0f;
+                }
+            }
+            for (int i = 0; i < synapses.length; i++) {
+                if (random.nextDouble() < SYNAPSE_CHANGE_RATE) {
+                    synapses[i] += random.nextFloat() * 0.01f;
+                }
+            }
+        }
+
+        /**
+         * Encode the current states as a results response or pushed frame.
+         */
+        public ByteBuffer encode(long acknowledged, boolean push) {
+            StateSnapshot neuronStates = StateSnapshot.dense(0, neurons.clone());
+            StateSnapshot synapseStates = StateSnapshot.dense(0, synapses.clone());
+            history.put(nextVersion++, new StateSnapshot[] {neuronStates, synapseStates});
+
+            ByteBuffer buffer = ByteBuffer.allocate(64 + (neurons.length + synapses.length) * 8);
+            buffer.put(MessageCodec.STATUS_OK);
+            buffer.putLong(System.currentTimeMillis());
+            buffer.putInt(0);
+            if (push) {
+                encoder.writeNext(buffer, neuronStates, synapseStates);
+            } else {
+                encoder.write(buffer, acknowledged, neuronStates, synapseStates);
+            }
+            MessageCodec.writeSpikes(buffer, SpikeEvents.empty());
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    /**
+     * A persistence layer that keeps stored results in memory.
+     */
+    private static class CapturingPersistence extends PersistenceLayer {
+        private final Map<String, List<Map<String, Object>>> stored = new ConcurrentHashMap<>();
+
+        @Override
+        public boolean storeResults(String sessionId, String nodeId, Map<String, Object> results) {
+            stored.computeIfAbsent(nodeId, id -> new ArrayList<>()).add(results);
+            return true;
+        }
+
+        @Override
+        public boolean storeRollup(String sessionId, Downsampler.Rollup rollup) {
+            return true;
+        }
+
+        @Override
+        public boolean pruneResults(String sessionId, long nowMs) {
+            return true;
+        }
+    }
+}